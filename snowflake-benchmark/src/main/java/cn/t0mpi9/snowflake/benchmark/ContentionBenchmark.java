@@ -0,0 +1,103 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.GenerateMode;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各生成方式在1、4、16、64个线程竞争下nextId()的吞吐量
+ * <br/>
+ * 线程数写在方法的{@link Threads}上, 一次运行就能得到所有线程数的结果, 方便用-rf json输出后对比
+ * <br/>
+ * Created on 2020/7/6 14:02.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentionBenchmark {
+
+    @Param({"SYNCHRONIZED", "LOCK_FREE", "RING_BUFFER", "STRIPED"})
+    private GenerateMode generateMode;
+
+    private SnowflakeIdGenerate snowflakeIdGenerate;
+
+    @Setup
+    public void setup() {
+        snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .dataCenterId(1)
+                .generateMode(generateMode)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (snowflakeIdGenerate instanceof Closeable) {
+            ((Closeable) snowflakeIdGenerate).close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long nextIdThreads1() {
+        return snowflakeIdGenerate.nextId();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long nextIdThreads4() {
+        return snowflakeIdGenerate.nextId();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long nextIdThreads16() {
+        return snowflakeIdGenerate.nextId();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public long nextIdThreads64() {
+        return snowflakeIdGenerate.nextId();
+    }
+
+    /**
+     * 结果以json输出到contention.json
+     */
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ContentionBenchmark.class.getSimpleName())
+                .resultFormat(ResultFormatType.JSON)
+                .result("contention.json")
+                .build();
+        new Runner(options).run();
+    }
+}
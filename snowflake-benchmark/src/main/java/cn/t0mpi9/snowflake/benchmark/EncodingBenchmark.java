@@ -0,0 +1,93 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.IdEncoding;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IdEncoding编码解码和Long.toString、Long.parseLong的对比, 开启-prof gc可以看到每次操作的分配
+ * <br/>
+ * Created on 2020/7/22 16:00.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+
+    private static final int SIZE = 1 << 12;
+
+    @Param({"BASE62", "CROCKFORD_BASE32", "DECIMAL"})
+    private IdEncoding encoding;
+
+    private long[] ids;
+    private String[] strings;
+    private String[] encoded;
+    private char[] chars;
+    private ByteBuffer buffer;
+    private int index;
+
+    @Setup
+    public void setup() {
+        ids = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .dataCenterId(1)
+                .build()
+                .nextIds(SIZE);
+        strings = new String[SIZE];
+        encoded = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            strings[i] = Long.toString(ids[i]);
+            encoded[i] = encoding.encode(ids[i]);
+        }
+        chars = new char[encoding.width()];
+        buffer = ByteBuffer.allocate(encoding.width());
+    }
+
+    @Benchmark
+    public String longToString() {
+        return Long.toString(ids[index++ & (SIZE - 1)]);
+    }
+
+    @Benchmark
+    public long parseLong() {
+        return Long.parseLong(strings[index++ & (SIZE - 1)]);
+    }
+
+    @Benchmark
+    public char[] encodeChars() {
+        encoding.encode(ids[index++ & (SIZE - 1)], chars, 0);
+        return chars;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeByteBuffer() {
+        ((Buffer) buffer).clear();
+        encoding.encode(ids[index++ & (SIZE - 1)], buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public long decode() {
+        return encoding.decode(encoded[index++ & (SIZE - 1)]);
+    }
+}
@@ -0,0 +1,98 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import cn.t0mpi9.snowflake.server.IdProtocol;
+import cn.t0mpi9.snowflake.server.SnowflakeIdClient;
+import cn.t0mpi9.snowflake.server.SnowflakeIdServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个{@link SnowflakeIdServer}在本机回环上的吞吐和延迟
+ * <br/>
+ * clientNextId是{@link SnowflakeIdClient}预取后本地取号的吞吐, 所有线程共用一个客户端;
+ * fetchBlock是每个线程一个连接, 同步请求一块的往返延迟。
+ * 生成器用默认布局, 每毫秒最多4096个ID, 块较大时服务端的上限就是这个速度
+ * <br/>
+ * Created on 2020/8/6 18:00.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdServerBenchmark {
+
+    @Param({"1", "5000"})
+    private int blockSize;
+
+    private SnowflakeIdServer server;
+    private SnowflakeIdClient client;
+
+    @Setup
+    public void setup() throws IOException {
+        SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .dataCenterId(1)
+                .build();
+        server = new SnowflakeIdServer(snowflakeIdGenerate, new InetSocketAddress("127.0.0.1", 0)).start();
+        client = new SnowflakeIdClient(server.getLocalAddress(), blockSize, 4, 3000L);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long clientNextId() {
+        return client.nextId();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long[] fetchBlock(Connection connection) throws IOException {
+        return IdProtocol.fetch(connection.channel, blockSize, connection.header);
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        private SocketChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(4);
+
+        @Setup
+        public void setup(IdServerBenchmark benchmark) throws IOException {
+            channel = SocketChannel.open(benchmark.server.getLocalAddress());
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.GenerateMode;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各生成方式nextId()的延迟分布, 主要看p99.9
+ * <br/>
+ * Created on 2020/7/8 15:30.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class LatencyBenchmark {
+
+    @Param({"SYNCHRONIZED", "LOCK_FREE", "RING_BUFFER"})
+    private GenerateMode generateMode;
+
+    private SnowflakeIdGenerate snowflakeIdGenerate;
+
+    @Setup
+    public void setup() {
+        snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .dataCenterId(1)
+                .generateMode(generateMode)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (snowflakeIdGenerate instanceof Closeable) {
+            ((Closeable) snowflakeIdGenerate).close();
+        }
+    }
+
+    @Benchmark
+    public long nextId() {
+        return snowflakeIdGenerate.nextId();
+    }
+}
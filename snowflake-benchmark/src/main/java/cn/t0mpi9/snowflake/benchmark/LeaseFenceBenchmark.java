@@ -0,0 +1,81 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.BitLayout;
+import cn.t0mpi9.snowflake.GenerateMode;
+import cn.t0mpi9.snowflake.LeaseExpiryPolicy;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 租约检查对nextId()的开销
+ * <br/>
+ * NONE是没有租约(DIRECT方式), HEALTHY是租约未过期的正常情况, 两者走的都是一次volatile读和比较, 结果应该在误差范围内;
+ * EXPIRED是租约已过期按DEGRADED继续生成, 每个ID都进入慢路径计数, 作为对照。
+ * 默认布局每毫秒只有4096个sequence, 单线程就会等下一毫秒, 掩盖纳秒级的差别, 这里用20位sequence的布局
+ * <br/>
+ * Created on 2020/7/31 10:30.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeaseFenceBenchmark {
+
+    private static final BitLayout LAYOUT = BitLayout.builder()
+            .epoch(1593532800000L)
+            .dataCenterIdBits(0)
+            .workerIdBits(5)
+            .sequenceBits(20)
+            .build();
+
+    @Param({"NONE", "HEALTHY", "EXPIRED"})
+    private String lease;
+
+    @Param({"SYNCHRONIZED", "LOCK_FREE", "STRIPED"})
+    private GenerateMode generateMode;
+
+    private SnowflakeIdGenerate snowflakeIdGenerate;
+
+    @Setup
+    public void setup() {
+        snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .dataCenterId(0)
+                .bitLayout(LAYOUT)
+                .generateMode(generateMode)
+                .leaseExpiryPolicy(LeaseExpiryPolicy.DEGRADED)
+                .build();
+        switch (lease) {
+            case "HEALTHY":
+                snowflakeIdGenerate.renewLease(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+                break;
+            case "EXPIRED":
+                snowflakeIdGenerate.revokeLease();
+                break;
+            default:
+        }
+    }
+
+    @Benchmark
+    public long nextId() {
+        return snowflakeIdGenerate.nextId();
+    }
+}
@@ -0,0 +1,87 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.BitLayout;
+import cn.t0mpi9.snowflake.SnowflakeIdDecoder;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * parseId解析的开销, 默认布局和自定义布局各一组, 以及只取时间戳和批量解析的对比, 批量解析的结果是每批SIZE个ID的耗时
+ * <br/>
+ * Created on 2020/7/20 10:10.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseIdBenchmark {
+
+    private static final int SIZE = 1 << 12;
+
+    private final BitLayout bitLayout = BitLayout.builder()
+            .timeUnitMillis(10)
+            .dataCenterIdBits(0)
+            .workerIdBits(8)
+            .sequenceBits(15)
+            .build();
+
+    private final SnowflakeIdDecoder decoder = new SnowflakeIdDecoder(bitLayout);
+    private final SnowflakeIdDecoder.Columns columns = new SnowflakeIdDecoder.Columns(SIZE);
+
+    private long[] ids;
+    private long[] customIds;
+    private int index;
+
+    @Setup
+    public void setup() {
+        ids = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .dataCenterId(1)
+                .build()
+                .nextIds(SIZE);
+        customIds = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .bitLayout(bitLayout)
+                .build()
+                .nextIds(SIZE);
+    }
+
+    @Benchmark
+    public SnowflakeIdGenerate.SnowflakeId parseId() {
+        return SnowflakeIdGenerate.parseId(ids[index++ & (SIZE - 1)]);
+    }
+
+    @Benchmark
+    public SnowflakeIdGenerate.SnowflakeId parseCustomLayout() {
+        return bitLayout.parse(customIds[index++ & (SIZE - 1)]);
+    }
+
+    @Benchmark
+    public long parseTimestamp() {
+        return SnowflakeIdGenerate.parseTimestamp(ids[index++ & (SIZE - 1)]);
+    }
+
+    @Benchmark
+    public SnowflakeIdDecoder.Columns decodeColumns() {
+        decoder.decode(customIds, 0, SIZE, columns, 0);
+        return columns;
+    }
+}
@@ -0,0 +1,146 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.LeaseExpiryPolicy;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.builder.AbstractConfigBuilder;
+import cn.t0mpi9.snowflake.builder.FakeRedisServer;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各ConfigBuilder启动注册的延迟, 即build()到拿到SnowflakeIdGenerate的时间
+ * <br/>
+ * zookeeper用curator-test的进程内TestingServer, redis用{@link FakeRedisServer}。每次都用同一个ip:port注册,
+ * 第一次之后走的是服务重启时已有节点、检查时钟的路径。zookeeper每次新建连接, 包含建连时间;
+ * redis复用RedisClient只新建连接。关闭builder的时间也算在内。
+ * redisLettuceAsyncBootstrap是开启异步启动, 本地状态文件中有未到期的租约时build()返回的时间;
+ * redisLettuceAsyncHandover是同样的启动一直等到后台注册完成交接的时间, 两者的差就是异步启动省下的启动时间。
+ * 连续重启时逻辑时间戳从本地高水位之后开始, 第一个ID要等时钟追上, 这两个只取workerId, 不生成ID
+zookeeper 3.4.x的客户端在JDK14以上解析不了地址会一直重连, zookeeper()需要在JDK8~13下运行
+ * <br/>
+ * Created on 2020/7/20 11:00.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistrationBenchmark {
+
+    private static final String APPLICATION_NAME = "benchmark";
+    private static final String IP = "127.0.0.1";
+    private static final int PORT = 8080;
+
+    private TestingServer zookeeperServer;
+    private FakeRedisServer redisServer;
+    private RedisClient redisClient;
+    private File fileCachePath;
+
+    @Setup
+    public void setup() throws Exception {
+        zookeeperServer = new TestingServer(true);
+        redisServer = new FakeRedisServer();
+        redisClient = RedisClient.create(RedisURI.create(IP, redisServer.getPort()));
+        fileCachePath = Files.createTempDirectory("snowflake-benchmark").toFile();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        redisClient.shutdown();
+        redisServer.close();
+        zookeeperServer.close();
+    }
+
+    @Benchmark
+    public long zookeeper() throws IOException {
+        SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create();
+        return register(builder, builder.useZookeeper(zookeeperServer.getConnectString()));
+    }
+
+    @Benchmark
+    public long redisLettuce() throws IOException {
+        SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create();
+        return register(builder, builder.useLettuceRedis(redisClient));
+    }
+
+    @Benchmark
+    public long redisJedis() throws IOException {
+        SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create();
+        return register(builder, builder.useJedisRedis(new Jedis(IP, redisServer.getPort())));
+    }
+
+    @Benchmark
+    public long redisLettuceAsyncBootstrap() throws IOException {
+        SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create();
+        try {
+            return asyncBootstrap(builder.useLettuceRedis(redisClient)).getWorkerId();
+        } finally {
+            builder.close();
+        }
+    }
+
+    @Benchmark
+    public long redisLettuceAsyncHandover() throws IOException {
+        SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create();
+        try {
+            AbstractConfigBuilder<?> configBuilder = builder.useLettuceRedis(redisClient);
+            asyncBootstrap(configBuilder);
+            return configBuilder.getRegistration().join().getWorkerId();
+        } finally {
+            builder.close();
+        }
+    }
+
+    /**
+     * 第一次没有缓存时同步注册, 之后每次close时把租约写入本地状态文件, 下一次build()都从缓存启动
+     */
+    private SnowflakeIdGenerate asyncBootstrap(AbstractConfigBuilder<?> configBuilder) {
+        return configBuilder
+                .applicationName(APPLICATION_NAME)
+                .ip(IP)
+                .port(PORT)
+                .fileCachePath(fileCachePath.getAbsolutePath())
+                .asyncBootstrap(true)
+                .leaseExpiryPolicy(LeaseExpiryPolicy.REJECT)
+                .build();
+    }
+
+    /**
+     * 定时任务共用进程内的心跳线程, close时退出心跳组
+     */
+    private long register(SnowflakeIdGenerateBuilder builder, AbstractConfigBuilder<?> configBuilder) throws IOException {
+        try {
+            SnowflakeIdGenerate snowflakeIdGenerate = configBuilder
+                    .applicationName(APPLICATION_NAME)
+                    .ip(IP)
+                    .port(PORT)
+                    .localFileCache(false)
+                    .build();
+            return snowflakeIdGenerate.nextId();
+        } finally {
+            builder.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.GenerateMode;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * STRIPED方式不同段数下满线程的吞吐量, stripeBits=0即只有一段, 等同LOCK_FREE
+ * <br/>
+ * Created on 2020/7/15 14:10.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(Threads.MAX)
+@Fork(1)
+public class StripedBenchmark {
+
+    @Param({"0", "1", "2", "3", "4"})
+    private int stripeBits;
+
+    private SnowflakeIdGenerate snowflakeIdGenerate;
+
+    @Setup
+    public void setup() {
+        snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .dataCenterId(1)
+                .generateMode(GenerateMode.STRIPED)
+                .stripeBits(stripeBits)
+                .build();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return snowflakeIdGenerate.nextId();
+    }
+}
@@ -0,0 +1,60 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import cn.t0mpi9.snowflake.time.TimeSource;
+import cn.t0mpi9.snowflake.time.TimeSourceType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SYSTEM和CACHED两种时钟每次取时间以及nextId()的耗时
+ * <br/>
+ * Created on 2020/7/10 11:20.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeSourceBenchmark {
+
+    @Param({"SYSTEM", "CACHED"})
+    private TimeSourceType timeSourceType;
+
+    private TimeSource timeSource;
+    private SnowflakeIdGenerate snowflakeIdGenerate;
+
+    @Setup
+    public void setup() {
+        timeSource = timeSourceType.timeSource();
+        snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .timeSource(timeSource)
+                .build();
+    }
+
+    @Benchmark
+    public long currentTimeMillis() {
+        return timeSource.currentTimeMillis();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return snowflakeIdGenerate.nextId();
+    }
+}
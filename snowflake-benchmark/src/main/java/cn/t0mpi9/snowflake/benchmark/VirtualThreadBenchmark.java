@@ -0,0 +1,121 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.GenerateMode;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.WaitStrategy;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 几千个虚拟线程同时取号时各生成方式和WaitStrategy的对比, 需要在JDK 21及以上运行
+ * <br/>
+ * generate每次启动VIRTUAL_THREADS个虚拟线程各取IDS_PER_THREAD个ID, 等全部完成; 同组的bystander提交一个什么都不做的虚拟线程任务,
+ * 测量它等到载体线程的时间。等待时占住载体线程(pinning)的话bystander的延迟接近一毫秒, 锁外PARK等待时虚拟线程卸载, bystander很快被调度。
+ * 项目面向Java 8, 虚拟线程执行器通过反射创建; 运行时加上-jvmArgsAppend -Djdk.tracePinnedThreads=short可以打印发生pinning的位置
+ * <br/>
+ * Created on 2020/8/8 10:30.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.virtualThreadScheduler.parallelism=" + VirtualThreadBenchmark.CARRIERS)
+public class VirtualThreadBenchmark {
+
+    static final int CARRIERS = 4;
+    private static final int VIRTUAL_THREADS = 4096;
+    private static final int IDS_PER_THREAD = 4;
+
+    @Param({"SPIN_WAIT", "PARK"})
+    private WaitStrategy waitStrategy;
+
+    @Param({"SYNCHRONIZED", "LOCK_FREE"})
+    private GenerateMode generateMode;
+
+    private SnowflakeIdGenerate snowflakeIdGenerate;
+    private ExecutorService executor;
+    private final AtomicLong sink = new AtomicLong();
+
+    @Setup
+    public void setup() {
+        snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .dataCenterId(1)
+                .generateMode(generateMode)
+                .waitStrategy(waitStrategy)
+                .build();
+        executor = newVirtualThreadPerTaskExecutor();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 一次启动VIRTUAL_THREADS个虚拟线程取号, 每毫秒4096个ID, 大部分虚拟线程都要等下一毫秒
+     */
+    @Benchmark
+    @Group("virtual")
+    @GroupThreads(1)
+    public long generate() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(VIRTUAL_THREADS);
+        for (int i = 0; i < VIRTUAL_THREADS; i++) {
+            executor.execute(() -> {
+                long id = 0L;
+                for (int j = 0; j < IDS_PER_THREAD; j++) {
+                    id ^= snowflakeIdGenerate.nextId();
+                }
+                sink.addAndGet(id);
+                done.countDown();
+            });
+        }
+        done.await();
+        return sink.get();
+    }
+
+    /**
+     * 和generate同时运行, 一个虚拟线程任务从提交到执行完的时间, 反映载体线程被等待中的虚拟线程占住的程度
+     */
+    @Benchmark
+    @Group("virtual")
+    @GroupThreads(1)
+    public long bystander() throws InterruptedException, ExecutionException {
+        return executor.submit(System::nanoTime).get();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("虚拟线程需要JDK 21及以上, 当前java.version=" + System.getProperty("java.version"), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("创建虚拟线程执行器失败", e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package cn.t0mpi9.snowflake.benchmark;
+
+import cn.t0mpi9.snowflake.GenerateMode;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.WaitStrategy;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 线程数远多于CPU时各WaitStrategy的对比
+ * <br/>
+ * 单机每毫秒4096个ID很快用完, 大部分线程都在等下一毫秒, BUSY_SPIN的等待线程占着CPU, 和同时运行的其他任务(mixed组的bystander)抢时间片;
+ * PARK让出CPU, 其他任务的吞吐量基本不受影响。这里用的是平台线程, 虚拟线程上的情况见VirtualThreadBenchmark
+ * <br/>
+ * Created on 2020/7/24 14:10.
+ *
+ * @author zhubenle
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WaitStrategyBenchmark {
+
+    private static final int THREADS = 256;
+    private static final int BYSTANDERS = 4;
+
+    @Param({"BUSY_SPIN", "SPIN_WAIT", "YIELD", "PARK"})
+    private WaitStrategy waitStrategy;
+
+    @Param({"SYNCHRONIZED", "LOCK_FREE"})
+    private GenerateMode generateMode;
+
+    private SnowflakeIdGenerate snowflakeIdGenerate;
+
+    @Setup
+    public void setup() {
+        snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .dataCenterId(1)
+                .generateMode(generateMode)
+                .waitStrategy(waitStrategy)
+                .build();
+    }
+
+    @Benchmark
+    @Threads(THREADS)
+    public long nextId() {
+        return snowflakeIdGenerate.nextId();
+    }
+
+    /**
+     * 等待在锁外进行, SYNCHRONIZED方式也不会让其他线程阻塞在监视器上
+     */
+    @Benchmark
+    @Threads(THREADS)
+    public long tryNextId() {
+        return snowflakeIdGenerate.tryNextId(1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 和THREADS个生成ID的线程同时运行的BYSTANDERS个计算线程, bystander的吞吐量反映等待线程占用的CPU
+     */
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(THREADS)
+    public long mixedNextId() {
+        return snowflakeIdGenerate.nextId();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(BYSTANDERS)
+    public void mixedBystander() {
+        Blackhole.consumeCPU(1000);
+    }
+}
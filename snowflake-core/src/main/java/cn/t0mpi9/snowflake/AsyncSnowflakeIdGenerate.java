@@ -0,0 +1,229 @@
+package cn.t0mpi9.snowflake;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 不阻塞调用线程的SnowflakeIdGenerate
+ * <br/>
+ * 用{@link SnowflakeIdGenerate#tryNextIds(long[], int, int)}预先生成一块ID, 调用时从块中取, 取到就返回已完成的future。
+ * 块用完且生成器需要等待(sequence用完或时钟后移)时, 请求按顺序排队, 由定时器每隔一个时间单位重试,
+ * 调用线程不会自旋或wait, 适合在netty等事件循环线程中调用
+ * <br/>
+ * Created on 2020/7/23 10:20.
+ *
+ * @author zhubenle
+ */
+public class AsyncSnowflakeIdGenerate implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncSnowflakeIdGenerate.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    private final SnowflakeIdGenerate snowflakeIdGenerate;
+    private final ScheduledExecutorService timer;
+    private final boolean ownTimer;
+    /**
+     * 需要等待时的重试间隔, 一个时间单位
+     */
+    private final long retryMillis;
+
+    /**
+     * 预先生成的ID, [position, limit)是还没取走的
+     */
+    private final long[] block;
+    private int position;
+    private int limit;
+
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    public AsyncSnowflakeIdGenerate(SnowflakeIdGenerate snowflakeIdGenerate) {
+        this(snowflakeIdGenerate, DEFAULT_BLOCK_SIZE, null);
+    }
+
+    /**
+     * @param snowflakeIdGenerate 生成器
+     * @param blockSize           每次预先生成的ID数
+     * @param timer               重试用的定时器, 为null时创建一个单线程的, close时关闭
+     */
+    public AsyncSnowflakeIdGenerate(SnowflakeIdGenerate snowflakeIdGenerate, int blockSize,
+                                    ScheduledExecutorService timer) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize必须大于0");
+        }
+        this.snowflakeIdGenerate = Objects.requireNonNull(snowflakeIdGenerate);
+        this.block = new long[blockSize];
+        this.retryMillis = snowflakeIdGenerate.getBitLayout().getTimeUnitMillis();
+        this.ownTimer = timer == null;
+        this.timer = timer != null ? timer : new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "snowflake-async-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return 生成的ID, 块中有ID时返回已完成的future
+     */
+    public CompletableFuture<Long> nextId() {
+        if (requests.isEmpty()) {
+            long id = takeOne();
+            if (id >= 0) {
+                return CompletableFuture.completedFuture(id);
+            }
+        }
+        return enqueue(new long[1], 0).thenApply(ids -> ids[0]);
+    }
+
+    /**
+     * @param n 数量
+     * @return 严格递增的n个ID
+     */
+    public CompletableFuture<long[]> nextIds(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n不能小于0");
+        }
+        long[] ids = new long[n];
+        int filled = 0;
+        if (requests.isEmpty()) {
+            filled = take(ids, 0, n);
+            if (filled == n) {
+                return CompletableFuture.completedFuture(ids);
+            }
+        }
+        return enqueue(ids, filled);
+    }
+
+    private CompletableFuture<long[]> enqueue(long[] ids, int filled) {
+        Request request = new Request(ids, filled);
+        requests.offer(request);
+        scheduleDrain(0L);
+        return request.future;
+    }
+
+    /**
+     * @return 块中的下一个ID, 生成器需要等待时返回-1
+     */
+    private synchronized long takeOne() {
+        if (position == limit) {
+            position = 0;
+            limit = snowflakeIdGenerate.tryNextIds(block, 0, block.length);
+            if (limit == 0) {
+                return -1L;
+            }
+        }
+        return block[position++];
+    }
+
+    /**
+     * 从块中取ID, 块用完时不等待地补充
+     *
+     * @return 取到的数量, 生成器需要等待时小于len
+     */
+    private synchronized int take(long[] dst, int off, int len) {
+        int taken = 0;
+        while (taken < len) {
+            if (position == limit) {
+                position = 0;
+                limit = snowflakeIdGenerate.tryNextIds(block, 0, block.length);
+                if (limit == 0) {
+                    break;
+                }
+            }
+            int count = Math.min(len - taken, limit - position);
+            System.arraycopy(block, position, dst, off + taken, count);
+            position += count;
+            taken += count;
+        }
+        return taken;
+    }
+
+    private void scheduleDrain(long delayMillis) {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                timer.schedule(this::drain, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                draining.set(false);
+                failAll(e);
+            }
+        }
+    }
+
+    /**
+     * 在定时器线程中按顺序完成排队的请求, 生成器需要等待时过一个时间单位再试
+     */
+    private void drain() {
+        long delayMillis = 0L;
+        Request request;
+        try {
+            while ((request = requests.peek()) != null) {
+                request.filled += take(request.ids, request.filled, request.ids.length - request.filled);
+                if (request.filled < request.ids.length) {
+                    delayMillis = retryMillis;
+                    break;
+                }
+                requests.poll();
+                request.future.complete(request.ids);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("异步生成ID异常", e);
+            request = requests.poll();
+            if (request != null) {
+                request.future.completeExceptionally(e);
+            }
+        } finally {
+            draining.set(false);
+        }
+        if (!requests.isEmpty()) {
+            scheduleDrain(delayMillis);
+        }
+    }
+
+    private void failAll(Throwable e) {
+        Request request;
+        while ((request = requests.poll()) != null) {
+            request.future.completeExceptionally(e);
+        }
+    }
+
+    public SnowflakeIdGenerate getSnowflakeIdGenerate() {
+        return snowflakeIdGenerate;
+    }
+
+    /**
+     * @return 排队等待的请求数
+     */
+    public int getPendingCount() {
+        return requests.size();
+    }
+
+    @Override
+    public void close() {
+        if (ownTimer) {
+            timer.shutdownNow();
+        }
+        failAll(new IllegalStateException("AsyncSnowflakeIdGenerate已关闭"));
+    }
+
+    private static class Request {
+        private final long[] ids;
+        private final CompletableFuture<long[]> future = new CompletableFuture<>();
+        private int filled;
+
+        Request(long[] ids, int filled) {
+            this.ids = ids;
+            this.filled = filled;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package cn.t0mpi9.snowflake;
+
+/**
+ * ID的位布局
+ * <br/>
+ * 从高到低依次是: 1位符号位(始终为0) | 时间戳 | clockEpoch | dataCenterId | workerId | sequence,
+ * 时间戳位数 = 63 - clockEpochBits - dataCenterIdBits - workerIdBits - sequenceBits, 单位是timeUnitMillis毫秒, 相对epoch计算。
+ * clockEpoch默认0位, 给{@link RollbackStrategy#CLOCK_EPOCH}时钟后移时切换用
+ * 构造时校验并算好各段的偏移和掩码, 生成和解析ID都只做移位和与运算
+ * <br/>
+ * Created on 2020/7/16 9:40.
+ *
+ * @author zhubenle
+ */
+public final class BitLayout {
+
+    public static final long DEFAULT_EPOCH = 1288834974657L;
+    public static final int DEFAULT_DATA_CENTER_ID_BITS = 5;
+    public static final int DEFAULT_WORKER_ID_BITS = 5;
+    public static final int DEFAULT_SEQUENCE_BITS = 12;
+    public static final int MAX_CLOCK_EPOCH_BITS = 8;
+
+    /**
+     * 默认布局, 41位毫秒时间戳, 5位dataCenterId, 5位workerId, 12位sequence, 和原来的twitter snowflake一致
+     */
+    public static final BitLayout DEFAULT = builder().build();
+
+    /**
+     * 时间戳起点, 毫秒
+     */
+    private final long epoch;
+    /**
+     * 时间戳单位, 毫秒
+     */
+    private final long timeUnitMillis;
+    private final int clockEpochBits;
+    private final int dataCenterIdBits;
+    private final int workerIdBits;
+    private final int sequenceBits;
+    private final int timestampBits;
+
+    private final long epochTimestamp;
+    private final long maxClockEpoch;
+    private final long maxDataCenterId;
+    private final long maxWorkerId;
+    private final long maxTimestamp;
+    private final long sequenceMask;
+    private final int workerIdShift;
+    private final int dataCenterIdShift;
+    private final int clockEpochShift;
+    private final int timestampLeftShift;
+
+    private BitLayout(Builder builder) {
+        if (builder.epoch < 0) {
+            throw new IllegalArgumentException("epoch不能小于0");
+        }
+        if (builder.timeUnitMillis <= 0) {
+            throw new IllegalArgumentException("timeUnitMillis必须大于0");
+        }
+        if (builder.dataCenterIdBits < 0 || builder.workerIdBits < 0) {
+            throw new IllegalArgumentException("dataCenterIdBits和workerIdBits不能小于0");
+        }
+        if (builder.sequenceBits <= 0) {
+            throw new IllegalArgumentException("sequenceBits必须大于0");
+        }
+        if (builder.clockEpochBits < 0 || builder.clockEpochBits > MAX_CLOCK_EPOCH_BITS) {
+            throw new IllegalArgumentException(String.format("clockEpochBits取值范围[0, %d]", MAX_CLOCK_EPOCH_BITS));
+        }
+        int timestampBits = 63 - builder.clockEpochBits - builder.dataCenterIdBits - builder.workerIdBits
+                - builder.sequenceBits;
+        if (timestampBits < 1) {
+            throw new IllegalArgumentException("clockEpochBits + dataCenterIdBits + workerIdBits + sequenceBits必须小于63");
+        }
+        this.epoch = builder.epoch;
+        this.timeUnitMillis = builder.timeUnitMillis;
+        this.clockEpochBits = builder.clockEpochBits;
+        this.dataCenterIdBits = builder.dataCenterIdBits;
+        this.workerIdBits = builder.workerIdBits;
+        this.sequenceBits = builder.sequenceBits;
+        this.timestampBits = timestampBits;
+
+        this.epochTimestamp = epoch / timeUnitMillis;
+        this.maxClockEpoch = ~(-1L << clockEpochBits);
+        this.maxDataCenterId = ~(-1L << dataCenterIdBits);
+        this.maxWorkerId = ~(-1L << workerIdBits);
+        this.maxTimestamp = ~(-1L << timestampBits);
+        this.sequenceMask = ~(-1L << sequenceBits);
+        this.workerIdShift = sequenceBits;
+        this.dataCenterIdShift = sequenceBits + workerIdBits;
+        this.clockEpochShift = sequenceBits + workerIdBits + dataCenterIdBits;
+        this.timestampLeftShift = clockEpochShift + clockEpochBits;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return 以当前布局为初始值的Builder
+     */
+    public Builder toBuilder() {
+        return new Builder()
+                .epoch(epoch)
+                .timeUnitMillis(timeUnitMillis)
+                .clockEpochBits(clockEpochBits)
+                .dataCenterIdBits(dataCenterIdBits)
+                .workerIdBits(workerIdBits)
+                .sequenceBits(sequenceBits);
+    }
+
+    /**
+     * 解析ID
+     *
+     * @param snowflakeId ID
+     * @return 解析结果, 时间戳是ID所在时间单位的起始毫秒
+     */
+    public SnowflakeIdGenerate.SnowflakeId parse(long snowflakeId) {
+        return new SnowflakeIdGenerate.SnowflakeId(parseTimestamp(snowflakeId), parseWorkerId(snowflakeId),
+                parseDataCenterId(snowflakeId), parseClockEpoch(snowflakeId), parseSequence(snowflakeId));
+    }
+
+    /**
+     * 只取ID中的时间戳, 不创建对象, 大量解析时用下面这几个方法代替{@link #parse(long)}
+     *
+     * @param snowflakeId ID
+     * @return ID所在时间单位的起始毫秒
+     */
+    public long parseTimestamp(long snowflakeId) {
+        return ((snowflakeId >>> timestampLeftShift) + epochTimestamp) * timeUnitMillis;
+    }
+
+    public long parseClockEpoch(long snowflakeId) {
+        return (snowflakeId >>> clockEpochShift) & maxClockEpoch;
+    }
+
+    public long parseDataCenterId(long snowflakeId) {
+        return (snowflakeId >>> dataCenterIdShift) & maxDataCenterId;
+    }
+
+    public long parseWorkerId(long snowflakeId) {
+        return (snowflakeId >>> workerIdShift) & maxWorkerId;
+    }
+
+    public long parseSequence(long snowflakeId) {
+        return snowflakeId & sequenceMask;
+    }
+
+    /**
+     * @return 可分配的workerId和dataCenterId组合数, 即2^(dataCenterIdBits + workerIdBits)
+     */
+    public long getWorkerSpace() {
+        return 1L << (dataCenterIdBits + workerIdBits);
+    }
+
+    /**
+     * ZooKeeper或Redis分配的顺序号中低workerIdBits位作为workerId
+     *
+     * @param sequential 顺序号, 取值[0, workerSpace)
+     * @return workerId
+     */
+    public long workerIdOf(long sequential) {
+        return sequential & maxWorkerId;
+    }
+
+    /**
+     * ZooKeeper或Redis分配的顺序号中workerIdBits之上的dataCenterIdBits位作为dataCenterId
+     *
+     * @param sequential 顺序号, 取值[0, workerSpace)
+     * @return dataCenterId
+     */
+    public long dataCenterIdOf(long sequential) {
+        return (sequential >>> workerIdBits) & maxDataCenterId;
+    }
+
+    /**
+     * 检查顺序号没有超出workerId和dataCenterId的空间
+     *
+     * @param sequential 顺序号
+     */
+    public void checkSequential(long sequential) {
+        if (sequential < 0 || sequential >= getWorkerSpace()) {
+            throw new IllegalStateException(String.format("顺序号%d超出workerId和dataCenterId的空间[0, %d)",
+                    sequential, getWorkerSpace()));
+        }
+    }
+
+    /**
+     * @return 时间戳位能表示的最后一个毫秒
+     */
+    public long getMaxTimestampMillis() {
+        return (maxTimestamp + epochTimestamp) * timeUnitMillis + timeUnitMillis - 1;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getTimeUnitMillis() {
+        return timeUnitMillis;
+    }
+
+    public int getClockEpochBits() {
+        return clockEpochBits;
+    }
+
+    public int getDataCenterIdBits() {
+        return dataCenterIdBits;
+    }
+
+    public int getWorkerIdBits() {
+        return workerIdBits;
+    }
+
+    public int getSequenceBits() {
+        return sequenceBits;
+    }
+
+    public int getTimestampBits() {
+        return timestampBits;
+    }
+
+    /**
+     * @return 时间单位表示的epoch
+     */
+    public long getEpochTimestamp() {
+        return epochTimestamp;
+    }
+
+    public long getMaxClockEpoch() {
+        return maxClockEpoch;
+    }
+
+    public long getMaxDataCenterId() {
+        return maxDataCenterId;
+    }
+
+    public long getMaxWorkerId() {
+        return maxWorkerId;
+    }
+
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    public long getSequenceMask() {
+        return sequenceMask;
+    }
+
+    public int getWorkerIdShift() {
+        return workerIdShift;
+    }
+
+    public int getDataCenterIdShift() {
+        return dataCenterIdShift;
+    }
+
+    public int getClockEpochShift() {
+        return clockEpochShift;
+    }
+
+    public int getTimestampLeftShift() {
+        return timestampLeftShift;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BitLayout)) {
+            return false;
+        }
+        BitLayout that = (BitLayout) o;
+        return epoch == that.epoch
+                && timeUnitMillis == that.timeUnitMillis
+                && clockEpochBits == that.clockEpochBits
+                && dataCenterIdBits == that.dataCenterIdBits
+                && workerIdBits == that.workerIdBits
+                && sequenceBits == that.sequenceBits;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(epoch);
+        result = 31 * result + Long.hashCode(timeUnitMillis);
+        result = 31 * result + clockEpochBits;
+        result = 31 * result + dataCenterIdBits;
+        result = 31 * result + workerIdBits;
+        result = 31 * result + sequenceBits;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "BitLayout{"
+                + "epoch=" + epoch
+                + ", timeUnitMillis=" + timeUnitMillis
+                + ", timestampBits=" + timestampBits
+                + ", clockEpochBits=" + clockEpochBits
+                + ", dataCenterIdBits=" + dataCenterIdBits
+                + ", workerIdBits=" + workerIdBits
+                + ", sequenceBits=" + sequenceBits
+                + '}';
+    }
+
+    public static class Builder {
+        private long epoch = DEFAULT_EPOCH;
+        private long timeUnitMillis = 1L;
+        private int clockEpochBits;
+        private int dataCenterIdBits = DEFAULT_DATA_CENTER_ID_BITS;
+        private int workerIdBits = DEFAULT_WORKER_ID_BITS;
+        private int sequenceBits = DEFAULT_SEQUENCE_BITS;
+
+        private Builder() {
+        }
+
+        public Builder epoch(long epoch) {
+            this.epoch = epoch;
+            return this;
+        }
+
+        /**
+         * @param timeUnitMillis 时间戳单位, 例如1表示毫秒, 10表示10毫秒
+         * @return Builder
+         */
+        public Builder timeUnitMillis(long timeUnitMillis) {
+            this.timeUnitMillis = timeUnitMillis;
+            return this;
+        }
+
+        /**
+         * @param clockEpochBits 时钟后移时切换的clockEpoch位数, 取值[0, 8], 默认0
+         * @return Builder
+         */
+        public Builder clockEpochBits(int clockEpochBits) {
+            this.clockEpochBits = clockEpochBits;
+            return this;
+        }
+
+        public Builder dataCenterIdBits(int dataCenterIdBits) {
+            this.dataCenterIdBits = dataCenterIdBits;
+            return this;
+        }
+
+        public Builder workerIdBits(int workerIdBits) {
+            this.workerIdBits = workerIdBits;
+            return this;
+        }
+
+        public Builder sequenceBits(int sequenceBits) {
+            this.sequenceBits = sequenceBits;
+            return this;
+        }
+
+        public BitLayout build() {
+            return new BitLayout(this);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package cn.t0mpi9.snowflake;
+
+/**
+ * 时钟后移事件
+ * <br/>
+ * identity是生成器可用的workerId位组合的下标, 0是主workerId。CLOCK_EPOCH策略下就是clockEpoch,
+ * BACKUP_WORKER策略下1是备用workerId
+ * <br/>
+ * Created on 2020/7/17 9:40.
+ *
+ * @author zhubenle
+ */
+public class ClockRollbackEvent {
+
+    private final RollbackStrategy strategy;
+    private final long workerId;
+    private final long dataCenterId;
+    private final long lastTimestamp;
+    private final long timestamp;
+    private final int fromIdentity;
+    private final int toIdentity;
+
+    public ClockRollbackEvent(RollbackStrategy strategy, long workerId, long dataCenterId, long lastTimestamp,
+                              long timestamp, int fromIdentity, int toIdentity) {
+        this.strategy = strategy;
+        this.workerId = workerId;
+        this.dataCenterId = dataCenterId;
+        this.lastTimestamp = lastTimestamp;
+        this.timestamp = timestamp;
+        this.fromIdentity = fromIdentity;
+        this.toIdentity = toIdentity;
+    }
+
+    public RollbackStrategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return 生成器的主workerId
+     */
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * @return 生成器的主dataCenterId
+     */
+    public long getDataCenterId() {
+        return dataCenterId;
+    }
+
+    /**
+     * @return 后移前已生成ID的最大时间戳, 毫秒
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return 后移后的当前时间, 毫秒
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getMoveMillis() {
+        return lastTimestamp - timestamp;
+    }
+
+    public int getFromIdentity() {
+        return fromIdentity;
+    }
+
+    /**
+     * @return 切换到的identity, 没有可用的identity而退回等待时为-1
+     */
+    public int getToIdentity() {
+        return toIdentity;
+    }
+
+    /**
+     * @return 是否切换了identity继续生成, false表示退回等待
+     */
+    public boolean isSwitched() {
+        return toIdentity >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ClockRollbackEvent{"
+                + "strategy=" + strategy
+                + ", workerId=" + workerId
+                + ", dataCenterId=" + dataCenterId
+                + ", lastTimestamp=" + lastTimestamp
+                + ", timestamp=" + timestamp
+                + ", fromIdentity=" + fromIdentity
+                + ", toIdentity=" + toIdentity
+                + '}';
+    }
+}
@@ -0,0 +1,20 @@
+package cn.t0mpi9.snowflake;
+
+/**
+ * 时钟后移监听器
+ * <br/>
+ * 在生成ID的线程中同步回调, SYNCHRONIZED方式还持有生成器的锁, 实现不能阻塞
+ * <br/>
+ * Created on 2020/7/17 9:35.
+ *
+ * @author zhubenle
+ */
+@FunctionalInterface
+public interface ClockRollbackListener {
+    /**
+     * 时钟后移超过maxBorrowMillis时回调
+     *
+     * @param event 时钟后移事件
+     */
+    void onClockRollback(ClockRollbackEvent event);
+}
@@ -16,16 +16,41 @@ public class Constant {
     public static final String ROOT_NAME = "snowflake-id-generate";
     public static final String PERSISTENT_NAME = "persistent";
     public static final String EPHEMERAL_NAME = "ephemeral";
+    public static final String SEGMENT_NAME = "segment";
+    public static final String FREE_NAME = "free";
+    public static final String LEASE_NAME = "lease";
+    public static final String SLOT_NAME = "slot";
 
     public static final String COLON = ":";
+    public static final String COMMA = ",";
     public static final String SLASH = "/";
     public static final String STRIKE = "-";
+    /**
+     * BACKUP_WORKER策略时备用workerId在zookeeper和redis中登记的ip:port后缀
+     */
+    public static final String BACKUP_SUFFIX = "#backup";
+    /**
+     * 默认布局下的workerId和dataCenterId空间
+     *
+     * @deprecated 按{@link BitLayout#getWorkerSpace()}计算
+     */
+    @Deprecated
     public static final Integer MAX_SEQUENTIAL = 1024;
     public static final String TMP_DIR = System.getProperty("java.io.tmpdir");
     public static final Pattern PATTERN_APPLICATION_NAME = Pattern.compile("^[A-Za-z0-9\\-_]+$");
 
+    /**
+     * 默认布局下workerId和dataCenterId的掩码
+     *
+     * @deprecated 用{@link BitLayout#workerIdOf(long)}和{@link BitLayout#dataCenterIdOf(long)}拆分顺序号
+     */
+    @Deprecated
     public static final long BIT = 31L;
 
+    /**
+     * @deprecated 注册改用{@link #REDIS_REGISTER_SCRIPT}, 时钟检查和顺序号分配在一次调用中完成
+     */
+    @Deprecated
     public static final String REDIS_ADD_PERSISTENT_SCRIPT = ""
             + "local table_maxn = function(t)\n"
             + "  local mn = -1;\n"
@@ -48,6 +73,159 @@ public class Constant {
             + "redis.call('HSET', KEYS[1], KEYS[3], v);\n"
             + "return v;";
 
+    /**
+     * 注册时检查时钟、回收过期的顺序号并分配顺序号, 启动只需要一次往返
+     * <br/>
+     * KEYS: 持久化顺序号的hash, 上报时间戳的hash, 已占用顺序号的bitmap, 按租约到期时间排序的zset, ip:port, 可选的备用ip:port;
+     * ARGV: 当前时间戳, maxBorrowMillis, 租约时长, 回收余量, 顺序号空间
+     * <br/>
+     * 租约到期超过回收余量、并且上报的时间戳也早于当前时间减回收余量的实例, 释放其顺序号, 每次最多回收16个。
+     * 新顺序号用BITPOS取bitmap中第一个空位; bitmap不存在时按已有的hash初始化一次, 兼容之前HVALS取max+1分配的数据。
+     * 滚动升级期间旧版本实例仍然按max+1写入hash而不置位, 空位已经是hash中的值时补上置位后继续找
+     * <br/>
+     * 返回"顺序号:初始时间戳[:备用顺序号]"; 当前时间比上次上报的时间戳还小超过maxBorrowMillis时返回"-1:上次上报的时间戳",
+     * 顺序号空间用完时返回"-2:顺序号空间"
+     */
+    public static final String REDIS_REGISTER_SCRIPT = ""
+            + "local now = tonumber(ARGV[1]);\n"
+            + "local borrow = tonumber(ARGV[2]);\n"
+            + "local lease = tonumber(ARGV[3]);\n"
+            + "local margin = tonumber(ARGV[4]);\n"
+            + "local space = tonumber(ARGV[5]);\n"
+            + "local initial = 0;\n"
+            + "local pre = redis.call('HGET', KEYS[2], KEYS[5]);\n"
+            + "if (pre) then\n"
+            + "  if now + borrow < tonumber(pre) then\n"
+            + "    return '-1:' .. pre;\n"
+            + "  end\n"
+            + "  if borrow > 0 then\n"
+            + "    initial = math.max(now, tonumber(pre)) + borrow;\n"
+            + "  end\n"
+            + "end\n"
+            + "if redis.call('EXISTS', KEYS[3]) == 0 then\n"
+            + "  local all = redis.call('HGETALL', KEYS[1]);\n"
+            + "  for i = 1, #all, 2 do\n"
+            + "    redis.call('SETBIT', KEYS[3], tonumber(all[i + 1]), 1);\n"
+            + "    local t = redis.call('HGET', KEYS[2], all[i]);\n"
+            + "    redis.call('ZADD', KEYS[4], t and (tonumber(t) + lease) or (now + lease), all[i]);\n"
+            + "  end\n"
+            + "end\n"
+            + "local dead = redis.call('ZRANGEBYSCORE', KEYS[4], '-inf', now - margin, 'LIMIT', 0, 16);\n"
+            + "for k, m in ipairs(dead) do\n"
+            + "  local t = redis.call('HGET', KEYS[2], m);\n"
+            + "  if (not t) or tonumber(t) + margin < now then\n"
+            + "    local sq = redis.call('HGET', KEYS[1], m);\n"
+            + "    if (sq) then\n"
+            + "      redis.call('SETBIT', KEYS[3], tonumber(sq), 0);\n"
+            + "    end\n"
+            + "    redis.call('HDEL', KEYS[1], m);\n"
+            + "    redis.call('HDEL', KEYS[2], m);\n"
+            + "    redis.call('ZREM', KEYS[4], m);\n"
+            + "  end\n"
+            + "end\n"
+            + "local used;\n"
+            + "local acquire = function(field)\n"
+            + "  local sq = redis.call('HGET', KEYS[1], field);\n"
+            + "  if (sq) and tonumber(sq) < space then\n"
+            + "    redis.call('SETBIT', KEYS[3], tonumber(sq), 1);\n"
+            + "    return sq;\n"
+            + "  end\n"
+            + "  local pos = redis.call('BITPOS', KEYS[3], 0);\n"
+            + "  while pos >= 0 and pos < space do\n"
+            + "    if not used then\n"
+            + "      used = {};\n"
+            + "      for i, v in ipairs(redis.call('HVALS', KEYS[1])) do\n"
+            + "        used[tonumber(v)] = true;\n"
+            + "      end\n"
+            + "    end\n"
+            + "    if not used[pos] then\n"
+            + "      break;\n"
+            + "    end\n"
+            + "    redis.call('SETBIT', KEYS[3], pos, 1);\n"
+            + "    pos = redis.call('BITPOS', KEYS[3], 0);\n"
+            + "  end\n"
+            + "  if pos < 0 or pos >= space then\n"
+            + "    return nil;\n"
+            + "  end\n"
+            + "  used[pos] = true;\n"
+            + "  redis.call('SETBIT', KEYS[3], pos, 1);\n"
+            + "  redis.call('HSET', KEYS[1], field, pos);\n"
+            + "  return tostring(pos);\n"
+            + "end\n"
+            + "local time = string.format('%.0f', math.max(now, initial));\n"
+            + "local fields = {KEYS[5], KEYS[6]};\n"
+            + "local result = {};\n"
+            + "for i, field in ipairs(fields) do\n"
+            + "  local sq = acquire(field);\n"
+            + "  if not sq then\n"
+            + "    return '-2:' .. ARGV[5];\n"
+            + "  end\n"
+            + "  redis.call('HSET', KEYS[2], field, time);\n"
+            + "  redis.call('ZADD', KEYS[4], now + lease, field);\n"
+            + "  result[#result + 1] = sq;\n"
+            + "  if i == 1 then\n"
+            + "    result[#result + 1] = string.format('%.0f', initial);\n"
+            + "  end\n"
+            + "end\n"
+            + "return table.concat(result, ':');";
+
+    /**
+     * 定时上报逻辑时间戳并续租, 顺序号已被回收给其他实例时不续租
+     * <br/>
+     * KEYS: 持久化顺序号的hash, 上报时间戳的hash, 租约zset, ip:port, 可选的备用ip:port;
+     * ARGV: 逻辑时间戳, 租约到期时间, 顺序号, 可选的备用顺序号
+     * <br/>
+     * 返回"1"续租成功, "0"顺序号已不属于该实例
+     */
+    public static final String REDIS_HEARTBEAT_SCRIPT = ""
+            + "for i = 4, #KEYS do\n"
+            + "  if redis.call('HGET', KEYS[1], KEYS[i]) ~= ARGV[i - 1] then\n"
+            + "    return '0';\n"
+            + "  end\n"
+            + "end\n"
+            + "for i = 4, #KEYS do\n"
+            + "  redis.call('HSET', KEYS[2], KEYS[i], ARGV[1]);\n"
+            + "  redis.call('ZADD', KEYS[3], ARGV[2], KEYS[i]);\n"
+            + "end\n"
+            + "return '1';";
+
+    /**
+     * 合并上报多个实例, 每个实例的处理同{@link #REDIS_HEARTBEAT_SCRIPT}
+     * <br/>
+     * KEYS: 依次是每个实例的{@link #REDIS_HEARTBEAT_SCRIPT}的KEYS;
+     * ARGV: 实例数, 然后依次是每个实例的KEYS数和{@link #REDIS_HEARTBEAT_SCRIPT}的ARGV, 每个实例的ARGV个数等于它的KEYS数
+     * <br/>
+     * 返回按顺序用冒号连接的每个实例的结果, "1"续租成功, "0"顺序号已不属于该实例
+     */
+    public static final String REDIS_BATCH_HEARTBEAT_SCRIPT = ""
+            + "local result = {};\n"
+            + "local k = 0;\n"
+            + "local a = 1;\n"
+            + "for n = 1, tonumber(ARGV[1]) do\n"
+            + "  local count = tonumber(ARGV[a + 1]);\n"
+            + "  local owned = '1';\n"
+            + "  for i = 4, count do\n"
+            + "    if redis.call('HGET', KEYS[k + 1], KEYS[k + i]) ~= ARGV[a + i] then\n"
+            + "      owned = '0';\n"
+            + "      break;\n"
+            + "    end\n"
+            + "  end\n"
+            + "  if owned == '1' then\n"
+            + "    for i = 4, count do\n"
+            + "      redis.call('HSET', KEYS[k + 2], KEYS[k + i], ARGV[a + 2]);\n"
+            + "      redis.call('ZADD', KEYS[k + 3], ARGV[a + 3], KEYS[k + i]);\n"
+            + "    end\n"
+            + "  end\n"
+            + "  result[n] = owned;\n"
+            + "  k = k + count;\n"
+            + "  a = a + count;\n"
+            + "end\n"
+            + "return table.concat(result, ':');";
+
+    /**
+     * @deprecated 改用{@link #REDIS_HEARTBEAT_SCRIPT}, 存活状态记录在租约zset中, 不再为每个实例SET EX一个key
+     */
+    @Deprecated
     public static final String REDIS_UPDATE_EPHEMERAL_SCRIPT = ""
             + "redis.call('HSET', KEYS[2], KEYS[3], ARGV[1]);\n"
             + "redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2]);\n";
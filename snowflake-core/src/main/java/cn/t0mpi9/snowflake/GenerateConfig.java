@@ -0,0 +1,194 @@
+package cn.t0mpi9.snowflake;
+
+import cn.t0mpi9.snowflake.time.SystemTimeSource;
+import cn.t0mpi9.snowflake.time.TimeSource;
+
+import java.util.Objects;
+
+/**
+ * SnowflakeIdGenerate的生成参数
+ * <br/>
+ * Created on 2020/7/13 9:20.
+ *
+ * @author zhubenle
+ */
+public class GenerateConfig {
+
+    /**
+     * 时钟, 默认System.currentTimeMillis()
+     */
+    private TimeSource timeSource = SystemTimeSource.INSTANCE;
+    /**
+     * sequence用完时最多允许逻辑时间戳超前系统时间的毫秒数, 0表示不借用, 等待系统时间前进
+     */
+    private long maxBorrowMillis;
+    /**
+     * 逻辑时间戳起点, 生成的ID时间戳都大于该值, 小于等于0表示不限制
+     */
+    private long initialTimestamp;
+    /**
+     * ID的位布局, 默认{@link BitLayout#DEFAULT}
+     */
+    private BitLayout bitLayout = BitLayout.DEFAULT;
+    /**
+     * 时钟后移超过maxBorrowMillis时的处理策略, 默认WAIT
+     */
+    private RollbackStrategy rollbackStrategy = RollbackStrategy.WAIT;
+    /**
+     * BACKUP_WORKER策略的备用workerId, 小于0表示未配置
+     */
+    private long backupWorkerId = -1L;
+    /**
+     * BACKUP_WORKER策略的备用dataCenterId, 小于0表示和主dataCenterId相同
+     */
+    private long backupDataCenterId = -1L;
+    /**
+     * 时钟后移监听器, 可以为null
+     */
+    private ClockRollbackListener clockRollbackListener;
+    /**
+     * 等待下一个时间单位的方式, 默认BUSY_SPIN
+     */
+    private WaitStrategy waitStrategy = WaitStrategy.BUSY_SPIN;
+    /**
+     * workerId租约过期后的处理策略, 默认DEGRADED
+     */
+    private LeaseExpiryPolicy leaseExpiryPolicy = LeaseExpiryPolicy.DEGRADED;
+    /**
+     * FALLBACK_WORKER策略的备用workerId, 小于0表示未配置
+     */
+    private long fallbackWorkerId = -1L;
+    /**
+     * FALLBACK_WORKER策略的备用dataCenterId, 小于0表示和主dataCenterId相同
+     */
+    private long fallbackDataCenterId = -1L;
+
+    public GenerateConfig() {
+    }
+
+    public GenerateConfig(GenerateConfig config) {
+        this.timeSource = config.timeSource;
+        this.maxBorrowMillis = config.maxBorrowMillis;
+        this.initialTimestamp = config.initialTimestamp;
+        this.bitLayout = config.bitLayout;
+        this.rollbackStrategy = config.rollbackStrategy;
+        this.backupWorkerId = config.backupWorkerId;
+        this.backupDataCenterId = config.backupDataCenterId;
+        this.clockRollbackListener = config.clockRollbackListener;
+        this.waitStrategy = config.waitStrategy;
+        this.leaseExpiryPolicy = config.leaseExpiryPolicy;
+        this.fallbackWorkerId = config.fallbackWorkerId;
+        this.fallbackDataCenterId = config.fallbackDataCenterId;
+    }
+
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+
+    public GenerateConfig timeSource(TimeSource timeSource) {
+        this.timeSource = Objects.requireNonNull(timeSource);
+        return this;
+    }
+
+    public long getMaxBorrowMillis() {
+        return maxBorrowMillis;
+    }
+
+    public GenerateConfig maxBorrowMillis(long maxBorrowMillis) {
+        if (maxBorrowMillis < 0) {
+            throw new IllegalArgumentException("maxBorrowMillis不能小于0");
+        }
+        this.maxBorrowMillis = maxBorrowMillis;
+        return this;
+    }
+
+    public long getInitialTimestamp() {
+        return initialTimestamp;
+    }
+
+    public GenerateConfig initialTimestamp(long initialTimestamp) {
+        this.initialTimestamp = initialTimestamp;
+        return this;
+    }
+
+    public BitLayout getBitLayout() {
+        return bitLayout;
+    }
+
+    public GenerateConfig bitLayout(BitLayout bitLayout) {
+        this.bitLayout = Objects.requireNonNull(bitLayout);
+        return this;
+    }
+
+    public RollbackStrategy getRollbackStrategy() {
+        return rollbackStrategy;
+    }
+
+    public GenerateConfig rollbackStrategy(RollbackStrategy rollbackStrategy) {
+        this.rollbackStrategy = Objects.requireNonNull(rollbackStrategy);
+        return this;
+    }
+
+    public long getBackupWorkerId() {
+        return backupWorkerId;
+    }
+
+    public GenerateConfig backupWorkerId(long backupWorkerId) {
+        this.backupWorkerId = backupWorkerId;
+        return this;
+    }
+
+    public long getBackupDataCenterId() {
+        return backupDataCenterId;
+    }
+
+    public GenerateConfig backupDataCenterId(long backupDataCenterId) {
+        this.backupDataCenterId = backupDataCenterId;
+        return this;
+    }
+
+    public ClockRollbackListener getClockRollbackListener() {
+        return clockRollbackListener;
+    }
+
+    public GenerateConfig clockRollbackListener(ClockRollbackListener clockRollbackListener) {
+        this.clockRollbackListener = clockRollbackListener;
+        return this;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public GenerateConfig waitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+        return this;
+    }
+
+    public LeaseExpiryPolicy getLeaseExpiryPolicy() {
+        return leaseExpiryPolicy;
+    }
+
+    public GenerateConfig leaseExpiryPolicy(LeaseExpiryPolicy leaseExpiryPolicy) {
+        this.leaseExpiryPolicy = Objects.requireNonNull(leaseExpiryPolicy);
+        return this;
+    }
+
+    public long getFallbackWorkerId() {
+        return fallbackWorkerId;
+    }
+
+    public GenerateConfig fallbackWorkerId(long fallbackWorkerId) {
+        this.fallbackWorkerId = fallbackWorkerId;
+        return this;
+    }
+
+    public long getFallbackDataCenterId() {
+        return fallbackDataCenterId;
+    }
+
+    public GenerateConfig fallbackDataCenterId(long fallbackDataCenterId) {
+        this.fallbackDataCenterId = fallbackDataCenterId;
+        return this;
+    }
+}
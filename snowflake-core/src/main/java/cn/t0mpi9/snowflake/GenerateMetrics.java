@@ -0,0 +1,196 @@
+package cn.t0mpi9.snowflake;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SnowflakeIdGenerate的运行指标
+ * <br/>
+ * 计数都用LongAdder, 多线程生成ID时各自累加到不同的cell, 不会成为新的竞争点, 读取时才求和。
+ * 耗时只在真正等待时才调用System.nanoTime(), 不等待的路径没有额外开销。
+ * 每个SnowflakeIdGenerate一份, 通过{@link SnowflakeIdGenerate#getMetrics()}获取,
+ * spring-boot中有micrometer时会注册成meter
+ * <br/>
+ * Created on 2020/7/21 9:30.
+ *
+ * @author zhubenle
+ */
+public class GenerateMetrics {
+
+    /**
+     * 已生成的ID数, RING_BUFFER方式只计被取走的
+     */
+    private final LongAdder issuedCount = new LongAdder();
+    /**
+     * 同一时间单位内sequence用完的次数
+     */
+    private final LongAdder sequenceOverflowCount = new LongAdder();
+    /**
+     * sequence用完后在tilNextMillis中按WaitStrategy等待的纳秒数, 借用毫秒不计
+     */
+    private final LongAdder tilNextMillisNanos = new LongAdder();
+    /**
+     * 借用下一毫秒的次数
+     */
+    private final LongAdder borrowCount = new LongAdder();
+    /**
+     * 逻辑时间戳超前系统时间的最大毫秒数
+     */
+    private final AtomicLong maxLeadMillis = new AtomicLong();
+    /**
+     * 时钟后移超过maxBorrowMillis的次数
+     */
+    private final LongAdder rollbackCount = new LongAdder();
+    /**
+     * 时钟后移时退回等待的纳秒数
+     */
+    private final LongAdder rollbackWaitNanos = new LongAdder();
+    /**
+     * tryNextId(timeout)超时返回-1的次数
+     */
+    private final LongAdder timeoutCount = new LongAdder();
+    /**
+     * RING_BUFFER方式RingBuffer被取空的次数
+     */
+    private final LongAdder starvationCount = new LongAdder();
+    /**
+     * zookeeper或redis定时上报成功次数
+     */
+    private final LongAdder heartbeatSuccessCount = new LongAdder();
+    /**
+     * zookeeper或redis定时上报失败次数
+     */
+    private final LongAdder heartbeatFailureCount = new LongAdder();
+    /**
+     * 时间戳到了workerId租约到期时间的ID数, REJECT策略是被拒绝的次数
+     */
+    private final LongAdder leaseExpiredCount = new LongAdder();
+
+    void recordIssued() {
+        issuedCount.increment();
+    }
+
+    void recordIssued(long count) {
+        issuedCount.add(count);
+    }
+
+    void recordSequenceOverflow() {
+        sequenceOverflowCount.increment();
+    }
+
+    void recordTilNextMillis(long nanos) {
+        tilNextMillisNanos.add(nanos);
+    }
+
+    void recordBorrow(long leadMillis) {
+        borrowCount.increment();
+        if (leadMillis > maxLeadMillis.get()) {
+            maxLeadMillis.accumulateAndGet(leadMillis, Math::max);
+        }
+    }
+
+    void recordRollback() {
+        rollbackCount.increment();
+    }
+
+    void recordRollbackWait(long nanos) {
+        rollbackWaitNanos.add(nanos);
+    }
+
+    void recordTimeout() {
+        timeoutCount.increment();
+    }
+
+    void recordStarvation() {
+        starvationCount.increment();
+    }
+
+    void recordLeaseExpired() {
+        leaseExpiredCount.increment();
+    }
+
+    /**
+     * 记录一次定时上报的结果, 由ConfigBuilder的定时任务调用
+     *
+     * @param success 是否成功
+     */
+    public void recordHeartbeat(boolean success) {
+        if (success) {
+            heartbeatSuccessCount.increment();
+        } else {
+            heartbeatFailureCount.increment();
+        }
+    }
+
+    public long getIssuedCount() {
+        return issuedCount.sum();
+    }
+
+    public long getSequenceOverflowCount() {
+        return sequenceOverflowCount.sum();
+    }
+
+    public long getTilNextMillisNanos() {
+        return tilNextMillisNanos.sum();
+    }
+
+    /**
+     * @return 借用下一毫秒的次数, LOCK_FREE方式CAS竞争时可能多计
+     */
+    public long getBorrowCount() {
+        return borrowCount.sum();
+    }
+
+    public long getMaxLeadMillis() {
+        return maxLeadMillis.get();
+    }
+
+    /**
+     * @return 时钟后移超过maxBorrowMillis的次数, 包括切换identity和退回等待, LOCK_FREE方式退回等待时可能多计
+     */
+    public long getRollbackCount() {
+        return rollbackCount.sum();
+    }
+
+    public long getRollbackWaitNanos() {
+        return rollbackWaitNanos.sum();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getStarvationCount() {
+        return starvationCount.sum();
+    }
+
+    public long getHeartbeatSuccessCount() {
+        return heartbeatSuccessCount.sum();
+    }
+
+    public long getHeartbeatFailureCount() {
+        return heartbeatFailureCount.sum();
+    }
+
+    public long getLeaseExpiredCount() {
+        return leaseExpiredCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "GenerateMetrics{"
+                + "issuedCount=" + getIssuedCount()
+                + ", sequenceOverflowCount=" + getSequenceOverflowCount()
+                + ", tilNextMillisNanos=" + getTilNextMillisNanos()
+                + ", borrowCount=" + getBorrowCount()
+                + ", maxLeadMillis=" + getMaxLeadMillis()
+                + ", rollbackCount=" + getRollbackCount()
+                + ", rollbackWaitNanos=" + getRollbackWaitNanos()
+                + ", timeoutCount=" + getTimeoutCount()
+                + ", starvationCount=" + getStarvationCount()
+                + ", heartbeatSuccessCount=" + getHeartbeatSuccessCount()
+                + ", heartbeatFailureCount=" + getHeartbeatFailureCount()
+                + ", leaseExpiredCount=" + getLeaseExpiredCount()
+                + '}';
+    }
+}
@@ -0,0 +1,27 @@
+package cn.t0mpi9.snowflake;
+
+/**
+ * ID生成方式
+ * <br/>
+ * Created on 2020/7/6 10:12.
+ *
+ * @author zhubenle
+ */
+public enum GenerateMode {
+    /**
+     * synchronized监视器保护sequence和lastTimestamp, 默认方式
+     */
+    SYNCHRONIZED,
+    /**
+     * 时间戳和sequence打包到一个long中CAS更新, 无锁
+     */
+    LOCK_FREE,
+    /**
+     * 后台线程预先生成ID放到RingBuffer中, nextId()只移动游标
+     */
+    RING_BUFFER,
+    /**
+     * sequence高位拆成多段, 线程按哈希使用各自的段, 段之间不竞争
+     */
+    STRIPED
+}
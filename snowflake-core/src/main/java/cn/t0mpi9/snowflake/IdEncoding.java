@@ -0,0 +1,287 @@
+package cn.t0mpi9.snowflake;
+
+import java.nio.Buffer;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * ID的定长字符串编码
+ * <br/>
+ * 编码结果左侧补0到固定宽度, 字符表按ASCII升序排列, 所以字符串的字典序和ID的数值顺序一致, 可以直接作为KV存储的key排序。
+ * 编码和解码都查表, 直接写入char[]、StringBuilder或ByteBuffer(ASCII), 除了{@link #encode(long)}不创建中间对象。
+ * 只支持非负的ID
+ * <br/>
+ * Created on 2020/7/22 14:20.
+ *
+ * @author zhubenle
+ */
+public enum IdEncoding {
+
+    /**
+     * 0-9A-Za-z, 11位
+     */
+    BASE62("0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz", 11, false),
+    /**
+     * Crockford Base32, 去掉了I、L、O、U, 13位, 解码时不区分大小写, I、L当作1, O当作0
+     */
+    CROCKFORD_BASE32("0123456789ABCDEFGHJKMNPQRSTVWXYZ", 13, true),
+    /**
+     * 十进制, 19位
+     */
+    DECIMAL("0123456789", 19, false);
+
+    private final char[] digits;
+    /**
+     * 0到radix^2 - 1的两位编码, 非2的幂时每次除以radix^2取两位, 除法次数减半
+     */
+    private final char[] pairHigh;
+    private final char[] pairLow;
+    private final byte[] values;
+    private final int radix;
+    private final int radix2;
+    private final int width;
+    /**
+     * radix是2的幂时的位数, 用移位代替除法, 否则为0
+     */
+    private final int shift;
+    /**
+     * 解码时判断溢出
+     */
+    private final long limit;
+    private final long limitDigit;
+
+    /**
+     * @param digits  按ASCII升序排列的字符表
+     * @param width   编码后的字符数
+     * @param lenient 解码时是否按Crockford的规则不区分大小写并容错
+     */
+    IdEncoding(String digits, int width, boolean lenient) {
+        this.digits = digits.toCharArray();
+        this.radix = this.digits.length;
+        this.width = width;
+        this.radix2 = radix * radix;
+        this.shift = Integer.bitCount(radix) == 1 ? Integer.numberOfTrailingZeros(radix) : 0;
+        this.pairHigh = new char[radix2];
+        this.pairLow = new char[radix2];
+        for (int i = 0; i < radix2; i++) {
+            pairHigh[i] = this.digits[i / radix];
+            pairLow[i] = this.digits[i % radix];
+        }
+        this.limit = Long.MAX_VALUE / radix;
+        this.limitDigit = Long.MAX_VALUE % radix;
+        this.values = new byte[128];
+        Arrays.fill(values, (byte) -1);
+        for (int i = 0; i < radix; i++) {
+            values[this.digits[i]] = (byte) i;
+        }
+        if (lenient) {
+            for (int i = 0; i < radix; i++) {
+                values[Character.toLowerCase(this.digits[i])] = (byte) i;
+            }
+            values['I'] = values['i'] = values['L'] = values['l'] = 1;
+            values['O'] = values['o'] = 0;
+        }
+    }
+
+    /**
+     * @return 编码后的字符数
+     */
+    public int width() {
+        return width;
+    }
+
+    public String encode(long id) {
+        char[] chars = new char[width];
+        encode(id, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * 编码写入dst[off, off + width)
+     *
+     * @param id  ID
+     * @param dst 目标数组
+     * @param off 起始下标
+     */
+    public void encode(long id, char[] dst, int off) {
+        checkId(id);
+        if (off < 0 || width > dst.length - off) {
+            throw new IndexOutOfBoundsException(String.format("off=%d, width=%d, length=%d", off, width, dst.length));
+        }
+        int i = off + width;
+        if (shift > 0) {
+            long mask = radix - 1;
+            while (i > off) {
+                dst[--i] = digits[(int) (id & mask)];
+                id >>>= shift;
+            }
+            return;
+        }
+        while (id > Integer.MAX_VALUE) {
+            long q = id / radix2;
+            int r = (int) (id - q * radix2);
+            dst[--i] = pairLow[r];
+            dst[--i] = pairHigh[r];
+            id = q;
+        }
+        int v = (int) id;
+        while (i - off >= 2) {
+            int q = v / radix2;
+            int r = v - q * radix2;
+            dst[--i] = pairLow[r];
+            dst[--i] = pairHigh[r];
+            v = q;
+        }
+        if (i > off) {
+            dst[--i] = digits[v];
+        }
+    }
+
+    /**
+     * 编码追加到dst末尾
+     *
+     * @param id  ID
+     * @param dst 目标StringBuilder
+     */
+    public void encode(long id, StringBuilder dst) {
+        checkId(id);
+        int off = dst.length();
+        dst.setLength(off + width);
+        int i = off + width;
+        if (shift > 0) {
+            long mask = radix - 1;
+            while (i > off) {
+                dst.setCharAt(--i, digits[(int) (id & mask)]);
+                id >>>= shift;
+            }
+            return;
+        }
+        while (id > Integer.MAX_VALUE) {
+            long q = id / radix2;
+            int r = (int) (id - q * radix2);
+            dst.setCharAt(--i, pairLow[r]);
+            dst.setCharAt(--i, pairHigh[r]);
+            id = q;
+        }
+        int v = (int) id;
+        while (i - off >= 2) {
+            int q = v / radix2;
+            int r = v - q * radix2;
+            dst.setCharAt(--i, pairLow[r]);
+            dst.setCharAt(--i, pairHigh[r]);
+            v = q;
+        }
+        if (i > off) {
+            dst.setCharAt(--i, digits[v]);
+        }
+    }
+
+    /**
+     * 按ASCII编码写入dst的position处, position增加width
+     *
+     * @param id  ID
+     * @param dst 目标ByteBuffer
+     */
+    public void encode(long id, ByteBuffer dst) {
+        checkId(id);
+        if (dst.remaining() < width) {
+            throw new BufferOverflowException();
+        }
+        int off = dst.position();
+        ((Buffer) dst).position(off + width);
+        int i = off + width;
+        if (shift > 0) {
+            long mask = radix - 1;
+            while (i > off) {
+                dst.put(--i, (byte) digits[(int) (id & mask)]);
+                id >>>= shift;
+            }
+            return;
+        }
+        while (id > Integer.MAX_VALUE) {
+            long q = id / radix2;
+            int r = (int) (id - q * radix2);
+            dst.put(--i, (byte) pairLow[r]);
+            dst.put(--i, (byte) pairHigh[r]);
+            id = q;
+        }
+        int v = (int) id;
+        while (i - off >= 2) {
+            int q = v / radix2;
+            int r = v - q * radix2;
+            dst.put(--i, (byte) pairLow[r]);
+            dst.put(--i, (byte) pairHigh[r]);
+            v = q;
+        }
+        if (i > off) {
+            dst.put(--i, (byte) digits[v]);
+        }
+    }
+
+    public long decode(CharSequence src) {
+        if (src.length() != width) {
+            throw new IllegalArgumentException(String.format("%s编码的长度必须是%d: %s", name(), width, src));
+        }
+        long id = 0L;
+        for (int i = 0; i < width; i++) {
+            id = accumulate(id, src.charAt(i));
+        }
+        return id;
+    }
+
+    /**
+     * 解码src[off, off + width)
+     *
+     * @param src 源数组
+     * @param off 起始下标
+     * @return ID
+     */
+    public long decode(char[] src, int off) {
+        if (off < 0 || width > src.length - off) {
+            throw new IndexOutOfBoundsException(String.format("off=%d, width=%d, length=%d", off, width, src.length));
+        }
+        long id = 0L;
+        for (int i = off, end = off + width; i < end; i++) {
+            id = accumulate(id, src[i]);
+        }
+        return id;
+    }
+
+    /**
+     * 从src的position处读取width个ASCII字符解码, position增加width
+     *
+     * @param src 源ByteBuffer
+     * @return ID
+     */
+    public long decode(ByteBuffer src) {
+        if (src.remaining() < width) {
+            throw new BufferUnderflowException();
+        }
+        int off = src.position();
+        long id = 0L;
+        for (int i = off, end = off + width; i < end; i++) {
+            id = accumulate(id, (char) (src.get(i) & 0xFF));
+        }
+        ((Buffer) src).position(off + width);
+        return id;
+    }
+
+    private long accumulate(long id, char c) {
+        int value = c < values.length ? values[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException(String.format("%s编码中有非法字符'%c'", name(), c));
+        }
+        if (id > limit || (id == limit && value > limitDigit)) {
+            throw new IllegalArgumentException(String.format("%s编码超出long的范围", name()));
+        }
+        return id * radix + value;
+    }
+
+    private static void checkId(long id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("ID不能小于0");
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package cn.t0mpi9.snowflake;
+
+/**
+ * zookeeper或redis分配的workerId租约过期后的处理策略
+ * <br/>
+ * 定时上报持续失败时租约会过期, 过期后该workerId可能被其他实例回收, 继续用它生成的ID可能重复。
+ * 只判断ID的时间戳是否到了租约到期时间, 到期之前生成的ID即使在到期之后才取走也不会和回收方重复
+ * <br/>
+ * Created on 2020/7/31 9:40.
+ *
+ * @author zhubenle
+ */
+public enum LeaseExpiryPolicy {
+    /**
+     * 抛IllegalStateException拒绝生成ID, 直到续租成功
+     */
+    REJECT,
+    /**
+     * 降级继续用原workerId生成, 记录日志和指标告警, 默认策略, 和没有租约检查之前的行为一致
+     */
+    DEGRADED,
+    /**
+     * 切换到预留的备用workerId和dataCenterId继续生成, 续租成功后切回。
+     * 备用workerId不能由zookeeper或redis分配, 需要每个实例单独预留, 不能和BACKUP_WORKER策略同时使用
+     */
+    FALLBACK_WORKER
+}
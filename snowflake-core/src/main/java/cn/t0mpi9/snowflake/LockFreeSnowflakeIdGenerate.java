@@ -0,0 +1,190 @@
+package cn.t0mpi9.snowflake;
+
+import cn.t0mpi9.snowflake.time.TimeSource;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁的SnowflakeIdGenerate
+ * <br/>
+ * identity << identityShift | (timestamp - twepoch) << sequenceBits | sequence 打包保存在一个AtomicLong中, 通过CAS循环更新,
+ * 生成的ID结构和唯一性与{@link SnowflakeIdGenerate}完全相同
+ * <br/>
+ * Created on 2020/7/6 10:20.
+ *
+ * @author zhubenle
+ */
+public class LockFreeSnowflakeIdGenerate extends SnowflakeIdGenerate {
+
+    /**
+     * 高位是identity, 中间是相对twepoch的时间戳, 低sequenceBits位是sequence
+     */
+    private final AtomicLong state = new AtomicLong();
+    /**
+     * identity在state中的偏移, 时间戳和sequence之上
+     */
+    private final long identityShift;
+    private final long timestampMask;
+
+    public LockFreeSnowflakeIdGenerate(long workerId, long dataCenterId) {
+        this(workerId, dataCenterId, new GenerateConfig());
+    }
+
+    public LockFreeSnowflakeIdGenerate(long workerId, long dataCenterId, TimeSource timeSource) {
+        this(workerId, dataCenterId, new GenerateConfig().timeSource(timeSource));
+    }
+
+    public LockFreeSnowflakeIdGenerate(long workerId, long dataCenterId, GenerateConfig config) {
+        super(workerId, dataCenterId, config);
+        this.identityShift = bitLayout.getTimestampBits() + sequenceBits;
+        this.timestampMask = bitLayout.getMaxTimestamp();
+        if (config.getInitialTimestamp() > 0) {
+            state.set(((toTimestamp(config.getInitialTimestamp()) - twepoch) << sequenceBits) | sequenceMask);
+        }
+    }
+
+    @Override
+    public long nextId() {
+        return nextId(true);
+    }
+
+    @Override
+    public long tryNextId() {
+        return nextId(false);
+    }
+
+    /**
+     * @param wait 需要等待时是否等待
+     * @return ID, 不等待且需要等待时返回-1
+     */
+    private long nextId(boolean wait) {
+        for (; ; ) {
+            long current = state.get();
+            long next = nextState(current, wait);
+            if (next < 0) {
+                return -1L;
+            }
+            if (state.compareAndSet(current, next)) {
+                if ((current ^ next) >>> identityShift != 0) {
+                    onClockRollback(timestampOf(current), timestampOf(next), identityOf(current), identityOf(next));
+                }
+                long id = fence((((next >>> sequenceBits) & timestampMask) << timestampLeftShift)
+                        | identities[identityOf(next)] | (next & sequenceMask));
+                metrics.recordIssued();
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 每次CAS预留当前毫秒内剩余的一段连续sequence, 多段之间可能穿插其他线程的ID, 但对调用方仍然严格递增
+     */
+    @Override
+    public void nextIds(long[] dst, int off, int len) {
+        checkBounds(dst, off, len);
+        int start = off;
+        int end = off + len;
+        while (off < end) {
+            long current = state.get();
+            long first = nextState(current, true);
+            int count = (int) Math.min(end - off, sequenceMask - (first & sequenceMask) + 1);
+            long last = first + count - 1;
+            if (state.compareAndSet(current, last)) {
+                if ((current ^ first) >>> identityShift != 0) {
+                    onClockRollback(timestampOf(current), timestampOf(first), identityOf(current), identityOf(first));
+                }
+                long base = (((first >>> sequenceBits) & timestampMask) << timestampLeftShift)
+                        | identities[identityOf(first)];
+                for (long seq = first & sequenceMask, max = seq + count; seq < max; seq++) {
+                    dst[off++] = base | seq;
+                }
+            }
+        }
+        fence(dst, start, len);
+        metrics.recordIssued(len);
+    }
+
+    @Override
+    public int tryNextIds(long[] dst, int off, int len) {
+        checkBounds(dst, off, len);
+        if (len == 0) {
+            return 0;
+        }
+        for (; ; ) {
+            long current = state.get();
+            long first = nextState(current, false);
+            if (first < 0) {
+                return 0;
+            }
+            int count = (int) Math.min(len, sequenceMask - (first & sequenceMask) + 1);
+            if (state.compareAndSet(current, first + count - 1)) {
+                if ((current ^ first) >>> identityShift != 0) {
+                    onClockRollback(timestampOf(current), timestampOf(first), identityOf(current), identityOf(first));
+                }
+                long base = (((first >>> sequenceBits) & timestampMask) << timestampLeftShift)
+                        | identities[identityOf(first)];
+                for (int i = 0; i < count; i++) {
+                    dst[off + i] = base | ((first & sequenceMask) + i);
+                }
+                fence(dst, off, count);
+                metrics.recordIssued(count);
+                return count;
+            }
+        }
+    }
+
+    /**
+     * 根据当前状态计算下一个状态, 时钟后移超过maxBorrowMillis时按rollbackStrategy切换identity
+     *
+     * @param current 当前状态
+     * @param wait    需要等待时是否等待, false时返回-1
+     * @return 下一个状态, 不等待且需要等待时返回-1
+     */
+    private long nextState(long current, boolean wait) {
+        int identity = identityOf(current);
+        long lastTimestamp = timestampOf(current);
+        long timestamp = timeGen();
+        if (timestamp < lastTimestamp) {
+            if (lastTimestamp - timestamp <= maxBorrow) {
+                timestamp = lastTimestamp;
+            } else {
+                int next = switchIdentity(highWaters, identity, lastTimestamp, timestamp);
+                if (next >= 0) {
+                    return ((long) next << identityShift) | ((timestamp - twepoch) << sequenceBits);
+                }
+                if (!wait) {
+                    return -1L;
+                }
+                onClockRollback(lastTimestamp, timestamp, identity, next);
+                timestamp = awaitClockBackwards(lastTimestamp, timestamp);
+            }
+        }
+        long identityBits = (long) identity << identityShift;
+        if (timestamp == lastTimestamp) {
+            if ((current & sequenceMask) == sequenceMask) {
+                long nextTimestamp = wait ? tilNextMillis(lastTimestamp) : tryNextMillis(lastTimestamp);
+                return nextTimestamp < 0 ? -1L : identityBits | ((nextTimestamp - twepoch) << sequenceBits);
+            }
+            return current + 1;
+        }
+        return identityBits | ((timestamp - twepoch) << sequenceBits);
+    }
+
+    private int identityOf(long state) {
+        return (int) (state >>> identityShift);
+    }
+
+    private long timestampOf(long state) {
+        return ((state >>> sequenceBits) & timestampMask) + twepoch;
+    }
+
+    @Override
+    public long getLogicalTimestamp() {
+        return logicalMillis(Math.max(timestampOf(state.get()), maxHighWater(highWaters)));
+    }
+
+    @Override
+    public int getIdentity() {
+        return identityOf(state.get());
+    }
+}
@@ -0,0 +1,28 @@
+package cn.t0mpi9.snowflake;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 填充到独占缓存行的AtomicLong, 防止相邻的计数器伪共享
+ * <br/>
+ * Created on 2020/7/8 9:52.
+ *
+ * @author zhubenle
+ */
+class PaddedAtomicLong extends AtomicLong {
+
+    private static final long serialVersionUID = -3415778863941386253L;
+
+    public volatile long p1, p2, p3, p4, p5, p6 = 7L;
+
+    PaddedAtomicLong(long initialValue) {
+        super(initialValue);
+    }
+
+    /**
+     * 防止填充字段被优化掉
+     */
+    public long sumPaddingToPreventOptimization() {
+        return p1 + p2 + p3 + p4 + p5 + p6;
+    }
+}
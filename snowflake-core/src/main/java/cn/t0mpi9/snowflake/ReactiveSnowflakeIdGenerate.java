@@ -0,0 +1,65 @@
+package cn.t0mpi9.snowflake;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Reactor形式的{@link AsyncSnowflakeIdGenerate}, 需要引入reactor-core
+ * <br/>
+ * {@link #ids()}按下游的request一块一块地取ID, 同时最多只有一块在生成, 下游不request就不会继续生成。
+ * 生成器需要等待时由AsyncSnowflakeIdGenerate的定时器重试, 不阻塞订阅线程
+ * <br/>
+ * Created on 2020/7/23 14:40.
+ *
+ * @author zhubenle
+ */
+public class ReactiveSnowflakeIdGenerate {
+
+    private final AsyncSnowflakeIdGenerate asyncSnowflakeIdGenerate;
+    private final int blockSize;
+
+    public ReactiveSnowflakeIdGenerate(AsyncSnowflakeIdGenerate asyncSnowflakeIdGenerate) {
+        this(asyncSnowflakeIdGenerate, AsyncSnowflakeIdGenerate.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param asyncSnowflakeIdGenerate 异步生成器
+     * @param blockSize                {@link #ids()}每次向生成器取的ID数
+     */
+    public ReactiveSnowflakeIdGenerate(AsyncSnowflakeIdGenerate asyncSnowflakeIdGenerate, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize必须大于0");
+        }
+        this.asyncSnowflakeIdGenerate = Objects.requireNonNull(asyncSnowflakeIdGenerate);
+        this.blockSize = blockSize;
+    }
+
+    public Mono<Long> nextId() {
+        return Mono.defer(() -> Mono.fromFuture(asyncSnowflakeIdGenerate.nextId()));
+    }
+
+    /**
+     * @param n 数量
+     * @return 严格递增的n个ID
+     */
+    public Flux<Long> nextIds(int n) {
+        return Mono.defer(() -> Mono.fromFuture(asyncSnowflakeIdGenerate.nextIds(n)))
+                .flatMapIterable(ids -> () -> Arrays.stream(ids).iterator());
+    }
+
+    /**
+     * @return 无限的ID流, 遵循下游的背压
+     */
+    public Flux<Long> ids() {
+        return Mono.defer(() -> Mono.fromFuture(asyncSnowflakeIdGenerate.nextIds(blockSize)))
+                .repeat()
+                .flatMapIterable(ids -> () -> Arrays.stream(ids).iterator(), 1);
+    }
+
+    public AsyncSnowflakeIdGenerate getAsyncSnowflakeIdGenerate() {
+        return asyncSnowflakeIdGenerate;
+    }
+}
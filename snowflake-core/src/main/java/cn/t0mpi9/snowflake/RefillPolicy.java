@@ -0,0 +1,19 @@
+package cn.t0mpi9.snowflake;
+
+/**
+ * RingBuffer补充ID的策略
+ * <br/>
+ * Created on 2020/7/8 9:40.
+ *
+ * @author zhubenle
+ */
+public enum RefillPolicy {
+    /**
+     * 剩余ID数低于paddingFactor水位时, 由后台线程异步补满
+     */
+    THRESHOLD,
+    /**
+     * 在THRESHOLD的基础上, 后台线程再按固定周期补满
+     */
+    SCHEDULED
+}
@@ -0,0 +1,241 @@
+package cn.t0mpi9.snowflake;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 预先生成ID放到RingBuffer中的SnowflakeIdGenerate
+ * <br/>
+ * ID由后台线程通过{@link SnowflakeIdGenerate#generateIds(long[], int, int)}批量写入2的幂大小的long数组,
+ * {@link #nextId()}只CAS移动消费游标, 不读时钟。剩余ID低于paddingFactor水位时触发异步补充,
+ * RingBuffer被取空(starvation)时计数并退回同步生成, 仍然和RingBuffer中的ID共用同一份sequence状态, 保证唯一。
+ * 租约检查在写入时进行, 租约到期前写入的ID时间戳早于到期时间, 到期后再取走也不会和回收方重复
+ * <br/>
+ * Created on 2020/7/8 10:05.
+ *
+ * @author zhubenle
+ */
+public class RingBufferSnowflakeIdGenerate extends SnowflakeIdGenerate implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RingBufferSnowflakeIdGenerate.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 15;
+    public static final int DEFAULT_PADDING_FACTOR = 50;
+    public static final long DEFAULT_REFILL_PERIOD_MILLIS = 1000L;
+
+    private final long[] slots;
+    private final int bufferSize;
+    private final long indexMask;
+    /**
+     * 剩余ID数小于该值时触发补充
+     */
+    private final long threshold;
+    /**
+     * 最后一个已发布ID的位置, 只有补充线程写
+     */
+    private final PaddedAtomicLong tail = new PaddedAtomicLong(-1L);
+    /**
+     * 最后一个已取走ID的位置
+     */
+    private final PaddedAtomicLong cursor = new PaddedAtomicLong(-1L);
+    private final AtomicBoolean refilling = new AtomicBoolean(false);
+    private long reportedStarvationCount;
+    private final ScheduledExecutorService refillExecutor;
+
+    public RingBufferSnowflakeIdGenerate(long workerId, long dataCenterId) {
+        this(workerId, dataCenterId, new GenerateConfig(), DEFAULT_BUFFER_SIZE, DEFAULT_PADDING_FACTOR,
+                RefillPolicy.THRESHOLD, DEFAULT_REFILL_PERIOD_MILLIS);
+    }
+
+    /**
+     * @param workerId           workerId
+     * @param dataCenterId       dataCenterId
+     * @param config             生成参数
+     * @param bufferSize         RingBuffer大小, 必须是2的幂
+     * @param paddingFactor      补充水位, 剩余ID数低于bufferSize的百分之paddingFactor时补充, 取值(0, 100)
+     * @param refillPolicy       补充策略
+     * @param refillPeriodMillis {@link RefillPolicy#SCHEDULED}时定时补充的周期, 毫秒
+     */
+    public RingBufferSnowflakeIdGenerate(long workerId, long dataCenterId, GenerateConfig config, int bufferSize,
+                                         int paddingFactor, RefillPolicy refillPolicy, long refillPeriodMillis) {
+        super(workerId, dataCenterId, config);
+        if (bufferSize <= 0 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("bufferSize必须是2的幂");
+        }
+        if (paddingFactor <= 0 || paddingFactor >= 100) {
+            throw new IllegalArgumentException("paddingFactor取值范围(0, 100)");
+        }
+        Objects.requireNonNull(refillPolicy);
+        this.bufferSize = bufferSize;
+        this.indexMask = bufferSize - 1;
+        this.slots = new long[bufferSize];
+        this.threshold = (long) bufferSize * paddingFactor / 100;
+        this.refillExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "snowflake-ring-buffer-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refilling.set(true);
+        refill();
+        if (RefillPolicy.SCHEDULED.equals(refillPolicy)) {
+            if (refillPeriodMillis <= 0) {
+                throw new IllegalArgumentException("refillPeriodMillis必须大于0");
+            }
+            refillExecutor.scheduleWithFixedDelay(this::triggerRefill, refillPeriodMillis, refillPeriodMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        LOGGER.info("RingBufferSnowflakeIdGenerate初始化, bufferSize={}, paddingFactor={}, refillPolicy={}",
+                bufferSize, paddingFactor, refillPolicy);
+    }
+
+    @Override
+    public long nextId() {
+        for (; ; ) {
+            long current = cursor.get();
+            long published = tail.get();
+            if (current >= published) {
+                metrics.recordStarvation();
+                triggerRefill();
+                return super.nextId();
+            }
+            long id = slots[(int) ((current + 1) & indexMask)];
+            if (cursor.compareAndSet(current, current + 1)) {
+                if (published - current - 1 < threshold) {
+                    triggerRefill();
+                }
+                metrics.recordIssued();
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 从RingBuffer中取一个ID, 取空时退回不等待的同步生成
+     */
+    @Override
+    public long tryNextId() {
+        for (; ; ) {
+            long current = cursor.get();
+            long published = tail.get();
+            if (current >= published) {
+                metrics.recordStarvation();
+                triggerRefill();
+                return super.tryNextId();
+            }
+            long id = slots[(int) ((current + 1) & indexMask)];
+            if (cursor.compareAndSet(current, current + 1)) {
+                if (published - current - 1 < threshold) {
+                    triggerRefill();
+                }
+                metrics.recordIssued();
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 从RingBuffer中一次取走最多len个ID, 先复制再CAS移动游标, 取空时退回不等待的同步生成
+     */
+    @Override
+    public int tryNextIds(long[] dst, int off, int len) {
+        checkBounds(dst, off, len);
+        if (len == 0) {
+            return 0;
+        }
+        for (; ; ) {
+            long current = cursor.get();
+            long published = tail.get();
+            if (current >= published) {
+                metrics.recordStarvation();
+                triggerRefill();
+                return super.tryNextIds(dst, off, len);
+            }
+            int count = (int) Math.min(len, published - current);
+            for (int i = 0; i < count; i++) {
+                dst[off + i] = slots[(int) ((current + 1 + i) & indexMask)];
+            }
+            if (cursor.compareAndSet(current, current + count)) {
+                if (published - current - count < threshold) {
+                    triggerRefill();
+                }
+                metrics.recordIssued(count);
+                return count;
+            }
+        }
+    }
+
+    /**
+     * 提交一次异步补充, 已经在补充中则忽略
+     */
+    private void triggerRefill() {
+        if (refilling.compareAndSet(false, true)) {
+            try {
+                refillExecutor.execute(this::refill);
+            } catch (RuntimeException e) {
+                refilling.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 把RingBuffer补满, 每次最多写入一毫秒的sequence后发布一次, 让消费方尽快看到新ID
+     */
+    private void refill() {
+        try {
+            long published = tail.get();
+            long free = bufferSize - (published - cursor.get());
+            while (free > 0) {
+                int start = (int) ((published + 1) & indexMask);
+                int len = (int) Math.min(Math.min(free, bufferSize - start), sequenceMask + 1);
+                generateIds(slots, start, len);
+                published += len;
+                tail.set(published);
+                free -= len;
+            }
+            long starvation = metrics.getStarvationCount();
+            if (starvation != reportedStarvationCount) {
+                LOGGER.warn("RingBuffer被取空{}次, 累计{}次, 考虑调大bufferSize或paddingFactor",
+                        starvation - reportedStarvationCount, starvation);
+                reportedStarvationCount = starvation;
+            }
+        } catch (Exception e) {
+            LOGGER.error("RingBuffer补充ID异常", e);
+        } finally {
+            refilling.set(false);
+        }
+    }
+
+    /**
+     * @return RingBuffer中剩余的ID数
+     */
+    public long remaining() {
+        return Math.max(0L, tail.get() - cursor.get());
+    }
+
+    /**
+     * @return RingBuffer被取空后退回同步生成的次数
+     */
+    public long getStarvationCount() {
+        return metrics.getStarvationCount();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public void close() {
+        refillExecutor.shutdownNow();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("关闭RingBuffer补充线程");
+        }
+    }
+}
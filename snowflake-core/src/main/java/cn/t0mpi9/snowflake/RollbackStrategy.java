@@ -0,0 +1,23 @@
+package cn.t0mpi9.snowflake;
+
+/**
+ * 时钟后移超过maxBorrowMillis时的处理策略
+ * <br/>
+ * Created on 2020/7/17 9:30.
+ *
+ * @author zhubenle
+ */
+public enum RollbackStrategy {
+    /**
+     * 等待两倍的后移时间, 仍然后移则抛异常, 默认策略
+     */
+    WAIT,
+    /**
+     * 切换到下一个clockEpoch继续生成, 需要{@link BitLayout}配置clockEpochBits, 最多可以连续后移2^clockEpochBits - 1次
+     */
+    CLOCK_EPOCH,
+    /**
+     * 切换到预先分配的备用workerId和dataCenterId继续生成, 主备之间来回切换
+     */
+    BACKUP_WORKER
+}
@@ -0,0 +1,24 @@
+package cn.t0mpi9.snowflake;
+
+/**
+ * 号段分配, 从远端原子地领取一段连续的号码
+ * <br/>
+ * redis用INCRBY, zookeeper用带版本号的setData, 也可以自己实现基于数据库的分配
+ * <br/>
+ * Created on 2020/7/28 9:30.
+ *
+ * @author zhubenle
+ */
+@FunctionalInterface
+public interface SegmentAllocator {
+
+    /**
+     * 把name对应的最大值原子地增加step
+     *
+     * @param name 号段名称
+     * @param step 本次领取的号码数
+     * @return 增加后的最大值, 本次领取的号段是(返回值 - step, 返回值]
+     * @throws Exception 远端调用异常
+     */
+    long allocate(String name, long step) throws Exception;
+}
@@ -0,0 +1,114 @@
+package cn.t0mpi9.snowflake;
+
+import cn.t0mpi9.snowflake.time.SystemTimeSource;
+import cn.t0mpi9.snowflake.time.TimeSource;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SegmentIdGenerate的号段参数
+ * <br/>
+ * Created on 2020/7/28 9:40.
+ *
+ * @author zhubenle
+ */
+public class SegmentConfig {
+
+    /**
+     * 第一次领取的号码数
+     */
+    private long initialStep = 1000L;
+    /**
+     * 自适应调整时的最小步长
+     */
+    private long minStep = 1000L;
+    /**
+     * 自适应调整时的最大步长
+     */
+    private long maxStep = 10_000_000L;
+    /**
+     * 期望每个号段用多久, 实际用时不到一半步长翻倍, 超过两倍步长减半, 默认5分钟
+     */
+    private long targetSegmentMillis = TimeUnit.MINUTES.toMillis(5);
+    /**
+     * 当前号段用掉多少比例时异步领取下一个号段, 默认0.1
+     */
+    private double prefetchRatio = 0.1D;
+    /**
+     * 计算号段用时的时钟
+     */
+    private TimeSource timeSource = SystemTimeSource.INSTANCE;
+
+    public long getInitialStep() {
+        return initialStep;
+    }
+
+    public SegmentConfig initialStep(long initialStep) {
+        this.initialStep = initialStep;
+        return this;
+    }
+
+    public long getMinStep() {
+        return minStep;
+    }
+
+    public SegmentConfig minStep(long minStep) {
+        this.minStep = minStep;
+        return this;
+    }
+
+    public long getMaxStep() {
+        return maxStep;
+    }
+
+    public SegmentConfig maxStep(long maxStep) {
+        this.maxStep = maxStep;
+        return this;
+    }
+
+    public long getTargetSegmentMillis() {
+        return targetSegmentMillis;
+    }
+
+    public SegmentConfig targetSegmentMillis(long targetSegmentMillis) {
+        this.targetSegmentMillis = targetSegmentMillis;
+        return this;
+    }
+
+    public double getPrefetchRatio() {
+        return prefetchRatio;
+    }
+
+    public SegmentConfig prefetchRatio(double prefetchRatio) {
+        this.prefetchRatio = prefetchRatio;
+        return this;
+    }
+
+    public TimeSource getTimeSource() {
+        return timeSource;
+    }
+
+    public SegmentConfig timeSource(TimeSource timeSource) {
+        this.timeSource = Objects.requireNonNull(timeSource);
+        return this;
+    }
+
+    /**
+     * 校验参数
+     */
+    void check() {
+        if (minStep <= 0 || maxStep < minStep) {
+            throw new IllegalArgumentException("minStep必须大于0且不大于maxStep");
+        }
+        if (initialStep < minStep || initialStep > maxStep) {
+            throw new IllegalArgumentException("initialStep必须在minStep和maxStep之间");
+        }
+        if (targetSegmentMillis <= 0) {
+            throw new IllegalArgumentException("targetSegmentMillis必须大于0");
+        }
+        if (prefetchRatio < 0 || prefetchRatio >= 1) {
+            throw new IllegalArgumentException("prefetchRatio必须在[0, 1)之间");
+        }
+    }
+}
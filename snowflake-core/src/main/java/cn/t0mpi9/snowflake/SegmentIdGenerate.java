@@ -0,0 +1,196 @@
+package cn.t0mpi9.snowflake;
+
+import cn.t0mpi9.snowflake.time.TimeSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 号段方式的ID生成, 生成从1开始单调递增的短ID, 和SnowflakeIdGenerate并列使用
+ * <br/>
+ * 每次通过{@link SegmentAllocator}从redis或zookeeper领取一段号码在本地发放, 当前号段用掉prefetchRatio时在executor中异步领取下一段,
+ * 用完时直接切换, 正常情况下不会在调用线程中访问远端。步长按号段的实际用时自适应调整, 用时不到targetSegmentMillis的一半翻倍,
+ * 超过两倍减半, 高QPS的服务几分钟才访问一次远端。
+ * <br/>
+ * 多个进程共用一个号段名称时ID整体唯一、各进程内单调递增, 但不是全局递增; 进程重启后没发完的号码会跳过
+ * <br/>
+ * Created on 2020/7/28 10:00.
+ *
+ * @author zhubenle
+ */
+public class SegmentIdGenerate {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentIdGenerate.class);
+
+    private final SegmentAllocator allocator;
+    private final String name;
+    private final Executor executor;
+    private final TimeSource timeSource;
+    private final long minStep;
+    private final long maxStep;
+    private final long targetSegmentMillis;
+    private final double prefetchRatio;
+
+    private volatile Segment current;
+    /**
+     * 异步领取中或已领取的下一个号段, 在this上加锁访问, 同时最多只有一次领取
+     */
+    private CompletableFuture<Segment> next;
+    private volatile long step;
+    private long lastAllocateMillis;
+    private final AtomicLong allocateCount = new AtomicLong();
+
+    public SegmentIdGenerate(SegmentAllocator allocator, String name, Executor executor) {
+        this(allocator, name, executor, new SegmentConfig());
+    }
+
+    /**
+     * 构造时同步领取第一个号段, 失败抛异常
+     *
+     * @param allocator 号段分配
+     * @param name      号段名称, 同一名称的ID唯一
+     * @param executor  异步领取下一个号段的线程池
+     * @param config    号段参数
+     */
+    public SegmentIdGenerate(SegmentAllocator allocator, String name, Executor executor, SegmentConfig config) {
+        config.check();
+        this.allocator = Objects.requireNonNull(allocator);
+        this.name = Objects.requireNonNull(name);
+        this.executor = Objects.requireNonNull(executor);
+        this.timeSource = config.getTimeSource();
+        this.minStep = config.getMinStep();
+        this.maxStep = config.getMaxStep();
+        this.targetSegmentMillis = config.getTargetSegmentMillis();
+        this.prefetchRatio = config.getPrefetchRatio();
+        this.step = config.getInitialStep();
+        this.current = allocate();
+    }
+
+    public long nextId() {
+        for (; ; ) {
+            Segment segment = current;
+            long id = segment.cursor.getAndIncrement();
+            if (id < segment.end) {
+                if (id == segment.prefetchAt) {
+                    prefetch(segment);
+                }
+                return id;
+            }
+            switchSegment(segment);
+        }
+    }
+
+    /**
+     * 异步领取下一个号段, 线程池拒绝时留到切换时同步领取
+     */
+    private synchronized void prefetch(Segment segment) {
+        if (current != segment || next != null) {
+            return;
+        }
+        try {
+            next = CompletableFuture.supplyAsync(this::allocate, executor);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("号段{}异步领取被拒绝, 用完时同步领取", name);
+        }
+    }
+
+    /**
+     * 当前号段用完时切换到下一个号段, 异步领取还没完成则等待, 没有或失败了就同步领取
+     */
+    private synchronized void switchSegment(Segment segment) {
+        if (current != segment) {
+            return;
+        }
+        Segment nextSegment = null;
+        if (next != null) {
+            try {
+                nextSegment = next.join();
+            } catch (CompletionException e) {
+                LOGGER.warn("号段{}异步领取失败, 同步重试", name, e.getCause());
+            }
+            next = null;
+        }
+        current = nextSegment != null ? nextSegment : allocate();
+    }
+
+    /**
+     * 按上一个号段的用时调整步长后领取, 同时最多只有一个线程调用
+     *
+     * @return 新号段
+     */
+    private Segment allocate() {
+        long now = timeSource.currentTimeMillis();
+        long s = step;
+        if (lastAllocateMillis > 0) {
+            long elapsed = now - lastAllocateMillis;
+            if (elapsed < targetSegmentMillis >> 1) {
+                s = Math.min(s << 1, maxStep);
+            } else if (elapsed > targetSegmentMillis << 1) {
+                s = Math.max(s >> 1, minStep);
+            }
+        }
+        long max;
+        try {
+            max = allocator.allocate(name, s);
+        } catch (Exception e) {
+            throw new RuntimeException(String.format("号段%s领取失败", name), e);
+        }
+        step = s;
+        lastAllocateMillis = now;
+        allocateCount.incrementAndGet();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("号段{}领取({}, {}], step={}", name, max - s, max, s);
+        }
+        return new Segment(max - s + 1, max + 1, (long) (s * prefetchRatio));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 当前步长
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * @return 访问远端领取号段的次数
+     */
+    public long getAllocateCount() {
+        return allocateCount.get();
+    }
+
+    /**
+     * @return 当前号段剩余的号码数
+     */
+    public long getRemaining() {
+        Segment segment = current;
+        return Math.max(0L, segment.end - segment.cursor.get());
+    }
+
+    private static class Segment {
+        /**
+         * 下一个发放的号码, 用完后会继续增长超过end
+         */
+        private final AtomicLong cursor;
+        private final long end;
+        /**
+         * 发放到该号码时异步领取下一个号段
+         */
+        private final long prefetchAt;
+
+        Segment(long start, long end, long prefetchOffset) {
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchAt = start + prefetchOffset;
+        }
+    }
+}
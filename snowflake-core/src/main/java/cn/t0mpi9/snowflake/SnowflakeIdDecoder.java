@@ -0,0 +1,201 @@
+package cn.t0mpi9.snowflake;
+
+import java.nio.LongBuffer;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 批量解析ID, 结果按字段拆成几个平行的long数组, 不为每个ID创建{@link SnowflakeIdGenerate.SnowflakeId}
+ * <br/>
+ * 每个字段单独循环一遍, 循环体只有移位和与运算, JIT可以展开和向量化。
+ * ID数超过parallelThreshold时可以用{@link #decodeParallel(long[])}拆成fork-join任务并行解析
+ * <br/>
+ * Created on 2020/7/22 9:50.
+ *
+ * @author zhubenle
+ */
+public class SnowflakeIdDecoder {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 16;
+
+    private final BitLayout bitLayout;
+    private final int parallelThreshold;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param bitLayout 生成ID时使用的布局, 可以用{@link SnowflakeIdGenerate#getBitLayout()}获取
+     */
+    public SnowflakeIdDecoder(BitLayout bitLayout) {
+        this(bitLayout, DEFAULT_PARALLEL_THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param bitLayout         生成ID时使用的布局
+     * @param parallelThreshold 并行解析时每个任务最多解析的ID数
+     * @param pool              并行解析用的线程池
+     */
+    public SnowflakeIdDecoder(BitLayout bitLayout, int parallelThreshold, ForkJoinPool pool) {
+        if (parallelThreshold <= 0) {
+            throw new IllegalArgumentException("parallelThreshold必须大于0");
+        }
+        this.bitLayout = Objects.requireNonNull(bitLayout);
+        this.parallelThreshold = parallelThreshold;
+        this.pool = Objects.requireNonNull(pool);
+    }
+
+    public Columns decode(long[] ids) {
+        Columns columns = new Columns(ids.length);
+        decode(ids, 0, ids.length, columns, 0);
+        return columns;
+    }
+
+    /**
+     * 解析buffer中position到limit之间的ID, 不改变buffer的position
+     *
+     * @param ids ID
+     * @return 解析结果
+     */
+    public Columns decode(LongBuffer ids) {
+        if (ids.hasArray()) {
+            Columns columns = new Columns(ids.remaining());
+            decode(ids.array(), ids.arrayOffset() + ids.position(), ids.remaining(), columns, 0);
+            return columns;
+        }
+        long[] array = new long[ids.remaining()];
+        ids.duplicate().get(array);
+        return decode(array);
+    }
+
+    /**
+     * ID数超过parallelThreshold时拆分成fork-join任务并行解析
+     *
+     * @param ids ID
+     * @return 解析结果
+     */
+    public Columns decodeParallel(long[] ids) {
+        Columns columns = new Columns(ids.length);
+        if (ids.length <= parallelThreshold) {
+            decode(ids, 0, ids.length, columns, 0);
+        } else {
+            pool.invoke(new DecodeTask(ids, 0, ids.length, columns));
+        }
+        return columns;
+    }
+
+    /**
+     * 解析ids[off, off + len)写入columns中dstOff开始的位置
+     *
+     * @param ids     ID
+     * @param off     起始下标
+     * @param len     数量
+     * @param columns 解析结果
+     * @param dstOff  写入columns的起始下标
+     */
+    public void decode(long[] ids, int off, int len, Columns columns, int dstOff) {
+        if (off < 0 || len < 0 || len > ids.length - off) {
+            throw new IndexOutOfBoundsException(String.format("off=%d, len=%d, length=%d", off, len, ids.length));
+        }
+        if (dstOff < 0 || len > columns.size() - dstOff) {
+            throw new IndexOutOfBoundsException(String.format("dstOff=%d, len=%d, size=%d", dstOff, len, columns.size()));
+        }
+        long epochTimestamp = bitLayout.getEpochTimestamp();
+        long timeUnitMillis = bitLayout.getTimeUnitMillis();
+        int timestampLeftShift = bitLayout.getTimestampLeftShift();
+        long[] timestamps = columns.timestamps;
+        for (int i = 0; i < len; i++) {
+            timestamps[dstOff + i] = ((ids[off + i] >>> timestampLeftShift) + epochTimestamp) * timeUnitMillis;
+        }
+        extract(ids, off, len, columns.dataCenterIds, dstOff, bitLayout.getDataCenterIdShift(), bitLayout.getMaxDataCenterId());
+        extract(ids, off, len, columns.workerIds, dstOff, bitLayout.getWorkerIdShift(), bitLayout.getMaxWorkerId());
+        extract(ids, off, len, columns.sequences, dstOff, 0, bitLayout.getSequenceMask());
+        if (bitLayout.getClockEpochBits() > 0) {
+            extract(ids, off, len, columns.clockEpochs, dstOff, bitLayout.getClockEpochShift(), bitLayout.getMaxClockEpoch());
+        }
+    }
+
+    private static void extract(long[] ids, int off, int len, long[] dst, int dstOff, int shift, long mask) {
+        for (int i = 0; i < len; i++) {
+            dst[dstOff + i] = (ids[off + i] >>> shift) & mask;
+        }
+    }
+
+    public BitLayout getBitLayout() {
+        return bitLayout;
+    }
+
+    private class DecodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] ids;
+        private final int off;
+        private final int len;
+        private final Columns columns;
+
+        DecodeTask(long[] ids, int off, int len, Columns columns) {
+            this.ids = ids;
+            this.off = off;
+            this.len = len;
+            this.columns = columns;
+        }
+
+        @Override
+        protected void compute() {
+            if (len <= parallelThreshold) {
+                decode(ids, off, len, columns, off);
+                return;
+            }
+            int half = len >>> 1;
+            invokeAll(new DecodeTask(ids, off, half, columns), new DecodeTask(ids, off + half, len - half, columns));
+        }
+    }
+
+    /**
+     * 按字段拆开的解析结果, 下标i对应第i个ID
+     */
+    public static class Columns {
+        private final long[] timestamps;
+        private final long[] dataCenterIds;
+        private final long[] workerIds;
+        private final long[] clockEpochs;
+        private final long[] sequences;
+
+        public Columns(int size) {
+            this.timestamps = new long[size];
+            this.dataCenterIds = new long[size];
+            this.workerIds = new long[size];
+            this.clockEpochs = new long[size];
+            this.sequences = new long[size];
+        }
+
+        public int size() {
+            return timestamps.length;
+        }
+
+        /**
+         * @return 毫秒时间戳
+         */
+        public long[] getTimestamps() {
+            return timestamps;
+        }
+
+        public long[] getDataCenterIds() {
+            return dataCenterIds;
+        }
+
+        public long[] getWorkerIds() {
+            return workerIds;
+        }
+
+        /**
+         * @return clockEpoch, 布局没有clockEpochBits时都是0
+         */
+        public long[] getClockEpochs() {
+            return clockEpochs;
+        }
+
+        public long[] getSequences() {
+            return sequences;
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package cn.t0mpi9.snowflake;
 
+import cn.t0mpi9.snowflake.time.SystemTimeSource;
+import cn.t0mpi9.snowflake.time.TimeSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * @author twitter
  */
@@ -10,100 +18,898 @@ public class SnowflakeIdGenerate {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SnowflakeIdGenerate.class);
 
-    private final long workerId;
-    private final long dataCenterId;
+    protected final long workerId;
+    protected final long dataCenterId;
+    /**
+     * dataCenterId和workerId在ID中对应的位, 构造时计算好
+     */
+    protected final long workerBits;
+    /**
+     * 获取当前时间戳的时钟
+     */
+    protected final TimeSource timeSource;
+    /**
+     * sequence用完时最多允许逻辑时间戳超前系统时间的毫秒数
+     */
+    protected final long maxBorrowMillis;
+    /**
+     * 换算成时间单位的maxBorrowMillis
+     */
+    protected final long maxBorrow;
 
-    private static final long twepoch = 1288834974657L;
-    private static final long workerIdBits = 5L;
-    private static final long dataCenterIdBits = 5L;
-    private static final long maxWorkerId = ~(-1L << workerIdBits);
-    private static final long maxDataCenterId = ~(-1L << dataCenterIdBits);
-    private static final long sequenceBits = 12L;
+    /**
+     * ID的位布局, 下面的偏移和掩码都从它取出, 生成ID只做移位和与运算
+     * <br/>
+     * 生成器内部的时间戳都是timeUnitMillis为单位的, 和毫秒互相换算见{@link #timeGen()}和{@link #toMillis(long)}
+     */
+    protected final BitLayout bitLayout;
+    protected final long timeUnitMillis;
+    protected final long twepoch;
+    protected final long maxWorkerId;
+    protected final long maxDataCenterId;
+    protected final long sequenceBits;
+
+    protected final long workerIdShift;
+    protected final long dataCenterIdShift;
+    protected final long timestampLeftShift;
+    protected final long sequenceMask;
 
-    private static final long workerIdShift = sequenceBits;
-    private static final long dataCenterIdShift = sequenceBits + workerIdBits;
-    private static final long timestampLeftShift = sequenceBits + workerIdBits + dataCenterIdBits;
-    private static final long sequenceMask = ~(-1L << sequenceBits);
+    /**
+     * 时钟后移超过maxBorrowMillis时的处理策略
+     */
+    protected final RollbackStrategy rollbackStrategy;
+    /**
+     * 可用的workerId位组合, 下标0是主workerId的workerBits, 时钟后移时按rollbackStrategy切换到其他下标继续生成。
+     * CLOCK_EPOCH策略下标就是clockEpoch, BACKUP_WORKER策略下标1是备用workerId, WAIT策略只有下标0
+     */
+    protected final long[] identities;
+    /**
+     * 各identity已生成ID的最大时间戳, 切换走时写入, 只有小于当前时间的identity可以切换过去
+     */
+    protected final AtomicLongArray highWaters;
+    private final ClockRollbackListener clockRollbackListener;
+    /**
+     * 等待下一个时间单位和tryNextId重试的方式
+     */
+    protected final WaitStrategy waitStrategy;
+    /**
+     * workerId租约过期后的处理策略
+     */
+    protected final LeaseExpiryPolicy leaseExpiryPolicy;
+    /**
+     * ID中dataCenterId和workerId所占的位
+     */
+    private final long workerMask;
+    /**
+     * FALLBACK_WORKER策略的备用workerId位, 租约过期后替换ID中的dataCenterId和workerId, 其他策略等于workerBits
+     */
+    private final long fallbackWorkerBits;
+    /**
+     * 租约到期时间戳左移timestampLeftShift后的值。时间戳在ID的最高位, 大于等于它的ID就是时间戳已到期的ID,
+     * 生成时只读一次这个volatile和ID比较, 不用读时钟。没有租约(DIRECT方式或本地文件创建)时是Long.MAX_VALUE
+     */
+    private volatile long leaseFence = Long.MAX_VALUE;
+    /**
+     * 已告警过的leaseFence, 同一次过期只打一次日志, 并发时可能多打几次
+     */
+    private long alertedFence = -1L;
+    /**
+     * 已通知过的等待时钟追上的lastTimestamp, 多个线程在锁外等同一次时钟后移时只记录和通知一次
+     */
+    private long awaitedRollback = -1L;
 
     private long sequence = 0L;
     private long lastTimestamp = -1L;
+    private int identity;
+    private long currentWorkerBits;
+
+    /**
+     * 运行指标
+     */
+    protected final GenerateMetrics metrics = new GenerateMetrics();
 
     /**
      * @param workerId
      * @param dataCenterId
      */
     public SnowflakeIdGenerate(long workerId, long dataCenterId) {
+        this(workerId, dataCenterId, SystemTimeSource.INSTANCE);
+    }
+
+    /**
+     * @param workerId
+     * @param dataCenterId
+     * @param timeSource   时钟
+     */
+    public SnowflakeIdGenerate(long workerId, long dataCenterId, TimeSource timeSource) {
+        this(workerId, dataCenterId, new GenerateConfig().timeSource(timeSource));
+    }
+
+    /**
+     * @param workerId
+     * @param dataCenterId
+     * @param config       生成参数
+     */
+    public SnowflakeIdGenerate(long workerId, long dataCenterId, GenerateConfig config) {
+        this.bitLayout = config.getBitLayout();
+        this.timeUnitMillis = bitLayout.getTimeUnitMillis();
+        this.twepoch = bitLayout.getEpochTimestamp();
+        this.maxWorkerId = bitLayout.getMaxWorkerId();
+        this.maxDataCenterId = bitLayout.getMaxDataCenterId();
+        this.sequenceBits = bitLayout.getSequenceBits();
+        this.workerIdShift = bitLayout.getWorkerIdShift();
+        this.dataCenterIdShift = bitLayout.getDataCenterIdShift();
+        this.timestampLeftShift = bitLayout.getTimestampLeftShift();
+        this.sequenceMask = bitLayout.getSequenceMask();
+        this.timeSource = config.getTimeSource();
+        this.maxBorrowMillis = config.getMaxBorrowMillis();
+        this.maxBorrow = maxBorrowMillis / timeUnitMillis;
         if (workerId > maxWorkerId || workerId < 0) {
             throw new IllegalArgumentException(String.format("workerId不能大于%d或小于0", maxWorkerId));
         }
         if (dataCenterId > maxDataCenterId || dataCenterId < 0) {
             throw new IllegalArgumentException(String.format("dataCenterId不能大于%d或小于0", maxDataCenterId));
         }
-        if (twepoch > timeGen()) {
+        long now = timeGen();
+        if (twepoch > now) {
             throw new IllegalArgumentException("twepoch不能大于当前时间");
         }
+        if (now - twepoch > bitLayout.getMaxTimestamp()) {
+            throw new IllegalArgumentException(String.format("当前时间已超出%s的时间戳范围", bitLayout));
+        }
         this.workerId = workerId;
         this.dataCenterId = dataCenterId;
-        LOGGER.info("SnowflakeIdGenerate初始化, dataCenterId={}, workerId={}", dataCenterId, workerId);
+        this.workerBits = (dataCenterId << dataCenterIdShift) | (workerId << workerIdShift);
+        this.rollbackStrategy = config.getRollbackStrategy();
+        this.identities = newIdentities(config);
+        this.highWaters = newHighWaters(config);
+        this.clockRollbackListener = config.getClockRollbackListener();
+        this.waitStrategy = config.getWaitStrategy();
+        this.leaseExpiryPolicy = config.getLeaseExpiryPolicy();
+        this.workerMask = (maxDataCenterId << dataCenterIdShift) | (maxWorkerId << workerIdShift);
+        this.fallbackWorkerBits = newFallbackWorkerBits(config);
+        this.currentWorkerBits = workerBits;
+        if (config.getInitialTimestamp() > 0) {
+            //从initialTimestamp的sequence已用完开始, 下一个ID落在之后的毫秒
+            this.lastTimestamp = toTimestamp(config.getInitialTimestamp());
+            this.sequence = sequenceMask;
+        }
+        LOGGER.info("SnowflakeIdGenerate初始化, dataCenterId={}, workerId={}, maxBorrowMillis={}, rollbackStrategy={}, waitStrategy={}, leaseExpiryPolicy={}, {}",
+                dataCenterId, workerId, maxBorrowMillis, rollbackStrategy, waitStrategy, leaseExpiryPolicy, bitLayout);
     }
 
-    public synchronized long nextId() {
-        long timestamp = timeGen();
-        if (timestamp < lastTimestamp) {
-            try {
-                long moveTime = lastTimestamp - timestamp;
-                long waitTime = moveTime << 1;
-                LOGGER.error("系统时钟后移{}ms, lastTimestamp={}, timestamp={}, l, 线程将wait({})",
-                        moveTime, lastTimestamp, timestamp, waitTime);
-                wait(waitTime);
-                timestamp = timeGen();
-                if (timestamp < lastTimestamp) {
-                    throw new RuntimeException(String.format("时钟出现后移, %dms内拒绝生成ID ", lastTimestamp - timestamp));
+    private long[] newIdentities(GenerateConfig config) {
+        switch (rollbackStrategy) {
+            case CLOCK_EPOCH:
+                if (bitLayout.getClockEpochBits() == 0) {
+                    throw new IllegalArgumentException("CLOCK_EPOCH策略需要BitLayout配置clockEpochBits");
+                }
+                long[] epochs = new long[1 << bitLayout.getClockEpochBits()];
+                for (int i = 0; i < epochs.length; i++) {
+                    epochs[i] = workerBits | ((long) i << bitLayout.getClockEpochShift());
+                }
+                return epochs;
+            case BACKUP_WORKER:
+                long backupWorkerId = config.getBackupWorkerId();
+                long backupDataCenterId = config.getBackupDataCenterId() < 0 ? dataCenterId : config.getBackupDataCenterId();
+                if (backupWorkerId > maxWorkerId || backupWorkerId < 0) {
+                    throw new IllegalArgumentException(String.format("BACKUP_WORKER策略的backupWorkerId不能大于%d或小于0", maxWorkerId));
+                }
+                if (backupDataCenterId > maxDataCenterId) {
+                    throw new IllegalArgumentException(String.format("backupDataCenterId不能大于%d", maxDataCenterId));
+                }
+                if (backupWorkerId == workerId && backupDataCenterId == dataCenterId) {
+                    throw new IllegalArgumentException("备用workerId和dataCenterId不能和主workerId和dataCenterId相同");
                 }
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+                return new long[]{workerBits, (backupDataCenterId << dataCenterIdShift) | (backupWorkerId << workerIdShift)};
+            case WAIT:
+            default:
+                return new long[]{workerBits};
+        }
+    }
+
+    private long newFallbackWorkerBits(GenerateConfig config) {
+        if (!LeaseExpiryPolicy.FALLBACK_WORKER.equals(leaseExpiryPolicy)) {
+            return workerBits;
+        }
+        if (RollbackStrategy.BACKUP_WORKER.equals(rollbackStrategy)) {
+            throw new IllegalArgumentException("FALLBACK_WORKER策略不能和BACKUP_WORKER策略同时使用");
+        }
+        long fallbackWorkerId = config.getFallbackWorkerId();
+        long fallbackDataCenterId = config.getFallbackDataCenterId() < 0 ? dataCenterId : config.getFallbackDataCenterId();
+        if (fallbackWorkerId > maxWorkerId || fallbackWorkerId < 0) {
+            throw new IllegalArgumentException(String.format("FALLBACK_WORKER策略的fallbackWorkerId不能大于%d或小于0", maxWorkerId));
+        }
+        if (fallbackDataCenterId > maxDataCenterId) {
+            throw new IllegalArgumentException(String.format("fallbackDataCenterId不能大于%d", maxDataCenterId));
+        }
+        if (fallbackWorkerId == workerId && fallbackDataCenterId == dataCenterId) {
+            throw new IllegalArgumentException("备用workerId和dataCenterId不能和主workerId和dataCenterId相同");
+        }
+        return (fallbackDataCenterId << dataCenterIdShift) | (fallbackWorkerId << workerIdShift);
+    }
+
+    /**
+     * 重启前可能用过所有identity, 都从initialTimestamp开始
+     *
+     * @param config 生成参数
+     * @return 各identity最大时间戳的初始值
+     */
+    protected final AtomicLongArray newHighWaters(GenerateConfig config) {
+        AtomicLongArray array = new AtomicLongArray(identities.length);
+        long initial = config.getInitialTimestamp() > 0 ? toTimestamp(config.getInitialTimestamp()) : -1L;
+        for (int i = 0; i < array.length(); i++) {
+            array.set(i, initial);
+        }
+        return array;
+    }
+
+    /**
+     * 生成一个ID
+     * <br/>
+     * 需要等待下一毫秒或等时钟追上时先释放锁, 在锁外等待后重试, 虚拟线程等待时可以卸载, 不会在监视器内占住载体线程
+     *
+     * @return ID
+     */
+    public long nextId() {
+        long id;
+        while ((id = tryGenerateId()) < 0) {
+            awaitGenerate();
+        }
+        metrics.recordIssued();
+        return id;
+    }
+
+    /**
+     * 生成ID并按encoding编码写入dst的position处, 不创建String
+     *
+     * @param encoding 编码
+     * @param dst      目标ByteBuffer, position增加{@link IdEncoding#width()}
+     * @return 生成的ID
+     */
+    public long nextId(IdEncoding encoding, ByteBuffer dst) {
+        if (dst.remaining() < encoding.width()) {
+            throw new BufferOverflowException();
+        }
+        long id = nextId();
+        encoding.encode(id, dst);
+        return id;
+    }
+
+    /**
+     * 生成ID并按encoding编码追加到dst末尾, 不创建String
+     *
+     * @param encoding 编码
+     * @param dst      目标StringBuilder
+     * @return 生成的ID
+     */
+    public long nextId(IdEncoding encoding, StringBuilder dst) {
+        long id = nextId();
+        encoding.encode(id, dst);
+        return id;
+    }
+
+    /**
+     * 批量生成n个ID
+     *
+     * @param n 数量
+     * @return 严格递增的ID数组
+     * @see #nextIds(long[], int, int)
+     */
+    public long[] nextIds(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n不能小于0");
+        }
+        long[] ids = new long[n];
+        nextIds(ids, 0, n);
+        return ids;
+    }
+
+    /**
+     * 批量生成len个ID写入dst[off, off + len)
+     * <br/>
+     * 每次加锁预留当前毫秒剩余的连续sequence, 用完后释放锁等到下一毫秒继续, 生成的ID严格递增, 结构和{@link #nextId()}相同
+     *
+     * @param dst 目标数组
+     * @param off 起始下标
+     * @param len 数量
+     */
+    public void nextIds(long[] dst, int off, int len) {
+        generateIds(dst, off, len);
+        metrics.recordIssued(len);
+    }
+
+    /**
+     * {@link #nextIds(long[], int, int)}的实现, 不计入issuedCount, RING_BUFFER方式补充时直接调用
+     *
+     * @param dst 目标数组
+     * @param off 起始下标
+     * @param len 数量
+     */
+    protected void generateIds(long[] dst, int off, int len) {
+        checkBounds(dst, off, len);
+        int end = off + len;
+        while (off < end) {
+            int count = tryGenerateIds(dst, off, end - off);
+            if (count == 0) {
+                awaitGenerate();
             }
+            off += count;
+        }
+    }
+
+    /**
+     * 不等待地生成最多len个ID写入dst[off, off + len)
+     * <br/>
+     * 只生成当前时间单位(或借用范围内)剩余的sequence, 需要等待下一毫秒或时钟后移需要等待时直接返回,
+     * 给不能阻塞的调用方使用, 返回0时可以稍后重试
+     *
+     * @param dst 目标数组
+     * @param off 起始下标
+     * @param len 最多生成的数量
+     * @return 实际生成的数量, 可能为0
+     */
+    public int tryNextIds(long[] dst, int off, int len) {
+        checkBounds(dst, off, len);
+        if (len == 0) {
+            return 0;
+        }
+        int count = tryGenerateIds(dst, off, len);
+        if (count > 0) {
+            metrics.recordIssued(count);
         }
+        return count;
+    }
 
-        if (lastTimestamp == timestamp) {
-            sequence = (sequence + 1) & sequenceMask;
-            if (sequence == 0) {
-                timestamp = tilNextMillis(lastTimestamp);
+    /**
+     * {@link #tryNextIds(long[], int, int)}的实现, 不检查参数, 不计入issuedCount
+     */
+    private synchronized int tryGenerateIds(long[] dst, int off, int len) {
+        long timestamp = timeGen();
+        if (timestamp < lastTimestamp) {
+            if (lastTimestamp - timestamp <= maxBorrow) {
+                timestamp = lastTimestamp;
+            } else if (!trySwitchIdentity(timestamp)) {
+                return 0;
             }
-        } else {
-            sequence = 0L;
         }
+        long seq = lastTimestamp == timestamp ? sequence + 1 : 0L;
+        if (seq > sequenceMask) {
+            timestamp = tryNextMillis(timestamp);
+            if (timestamp < 0) {
+                return 0;
+            }
+            seq = 0L;
+        }
+        int count = (int) Math.min(len, sequenceMask - seq + 1);
+        long base = ((timestamp - twepoch) << timestampLeftShift) | currentWorkerBits;
+        for (int i = 0; i < count; i++) {
+            dst[off + i] = base | (seq + i);
+        }
+        sequence = seq + count - 1;
         lastTimestamp = timestamp;
-        return ((timestamp - twepoch) << timestampLeftShift) | (dataCenterId << dataCenterIdShift) | (workerId << workerIdShift) | sequence;
+        fence(dst, off, count);
+        return count;
+    }
+
+    /**
+     * 不等待地生成一个ID, 同{@link #tryNextIds(long[], int, int)}但不创建数组
+     *
+     * @return ID, 需要等待时返回-1
+     * @see #tryNextIds(long[], int, int)
+     */
+    public long tryNextId() {
+        long id = tryGenerateId();
+        if (id >= 0) {
+            metrics.recordIssued();
+        }
+        return id;
     }
 
-    private long tilNextMillis(long lastTimestamp) {
+    /**
+     * {@link #tryNextId()}的实现, 不计入issuedCount。子类覆盖了tryNextId, nextId直接调用这里
+     */
+    private synchronized long tryGenerateId() {
         long timestamp = timeGen();
-        while (timestamp <= lastTimestamp) {
+        if (timestamp < lastTimestamp) {
+            if (lastTimestamp - timestamp <= maxBorrow) {
+                timestamp = lastTimestamp;
+            } else if (!trySwitchIdentity(timestamp)) {
+                return -1L;
+            }
+        }
+        long seq = lastTimestamp == timestamp ? sequence + 1 : 0L;
+        if (seq > sequenceMask) {
+            timestamp = tryNextMillis(timestamp);
+            if (timestamp < 0) {
+                return -1L;
+            }
+            seq = 0L;
+        }
+        sequence = seq;
+        lastTimestamp = timestamp;
+        return fence(((timestamp - twepoch) << timestampLeftShift) | currentWorkerBits | seq);
+    }
+
+    /**
+     * 在timeout内生成一个ID, 超时返回-1而不是一直等待
+     * <br/>
+     * 需要等待下一毫秒或时钟后移时不持有锁, 在锁外按waitStrategy等待后重试, 给有调用时限的RPC处理等场景快速失败。
+     * 时钟后移超过timeout时不会等到时钟追上
+     *
+     * @param timeout 最多等待的时间, 小于等于0时只尝试一次
+     * @param unit    时间单位
+     * @return ID, 超时返回-1
+     */
+    public long tryNextId(long timeout, TimeUnit unit) {
+        long id = tryNextId();
+        if (id >= 0 || timeout <= 0) {
+            if (id < 0) {
+                metrics.recordTimeout();
+            }
+            return id;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int i = 0; ; i++) {
+            waitStrategy.idle(i);
+            id = tryNextId();
+            if (id >= 0) {
+                return id;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                metrics.recordTimeout();
+                return -1L;
+            }
+        }
+    }
+
+    protected static void checkBounds(long[] dst, int off, int len) {
+        if (off < 0 || len < 0 || len > dst.length - off) {
+            throw new IndexOutOfBoundsException(String.format("off=%d, len=%d, length=%d", off, len, dst.length));
+        }
+    }
+
+    /**
+     * tryGenerateId和tryGenerateIds需要等待时在锁外等待, 返回后重新尝试: 时钟后移超过maxBorrowMillis并且没有可切换的identity时
+     * 等时钟追上, 否则是sequence用完, 等到下一个时间单位
+     */
+    private void awaitGenerate() {
+        long last;
+        long timestamp;
+        int current;
+        boolean rollback;
+        boolean first = false;
+        synchronized (this) {
+            last = lastTimestamp;
             timestamp = timeGen();
+            current = identity;
+            rollback = last - timestamp > maxBorrow;
+            if (rollback && awaitedRollback != last) {
+                awaitedRollback = last;
+                first = true;
+            }
+        }
+        if (!rollback) {
+            awaitTimestamp(last + 1);
+            return;
+        }
+        if (first) {
+            onClockRollback(last, timestamp, current, -1);
+        }
+        awaitClockBackwards(last, timestamp);
+    }
+
+    /**
+     * 时钟后移超过maxBorrowMillis时尝试切换identity
+     *
+     * @param timestamp 当前时间戳
+     * @return 是否切换成功, 成功后可以从timestamp继续生成
+     */
+    private boolean trySwitchIdentity(long timestamp) {
+        int next = switchIdentity(highWaters, identity, lastTimestamp, timestamp);
+        if (next < 0) {
+            return false;
+        }
+        onClockRollback(lastTimestamp, timestamp, identity, next);
+        identity = next;
+        currentWorkerBits = identities[next];
+        //切换到的identity最大时间戳小于timestamp, sequence从0开始
+        lastTimestamp = highWaters.get(next);
+        return true;
+    }
+
+    /**
+     * 选一个可以从timestamp继续生成的identity
+     * <br/>
+     * 先把当前identity的lastTimestamp记入highWaters, 再从下一个开始找最大时间戳小于timestamp的identity。
+     * LOCK_FREE方式在CAS切换之前调用, CAS失败时记入的lastTimestamp只会偏小, 切换走的那次CAS会记入最终值
+     *
+     * @param highWaters    各identity最大时间戳
+     * @param current       当前identity
+     * @param lastTimestamp 当前identity的最大时间戳
+     * @param timestamp     当前时间戳
+     * @return identity下标, 没有可用的返回-1
+     */
+    protected int switchIdentity(AtomicLongArray highWaters, int current, long lastTimestamp, long timestamp) {
+        if (identities.length == 1) {
+            return -1;
+        }
+        highWaters.accumulateAndGet(current, lastTimestamp, Math::max);
+        for (int i = 1; i < identities.length; i++) {
+            int candidate = (current + i) % identities.length;
+            if (highWaters.get(candidate) < timestamp) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 记录时钟后移并通知监听器
+     *
+     * @param lastTimestamp 后移前的最大时间戳
+     * @param timestamp     当前时间戳
+     * @param from          后移前的identity
+     * @param to            切换到的identity, -1表示退回等待
+     */
+    protected void onClockRollback(long lastTimestamp, long timestamp, int from, int to) {
+        metrics.recordRollback();
+        if (to >= 0) {
+            LOGGER.warn("系统时钟后移{}ms, lastTimestamp={}, timestamp={}, identity由{}切换到{}继续生成ID",
+                    (lastTimestamp - timestamp) * timeUnitMillis, lastTimestamp, timestamp, from, to);
+        }
+        if (clockRollbackListener != null) {
+            try {
+                clockRollbackListener.onClockRollback(new ClockRollbackEvent(rollbackStrategy, workerId, dataCenterId,
+                        toMillis(lastTimestamp), toMillis(timestamp), from, to));
+            } catch (RuntimeException e) {
+                LOGGER.error("ClockRollbackListener回调异常", e);
+            }
+        }
+    }
+
+    /**
+     * 时钟后移时最多等待两倍的后移时间, 每个时间单位检查一次时钟, 追上就返回, 到时仍然后移则抛异常
+     * <br/>
+     * 等待是毫秒级的, 总是用LockSupport.parkNanos, 不用Object.wait; 各方式都在锁外调用, 在虚拟线程中不会占住载体线程
+     *
+     * @param lastTimestamp 上一次的时间戳
+     * @param timestamp     当前时间戳
+     * @return 追上lastTimestamp后的时间戳
+     */
+    protected long awaitClockBackwards(long lastTimestamp, long timestamp) {
+        long moveTime = (lastTimestamp - timestamp) * timeUnitMillis;
+        long waitTime = moveTime << 1;
+        LOGGER.error("系统时钟后移{}ms, lastTimestamp={}, timestamp={}, 线程最多等待{}ms",
+                moveTime, lastTimestamp, timestamp, waitTime);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(waitTime);
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(timeUnitMillis);
+        try {
+            long remaining;
+            while ((timestamp = timeGen()) < lastTimestamp && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, Math.min(remaining, tickNanos));
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(new InterruptedException());
+                }
+            }
+        } finally {
+            metrics.recordRollbackWait(System.nanoTime() - start);
+        }
+        if (timestamp < lastTimestamp) {
+            throw new RuntimeException(String.format("时钟出现后移, %dms内拒绝生成ID ",
+                    (lastTimestamp - timestamp) * timeUnitMillis));
+        }
+        return timestamp;
+    }
+
+    /**
+     * 等到下一个时间单位
+     * <br/>
+     * maxBorrowMillis大于0时直接借用lastTimestamp + 1, 只有超前系统时间超过maxBorrowMillis才按waitStrategy等待
+     *
+     * @param lastTimestamp 上一次的时间戳
+     * @return 下一个时间单位的时间戳
+     */
+    protected long tilNextMillis(long lastTimestamp) {
+        metrics.recordSequenceOverflow();
+        long next = lastTimestamp + 1;
+        long timestamp = awaitTimestamp(next);
+        if (next > timestamp) {
+            metrics.recordBorrow((next - timestamp) * timeUnitMillis);
+            return next;
+        }
+        return timestamp;
+    }
+
+    /**
+     * 按waitStrategy等到next超前系统时间不超过maxBorrowMillis
+     *
+     * @param next 要使用的时间戳
+     * @return 等待后的当前时间戳
+     */
+    private long awaitTimestamp(long next) {
+        long timestamp = timeGen();
+        if (next - timestamp > maxBorrow) {
+            long start = System.nanoTime();
+            int iteration = 0;
+            do {
+                waitStrategy.idle(iteration++);
+                timestamp = timeGen();
+            } while (next - timestamp > maxBorrow);
+            metrics.recordTilNextMillis(System.nanoTime() - start);
         }
         return timestamp;
     }
 
-    private long timeGen() {
-        return System.currentTimeMillis();
+    /**
+     * 不等待的{@link #tilNextMillis(long)}, 需要等待时返回-1
+     *
+     * @param lastTimestamp 上一次的时间戳
+     * @return 下一个时间单位的时间戳, 需要等待时返回-1
+     */
+    protected long tryNextMillis(long lastTimestamp) {
+        long next = lastTimestamp + 1;
+        long timestamp = timeGen();
+        if (next - timestamp > maxBorrow) {
+            return -1L;
+        }
+        metrics.recordSequenceOverflow();
+        if (next > timestamp) {
+            metrics.recordBorrow((next - timestamp) * timeUnitMillis);
+            return next;
+        }
+        return timestamp;
+    }
+
+    /**
+     * 租约检查, 生成的每个ID都经过这里, 租约没过期时只有一次volatile读和比较
+     *
+     * @param id 生成的ID
+     * @return 按leaseExpiryPolicy处理后的ID
+     */
+    protected final long fence(long id) {
+        return id < leaseFence ? id : leaseExpired(id);
+    }
+
+    /**
+     * 批量生成的租约检查, 一次生成的dst[off, off + len)时间戳递增, 只比较最后一个
+     *
+     * @param dst 目标数组
+     * @param off 起始下标
+     * @param len 数量
+     */
+    protected final void fence(long[] dst, int off, int len) {
+        if (len > 0 && dst[off + len - 1] >= leaseFence) {
+            for (int i = off, end = off + len; i < end; i++) {
+                dst[i] = fence(dst[i]);
+            }
+        }
+    }
+
+    private long leaseExpired(long id) {
+        metrics.recordLeaseExpired();
+        long fence = leaseFence;
+        if (alertedFence != fence) {
+            alertedFence = fence;
+            LOGGER.error("dataCenterId={}, workerId={}的租约已于{}到期, 可能已被其他实例回收, 续租成功前按{}策略处理",
+                    dataCenterId, workerId, getLeaseExpireAt(), leaseExpiryPolicy);
+        }
+        switch (leaseExpiryPolicy) {
+            case REJECT:
+                throw new IllegalStateException(String.format("dataCenterId=%d, workerId=%d的租约已过期, 拒绝生成ID",
+                        dataCenterId, workerId));
+            case FALLBACK_WORKER:
+                return (id & ~workerMask) | fallbackWorkerBits;
+            case DEGRADED:
+            default:
+                return id;
+        }
+    }
+
+    /**
+     * 更新workerId租约的到期时间, ConfigBuilder在分配到workerId和每次续租成功后调用
+     * <br/>
+     * 到期时间向下取整到时间单位, 时间戳在该时间单位及之后的ID按leaseExpiryPolicy处理
+     *
+     * @param expireAtMillis 租约到期时间, 毫秒, Long.MAX_VALUE表示不检查
+     */
+    public void renewLease(long expireAtMillis) {
+        long fence = expireAtMillis == Long.MAX_VALUE ? Long.MAX_VALUE
+                : Math.min(Math.max(0L, toTimestamp(expireAtMillis) - twepoch), bitLayout.getMaxTimestamp()) << timestampLeftShift;
+        if (alertedFence == leaseFence && fence > alertedFence) {
+            LOGGER.info("dataCenterId={}, workerId={}续租成功, 租约延长到{}", dataCenterId, workerId, expireAtMillis);
+        }
+        leaseFence = fence;
+    }
+
+    /**
+     * workerId已被其他实例回收, 之后生成的ID都按leaseExpiryPolicy处理
+     */
+    public void revokeLease() {
+        leaseFence = 0L;
+    }
+
+    /**
+     * @return 租约到期时间, 毫秒, 没有租约时是Long.MAX_VALUE
+     */
+    public long getLeaseExpireAt() {
+        long fence = leaseFence;
+        return fence == Long.MAX_VALUE ? Long.MAX_VALUE : toMillis((fence >>> timestampLeftShift) + twepoch);
+    }
+
+    /**
+     * @return 当前时间是否已到租约到期时间
+     */
+    public boolean isLeaseExpired() {
+        return timeSource.currentTimeMillis() >= getLeaseExpireAt();
+    }
+
+    public LeaseExpiryPolicy getLeaseExpiryPolicy() {
+        return leaseExpiryPolicy;
+    }
+
+    /**
+     * 逻辑时间戳, 即已经生成的ID中最大的时间戳和当前系统时间中较大的那个
+     * <br/>
+     * 借用毫秒时会超前系统时间, ZooKeeper和Redis上报的是这个时间戳, 重启后不会重复生成借用过的ID
+     *
+     * @return 逻辑时间戳, 毫秒
+     */
+    public synchronized long getLogicalTimestamp() {
+        return logicalMillis(Math.max(lastTimestamp, maxHighWater(highWaters)));
+    }
+
+    protected static long maxHighWater(AtomicLongArray highWaters) {
+        long max = -1L;
+        for (int i = 0; i < highWaters.length(); i++) {
+            max = Math.max(max, highWaters.get(i));
+        }
+        return max;
+    }
+
+    /**
+     * @param lastTimestamp 已经生成的ID中最大的时间戳
+     * @return lastTimestamp所在时间单位的起始毫秒和当前系统时间中较大的那个
+     */
+    protected long logicalMillis(long lastTimestamp) {
+        return Math.max(toMillis(lastTimestamp), timeSource.currentTimeMillis());
+    }
+
+    /**
+     * @return 当前逻辑时间戳超前系统时间的毫秒数
+     */
+    public long getLeadMillis() {
+        return Math.max(0L, getLogicalTimestamp() - timeSource.currentTimeMillis());
+    }
+
+    /**
+     * @return 逻辑时间戳超前系统时间的最大毫秒数
+     */
+    public long getMaxLeadMillis() {
+        return metrics.getMaxLeadMillis();
+    }
+
+    /**
+     * @return 借用下一毫秒的次数, LOCK_FREE方式CAS竞争时可能多计
+     */
+    public long getBorrowCount() {
+        return metrics.getBorrowCount();
+    }
+
+    public long getMaxBorrowMillis() {
+        return maxBorrowMillis;
+    }
+
+    /**
+     * @return 时钟后移超过maxBorrowMillis的次数, 包括切换identity和退回等待, LOCK_FREE方式退回等待时可能多计
+     */
+    public long getRollbackCount() {
+        return metrics.getRollbackCount();
+    }
+
+    /**
+     * @return 当前使用的identity, 0是主workerId
+     */
+    public synchronized int getIdentity() {
+        return identity;
+    }
+
+    public RollbackStrategy getRollbackStrategy() {
+        return rollbackStrategy;
     }
 
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public BitLayout getBitLayout() {
+        return bitLayout;
+    }
+
+    public GenerateMetrics getMetrics() {
+        return metrics;
+    }
 
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    public long getDataCenterId() {
+        return dataCenterId;
+    }
+
+    /**
+     * @return timeUnitMillis为单位的当前时间戳, 默认布局下就是毫秒, 不做除法
+     */
+    protected long timeGen() {
+        long millis = timeSource.currentTimeMillis();
+        return timeUnitMillis == 1L ? millis : millis / timeUnitMillis;
+    }
+
+    /**
+     * @param millis 毫秒
+     * @return 毫秒所在的时间单位
+     */
+    protected long toTimestamp(long millis) {
+        return millis / timeUnitMillis;
+    }
+
+    /**
+     * @param timestamp 时间单位
+     * @return 时间单位的起始毫秒
+     */
+    protected long toMillis(long timestamp) {
+        return timestamp * timeUnitMillis;
+    }
+
+    /**
+     * 按默认布局{@link BitLayout#DEFAULT}解析ID, 自定义布局的ID用{@link BitLayout#parse(long)}
+     *
+     * @param snowflakeId ID
+     * @return 解析结果
+     */
     public static SnowflakeId parseId(long snowflakeId) {
-        SnowflakeId s = new SnowflakeId();
-        s.timeStamp = (snowflakeId >> timestampLeftShift) + twepoch;
-        s.dataCenterId = (snowflakeId >> dataCenterIdShift) & maxDataCenterId;
-        s.workerId = (snowflakeId >> sequenceBits) & maxWorkerId;
-        s.sequence = snowflakeId & sequenceMask;
-        return s;
+        return BitLayout.DEFAULT.parse(snowflakeId);
+    }
+
+    /**
+     * 按默认布局取ID中的时间戳, 不创建对象, 自定义布局用{@link BitLayout#parseTimestamp(long)}
+     *
+     * @param snowflakeId ID
+     * @return 毫秒时间戳
+     */
+    public static long parseTimestamp(long snowflakeId) {
+        return BitLayout.DEFAULT.parseTimestamp(snowflakeId);
+    }
+
+    public static long parseDataCenterId(long snowflakeId) {
+        return BitLayout.DEFAULT.parseDataCenterId(snowflakeId);
+    }
+
+    public static long parseWorkerId(long snowflakeId) {
+        return BitLayout.DEFAULT.parseWorkerId(snowflakeId);
+    }
+
+    public static long parseSequence(long snowflakeId) {
+        return BitLayout.DEFAULT.parseSequence(snowflakeId);
     }
 
     public static class SnowflakeId {
-        private long timeStamp;
-        private long workerId;
-        private long dataCenterId;
-        private long sequence;
+        private final long timeStamp;
+        private final long workerId;
+        private final long dataCenterId;
+        private final long clockEpoch;
+        private final long sequence;
+
+        SnowflakeId(long timeStamp, long workerId, long dataCenterId, long clockEpoch, long sequence) {
+            this.timeStamp = timeStamp;
+            this.workerId = workerId;
+            this.dataCenterId = dataCenterId;
+            this.clockEpoch = clockEpoch;
+            this.sequence = sequence;
+        }
 
         public long getTimeStamp() {
             return timeStamp;
@@ -117,6 +923,10 @@ public class SnowflakeIdGenerate {
             return dataCenterId;
         }
 
+        public long getClockEpoch() {
+            return clockEpoch;
+        }
+
         public long getSequence() {
             return sequence;
         }
@@ -127,6 +937,7 @@ public class SnowflakeIdGenerate {
                     + "timeStamp=" + timeStamp
                     + ", workerId=" + workerId
                     + ", dataCenterId=" + dataCenterId
+                    + ", clockEpoch=" + clockEpoch
                     + ", sequence=" + sequence
                     + '}';
         }
@@ -0,0 +1,202 @@
+package cn.t0mpi9.snowflake;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按namespace区分的多个ID序列, 共用一个SnowflakeIdGenerate的workerId和dataCenterId
+ * <br/>
+ * 每个服务的几十张表各自需要连续的ID序列时, 不用为每张表单独创建builder、定时任务和占用一个workerId,
+ * 只需要zookeeper或redis分配一次。各namespace的sequence互相独立, 同一时间单位内每个namespace都可以生成2^sequenceBits个ID,
+ * 不同namespace的ID可能相同。
+ * <br/>
+ * namespace注册时分配一个下标, 状态按下标保存在一个AtomicLongArray中, 每个namespace占一个缓存行防止伪共享,
+ * 生成时和LOCK_FREE方式一样CAS更新 (timestamp - twepoch) << sequenceBits | sequence。
+ * 等待下一个时间单位、借用毫秒、租约检查和运行指标都沿用所属的SnowflakeIdGenerate; 时钟后移超过maxBorrowMillis时各namespace都按WAIT策略等待,
+ * 不切换identity
+ * <br/>
+ * Created on 2020/7/27 9:40.
+ *
+ * @author zhubenle
+ */
+public class SnowflakeIdRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnowflakeIdRegistry.class);
+
+    public static final int DEFAULT_CAPACITY = 64;
+    /**
+     * 每个namespace的状态间隔8个long, 独占64字节的缓存行
+     */
+    private static final int PAD_SHIFT = 3;
+
+    private final SnowflakeIdGenerate snowflakeIdGenerate;
+    private final AtomicLongArray states;
+    private final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
+    private final int capacity;
+    /**
+     * 已注册的namespace数, 生成时校验下标用, 不用每次求ConcurrentHashMap的size
+     */
+    private volatile int size;
+
+    public SnowflakeIdRegistry(SnowflakeIdGenerate snowflakeIdGenerate) {
+        this(snowflakeIdGenerate, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param snowflakeIdGenerate 提供workerId、dataCenterId和位布局的生成器
+     * @param capacity            最多的namespace数
+     */
+    public SnowflakeIdRegistry(SnowflakeIdGenerate snowflakeIdGenerate, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity必须大于0");
+        }
+        this.snowflakeIdGenerate = Objects.requireNonNull(snowflakeIdGenerate);
+        this.capacity = capacity;
+        this.states = new AtomicLongArray(capacity << PAD_SHIFT);
+    }
+
+    /**
+     * 注册namespace, 已注册的直接返回
+     * <br/>
+     * 所属生成器的逻辑时间戳超前系统时间时(重启后从上报的时间戳之后开始或借用过毫秒), 新的namespace也从该时间戳之后开始
+     *
+     * @param name namespace名称
+     * @return namespace
+     */
+    public Namespace register(String name) {
+        Objects.requireNonNull(name);
+        Namespace namespace = namespaces.get(name);
+        if (namespace != null) {
+            return namespace;
+        }
+        synchronized (namespaces) {
+            namespace = namespaces.get(name);
+            if (namespace == null) {
+                int index = namespaces.size();
+                if (index >= capacity) {
+                    throw new IllegalStateException(String.format("namespace数量超过%d, 无法注册%s", capacity, name));
+                }
+                long logical = snowflakeIdGenerate.toTimestamp(snowflakeIdGenerate.getLogicalTimestamp());
+                if (logical > snowflakeIdGenerate.timeGen()) {
+                    states.set(index << PAD_SHIFT, ((logical - snowflakeIdGenerate.twepoch) << snowflakeIdGenerate.sequenceBits)
+                            | snowflakeIdGenerate.sequenceMask);
+                }
+                namespace = new Namespace(name, index);
+                namespaces.put(name, namespace);
+                size = index + 1;
+                LOGGER.info("注册namespace={}, index={}", name, index);
+            }
+            return namespace;
+        }
+    }
+
+    /**
+     * @param name namespace名称
+     * @return 已注册的namespace
+     */
+    public Namespace namespace(String name) {
+        Namespace namespace = namespaces.get(name);
+        if (namespace == null) {
+            throw new IllegalArgumentException(String.format("namespace %s未注册", name));
+        }
+        return namespace;
+    }
+
+    public long nextId(String name) {
+        return nextId(namespace(name).index);
+    }
+
+    /**
+     * @param index {@link Namespace#getIndex()}
+     * @return index对应namespace的下一个ID
+     */
+    public long nextId(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("index=%d, size=%d", index, size));
+        }
+        SnowflakeIdGenerate g = snowflakeIdGenerate;
+        int slot = index << PAD_SHIFT;
+        for (; ; ) {
+            long current = states.get(slot);
+            long next = nextState(current);
+            if (states.compareAndSet(slot, current, next)) {
+                long id = g.fence(((next >>> g.sequenceBits) << g.timestampLeftShift) | g.workerBits | (next & g.sequenceMask));
+                g.metrics.recordIssued();
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 同LOCK_FREE方式, 时钟后移超过maxBorrowMillis时等待
+     */
+    private long nextState(long current) {
+        SnowflakeIdGenerate g = snowflakeIdGenerate;
+        long lastTimestamp = (current >>> g.sequenceBits) + g.twepoch;
+        long timestamp = g.timeGen();
+        if (timestamp < lastTimestamp) {
+            if (lastTimestamp - timestamp <= g.maxBorrow) {
+                timestamp = lastTimestamp;
+            } else {
+                g.onClockRollback(lastTimestamp, timestamp, 0, -1);
+                timestamp = g.awaitClockBackwards(lastTimestamp, timestamp);
+            }
+        }
+        if (timestamp == lastTimestamp) {
+            if ((current & g.sequenceMask) == g.sequenceMask) {
+                return (g.tilNextMillis(lastTimestamp) - g.twepoch) << g.sequenceBits;
+            }
+            return current + 1;
+        }
+        return (timestamp - g.twepoch) << g.sequenceBits;
+    }
+
+    public Set<String> getNamespaces() {
+        return Collections.unmodifiableSet(namespaces.keySet());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public SnowflakeIdGenerate getSnowflakeIdGenerate() {
+        return snowflakeIdGenerate;
+    }
+
+    /**
+     * 注册后的namespace, 可以缓存起来直接调用{@link #nextId()}, 省去按名称查找
+     */
+    public final class Namespace {
+        private final String name;
+        private final int index;
+
+        private Namespace(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        public long nextId() {
+            return SnowflakeIdRegistry.this.nextId(index);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return "Namespace{name=" + name + ", index=" + index + '}';
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package cn.t0mpi9.snowflake;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段的SnowflakeIdGenerate
+ * <br/>
+ * sequence的高stripeBits位作为段号, 拆成2^stripeBits个互相独立的段, 每段有自己的时间戳和段内sequence,
+ * 各自填充到独立缓存行并CAS更新。线程按线程id哈希到段上, 多核下线程之间基本不再竞争同一个计数器。
+ * 各段的sequence空间不相交, 所以ID仍然唯一, 但只是大致按时间有序。每段每毫秒最多生成2^(sequenceBits - stripeBits)个ID,
+ * 当前段本毫秒用完时依次尝试其他段, 所有段都用完才等待下一毫秒。
+ * 时钟后移时各段独立切换identity, 各段有自己的highWaters
+ * <br/>
+ * Created on 2020/7/15 10:30.
+ *
+ * @author zhubenle
+ */
+public class StripedSnowflakeIdGenerate extends SnowflakeIdGenerate {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StripedSnowflakeIdGenerate.class);
+
+    public static final int DEFAULT_STRIPE_BITS = 3;
+
+    private final int stripeBits;
+    /**
+     * 段内sequence位数
+     */
+    private final long stripeSequenceBits;
+    private final long stripeSequenceMask;
+    /**
+     * 每段的状态, 高位是identity, 中间是相对twepoch的时间戳, 低stripeSequenceBits位是段内sequence
+     */
+    private final PaddedAtomicLong[] states;
+    /**
+     * 每段各identity已生成ID的最大时间戳
+     */
+    private final AtomicLongArray[] stripeHighWaters;
+    private final long identityShift;
+    private final long timestampMask;
+
+    public StripedSnowflakeIdGenerate(long workerId, long dataCenterId) {
+        this(workerId, dataCenterId, new GenerateConfig(), DEFAULT_STRIPE_BITS);
+    }
+
+    /**
+     * @param workerId     workerId
+     * @param dataCenterId dataCenterId
+     * @param config       生成参数
+     * @param stripeBits   sequence中用作段号的高位数, 段数为2^stripeBits, 取值[0, sequenceBits)
+     */
+    public StripedSnowflakeIdGenerate(long workerId, long dataCenterId, GenerateConfig config, int stripeBits) {
+        super(workerId, dataCenterId, config);
+        if (stripeBits < 0 || stripeBits >= sequenceBits) {
+            throw new IllegalArgumentException(String.format("stripeBits取值范围[0, %d)", sequenceBits));
+        }
+        this.stripeBits = stripeBits;
+        this.stripeSequenceBits = sequenceBits - stripeBits;
+        this.stripeSequenceMask = ~(-1L << stripeSequenceBits);
+        this.identityShift = bitLayout.getTimestampBits() + stripeSequenceBits;
+        this.timestampMask = bitLayout.getMaxTimestamp();
+        long initial = 0L;
+        if (config.getInitialTimestamp() > 0) {
+            initial = ((toTimestamp(config.getInitialTimestamp()) - twepoch) << stripeSequenceBits) | stripeSequenceMask;
+        }
+        this.states = new PaddedAtomicLong[1 << stripeBits];
+        this.stripeHighWaters = new AtomicLongArray[states.length];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new PaddedAtomicLong(initial);
+            stripeHighWaters[i] = newHighWaters(config);
+        }
+        LOGGER.info("StripedSnowflakeIdGenerate初始化, stripes={}", states.length);
+    }
+
+    @Override
+    public long nextId() {
+        int stripe = stripeIndex();
+        int probes = 0;
+        for (; ; ) {
+            PaddedAtomicLong state = states[stripe];
+            long current = state.get();
+            if (probes < states.length - 1 && (current & stripeSequenceMask) == stripeSequenceMask
+                    && timestampOf(current) >= timeGen()) {
+                //当前段本毫秒已用完, 换下一段
+                stripe = (stripe + 1) & (states.length - 1);
+                probes++;
+                continue;
+            }
+            long next = nextState(stripe, current, true);
+            if (state.compareAndSet(current, next)) {
+                if ((current ^ next) >>> identityShift != 0) {
+                    onClockRollback(timestampOf(current), timestampOf(next), identityOf(current), identityOf(next));
+                }
+                long id = fence(toId(stripe, next));
+                metrics.recordIssued();
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 同{@link #tryNextIds(long[], int, int)}, 某段需要等待时换下一段, 所有段都需要等待才返回-1
+     */
+    @Override
+    public long tryNextId() {
+        int stripe = stripeIndex();
+        for (int probes = 0; probes < states.length; ) {
+            PaddedAtomicLong state = states[stripe];
+            long current = state.get();
+            long next = nextState(stripe, current, false);
+            if (next < 0) {
+                stripe = (stripe + 1) & (states.length - 1);
+                probes++;
+                continue;
+            }
+            if (state.compareAndSet(current, next)) {
+                if ((current ^ next) >>> identityShift != 0) {
+                    onClockRollback(timestampOf(current), timestampOf(next), identityOf(current), identityOf(next));
+                }
+                long id = fence(toId(stripe, next));
+                metrics.recordIssued();
+                return id;
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * 从当前线程对应的段中依次预留, 每次CAS预留该段当前毫秒剩余的一段连续sequence
+     */
+    @Override
+    public void nextIds(long[] dst, int off, int len) {
+        checkBounds(dst, off, len);
+        int stripe = stripeIndex();
+        PaddedAtomicLong state = states[stripe];
+        int start = off;
+        int end = off + len;
+        while (off < end) {
+            long current = state.get();
+            long first = nextState(stripe, current, true);
+            int count = (int) Math.min(end - off, stripeSequenceMask - (first & stripeSequenceMask) + 1);
+            if (state.compareAndSet(current, first + count - 1)) {
+                if ((current ^ first) >>> identityShift != 0) {
+                    onClockRollback(timestampOf(current), timestampOf(first), identityOf(current), identityOf(first));
+                }
+                for (long s = first, max = first + count; s < max; s++) {
+                    dst[off++] = toId(stripe, s);
+                }
+            }
+        }
+        fence(dst, start, len);
+        metrics.recordIssued(len);
+    }
+
+    /**
+     * 从当前线程对应的段开始依次尝试, 某段需要等待时换下一段, 所有段都需要等待才返回0
+     */
+    @Override
+    public int tryNextIds(long[] dst, int off, int len) {
+        checkBounds(dst, off, len);
+        if (len == 0) {
+            return 0;
+        }
+        int stripe = stripeIndex();
+        for (int probes = 0; probes < states.length; ) {
+            PaddedAtomicLong state = states[stripe];
+            long current = state.get();
+            long first = nextState(stripe, current, false);
+            if (first < 0) {
+                stripe = (stripe + 1) & (states.length - 1);
+                probes++;
+                continue;
+            }
+            int count = (int) Math.min(len, stripeSequenceMask - (first & stripeSequenceMask) + 1);
+            if (state.compareAndSet(current, first + count - 1)) {
+                if ((current ^ first) >>> identityShift != 0) {
+                    onClockRollback(timestampOf(current), timestampOf(first), identityOf(current), identityOf(first));
+                }
+                for (int i = 0; i < count; i++) {
+                    dst[off + i] = toId(stripe, first + i);
+                }
+                fence(dst, off, count);
+                metrics.recordIssued(count);
+                return count;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 根据段的当前状态计算下一个状态, 同LOCK_FREE
+     */
+    private long nextState(int stripe, long current, boolean wait) {
+        int identity = identityOf(current);
+        long lastTimestamp = timestampOf(current);
+        long timestamp = timeGen();
+        if (timestamp < lastTimestamp) {
+            if (lastTimestamp - timestamp <= maxBorrow) {
+                timestamp = lastTimestamp;
+            } else {
+                int next = switchIdentity(stripeHighWaters[stripe], identity, lastTimestamp, timestamp);
+                if (next >= 0) {
+                    return ((long) next << identityShift) | ((timestamp - twepoch) << stripeSequenceBits);
+                }
+                if (!wait) {
+                    return -1L;
+                }
+                onClockRollback(lastTimestamp, timestamp, identity, next);
+                timestamp = awaitClockBackwards(lastTimestamp, timestamp);
+            }
+        }
+        long identityBits = (long) identity << identityShift;
+        if (timestamp == lastTimestamp) {
+            if ((current & stripeSequenceMask) == stripeSequenceMask) {
+                long nextTimestamp = wait ? tilNextMillis(lastTimestamp) : tryNextMillis(lastTimestamp);
+                return nextTimestamp < 0 ? -1L : identityBits | ((nextTimestamp - twepoch) << stripeSequenceBits);
+            }
+            return current + 1;
+        }
+        return identityBits | ((timestamp - twepoch) << stripeSequenceBits);
+    }
+
+    private long toId(int stripe, long state) {
+        return (((state >>> stripeSequenceBits) & timestampMask) << timestampLeftShift) | identities[identityOf(state)]
+                | ((long) stripe << stripeSequenceBits) | (state & stripeSequenceMask);
+    }
+
+    private int identityOf(long state) {
+        return (int) (state >>> identityShift);
+    }
+
+    private long timestampOf(long state) {
+        return ((state >>> stripeSequenceBits) & timestampMask) + twepoch;
+    }
+
+    /**
+     * 线程id做斐波那契哈希取高stripeBits位, 连续的线程id也能分散到不同段
+     */
+    private int stripeIndex() {
+        if (stripeBits == 0) {
+            return 0;
+        }
+        return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> (64 - stripeBits));
+    }
+
+    @Override
+    public long getLogicalTimestamp() {
+        long max = -1L;
+        for (int i = 0; i < states.length; i++) {
+            max = Math.max(max, Math.max(timestampOf(states[i].get()), maxHighWater(stripeHighWaters[i])));
+        }
+        return logicalMillis(max);
+    }
+
+    /**
+     * @return 当前线程所在段使用的identity
+     */
+    @Override
+    public int getIdentity() {
+        return identityOf(states[stripeIndex()].get());
+    }
+
+    public int getStripes() {
+        return states.length;
+    }
+}
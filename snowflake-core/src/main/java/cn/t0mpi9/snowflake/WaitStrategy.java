@@ -0,0 +1,88 @@
+package cn.t0mpi9.snowflake;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * sequence用完等待下一个时间单位, 以及{@link SnowflakeIdGenerate#tryNextId(long, TimeUnit)}重试时的等待方式
+ * <br/>
+ * 等待的时间都在一毫秒左右, 自旋的延迟最低但占满一个CPU; PARK让出CPU, 在虚拟线程中会卸载而不是占住载体线程,
+ * 但唤醒要多几十微秒
+ * <br/>
+ * Created on 2020/7/24 9:30.
+ *
+ * @author zhubenle
+ */
+public enum WaitStrategy {
+
+    /**
+     * 空循环, 默认策略, 和之前的tilNextMillis一致
+     */
+    BUSY_SPIN {
+        @Override
+        public void idle(int iteration) {
+        }
+    },
+    /**
+     * 自旋时调用Thread.onSpinWait(), 提示CPU降低自旋的功耗并让出超线程, Java 8没有该方法时同BUSY_SPIN
+     */
+    SPIN_WAIT {
+        @Override
+        public void idle(int iteration) {
+            onSpinWait();
+        }
+    },
+    /**
+     * Thread.yield()让出CPU给同核的其他线程
+     */
+    YIELD {
+        @Override
+        public void idle(int iteration) {
+            Thread.yield();
+        }
+    },
+    /**
+     * 先自旋SPIN_TRIES次, 之后每次LockSupport.parkNanos(PARK_NANOS)
+     */
+    PARK {
+        @Override
+        public void idle(int iteration) {
+            if (iteration < SPIN_TRIES) {
+                onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final MethodHandle ON_SPIN_WAIT = onSpinWaitHandle();
+
+    /**
+     * 等待条件满足前调用一次
+     *
+     * @param iteration 本次等待中第几次调用, 从0开始
+     */
+    public abstract void idle(int iteration);
+
+    private static MethodHandle onSpinWaitHandle() {
+        try {
+            return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static void onSpinWait() {
+        if (ON_SPIN_WAIT != null) {
+            try {
+                ON_SPIN_WAIT.invokeExact();
+            } catch (Throwable ignored) {
+            }
+        }
+    }
+}
@@ -1,19 +1,30 @@
 package cn.t0mpi9.snowflake.builder;
 
 import cn.t0mpi9.snowflake.Constant;
+import cn.t0mpi9.snowflake.LeaseExpiryPolicy;
+import cn.t0mpi9.snowflake.SegmentAllocator;
+import cn.t0mpi9.snowflake.SegmentConfig;
+import cn.t0mpi9.snowflake.SegmentIdGenerate;
 import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -22,14 +33,37 @@ import java.util.concurrent.TimeUnit;
  *
  * @author zhubenle
  */
-public abstract class AbstractConfigBuilder<T extends AbstractConfigBuilder> implements ConfigBuilder {
+public abstract class AbstractConfigBuilder<T extends AbstractConfigBuilder> extends AbstractGenerateBuilder<T> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractConfigBuilder.class);
 
+    public static final long DEFAULT_RECLAIM_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(1);
     /**
-     * 用于执行定时任务
+     * 租约在上报周期之外多保留的时间
+     */
+    private static final long LEASE_EXTRA_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    /**
+     * 本地状态文件高水位的写入间隔
+     */
+    private static final long LOCAL_STATE_FLUSH_MILLIS = 1000L;
+    private static final String LOCAL_STATE_SUFFIX = ".state";
+
+    /**
+     * 用于执行定时任务, 没有指定时共用{@link HeartbeatHub}的线程
      */
     protected ScheduledExecutorService scheduledExecutorService;
+    /**
+     * scheduledExecutorService是否是共用的, 共用时关闭builder只取消自己的任务
+     */
+    private boolean sharedScheduler;
+    /**
+     * 异步领取号段的线程, 定时任务共用{@link HeartbeatHub}的线程时单独创建, 避免慢的号段领取拖延进程内所有租约的上报
+     */
+    private ExecutorService segmentExecutorService;
+    /**
+     * 加入的心跳组, 关闭时退出
+     */
+    private final List<Closeable> heartbeats = new ArrayList<>();
     /**
      * 定时时间间隔
      */
@@ -59,6 +93,33 @@ public abstract class AbstractConfigBuilder<T extends AbstractConfigBuilder> imp
      * 开启文件缓存时，可以指定缓存的路径
      */
     protected String fileCachePath;
+    /**
+     * 已下线实例上报的逻辑时间戳早于当前时间超过该值后, 其顺序号才会被回收给其他实例, 用来覆盖各实例之间的时钟偏差,
+     * 不能小于租约时长加maxBorrowMillis
+     */
+    protected long reclaimMarginMillis = DEFAULT_RECLAIM_MARGIN_MILLIS;
+    /**
+     * 是否异步启动, 本地状态文件中缓存的workerId租约还没到期时, build()直接用缓存创建生成器返回, 注册在后台线程中完成。
+     * 不能和DEGRADED策略同时使用
+     */
+    protected boolean asyncBootstrap;
+    /**
+     * 开启localFileCache时打开的本地状态文件
+     */
+    private LocalStateFile localStateFile;
+    private Runnable localStateFlush;
+    private ScheduledFuture<?> localStateFlushTask;
+    /**
+     * 当前workerId在其他实例可以回收之前的到期时间, 随高水位定时写入本地状态文件, 是下次异步启动时缓存的租约
+     */
+    private volatile long cachedLeaseExpireAt;
+    /**
+     * 异步启动时用缓存创建的生成器, 后台注册完成后置为null
+     */
+    private volatile SnowflakeIdGenerate bootstrapGenerate;
+    private Thread bootstrapThread;
+    private volatile boolean closed;
+    private final CompletableFuture<SnowflakeIdGenerate> registration = new CompletableFuture<>();
 
     public T ip(String ip) {
         this.ip = ip;
@@ -85,6 +146,19 @@ public abstract class AbstractConfigBuilder<T extends AbstractConfigBuilder> imp
         return (T) this;
     }
 
+    public T reclaimMarginMillis(long reclaimMarginMillis) {
+        if (reclaimMarginMillis < 0) {
+            throw new IllegalArgumentException("reclaimMarginMillis不能小于0");
+        }
+        this.reclaimMarginMillis = reclaimMarginMillis;
+        return (T) this;
+    }
+
+    public T asyncBootstrap(boolean asyncBootstrap) {
+        this.asyncBootstrap = asyncBootstrap;
+        return (T) this;
+    }
+
     public T scheduledExecutorService(ScheduledExecutorService scheduledExecutorService) {
         this.scheduledExecutorService = scheduledExecutorService;
         return (T) this;
@@ -101,33 +175,103 @@ public abstract class AbstractConfigBuilder<T extends AbstractConfigBuilder> imp
     }
 
     /**
-     * 初始化定时任务执行器
+     * 一次上报成功后workerId租约的有效时间, 上报周期加上10秒, 超过这个时间没有上报成功, 生成器按leaseExpiryPolicy处理
+     *
+     * @return 毫秒
+     */
+    protected long getLeaseMillis() {
+        return scheduleTimeUnit.toMillis(schedulePeriod) + LEASE_EXTRA_MILLIS;
+    }
+
+    /**
+     * 初始化定时任务执行器, 没有指定时共用{@link HeartbeatHub}的线程, 不再每个builder创建一个线程和shutdown hook
      */
     private void initScheduled() {
         if (Objects.isNull(this.scheduledExecutorService)) {
-            this.scheduledExecutorService = new ScheduledThreadPoolExecutor(1, r -> {
-                Thread thread = new Thread(r, "snowflake-zk-updateData");
-                thread.setDaemon(true);
-                return thread;
-            });
-            Runtime.getRuntime()
-                    .addShutdownHook(new Thread(() -> {
-                        scheduledExecutorService.shutdownNow();
-                        if (LOGGER.isDebugEnabled()) {
-                            LOGGER.debug("关闭scheduledExecutorService");
-                        }
-                    }));
+            this.scheduledExecutorService = HeartbeatHub.shared().getExecutor();
+            this.sharedScheduler = true;
+        }
+    }
+
+    /**
+     * 加入进程内的心跳组, 同一个远程服务、同一个上报周期的租约合并上报, 关闭builder时退出
+     *
+     * @param endpoint 远程服务, 以及会影响上报方式的配置
+     * @param batch    组不存在时使用的批量上报
+     * @param member   租约
+     * @param <M>      租约类型
+     */
+    <M> void joinHeartbeat(Object endpoint, HeartbeatHub.Batch<M> batch, M member) {
+        long periodMillis = scheduleTimeUnit.toMillis(schedulePeriod);
+        Object key = Arrays.asList(getClass(), endpoint, periodMillis, timeSource);
+        synchronized (heartbeats) {
+            Closeable heartbeat = HeartbeatHub.shared().register(key, periodMillis, batch, member);
+            if (closed) {
+                //异步启动的注册在关闭之后才完成
+                try {
+                    heartbeat.close();
+                } catch (IOException ignored) {
+                }
+                return;
+            }
+            heartbeats.add(heartbeat);
         }
     }
 
+    /**
+     * 注册完成后续租的生成器。同步启动时build()返回前就已完成, 值就是build()返回的生成器;
+     * 异步启动时在后台注册完成后完成, 注册结果和缓存一致时也是build()返回的生成器, 不一致时是按注册结果新建的生成器,
+     * build()返回的生成器的租约被收回, 按REJECT拒绝生成或按FALLBACK_WORKER改用备用workerId, 之后应改用这里的生成器
+     *
+     * @return 注册结果, builder关闭时还没完成的会被取消
+     */
+    public CompletableFuture<SnowflakeIdGenerate> getRegistration() {
+        return registration;
+    }
+
+    /**
+     * 记录当前workerId在其他实例可以回收之前的到期时间, 子类在注册和续租成功时调用, 顺序号被回收时传0
+     *
+     * @param expireAtMillis 到期时间, 毫秒
+     */
+    protected void cacheLease(long expireAtMillis) {
+        cachedLeaseExpireAt = expireAtMillis;
+    }
+
     @Override
     public void close() throws IOException {
-        if (Objects.nonNull(scheduledExecutorService)) {
+        closed = true;
+        if (bootstrapThread != null) {
+            bootstrapThread.interrupt();
+        }
+        registration.cancel(false);
+        synchronized (heartbeats) {
+            for (Closeable heartbeat : heartbeats) {
+                heartbeat.close();
+            }
+            heartbeats.clear();
+        }
+        if (sharedScheduler) {
+            if (localStateFlushTask != null) {
+                localStateFlushTask.cancel(false);
+            }
+        } else if (Objects.nonNull(scheduledExecutorService)) {
             scheduledExecutorService.shutdownNow();
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("关闭scheduledExecutorService");
             }
         }
+        synchronized (this) {
+            if (segmentExecutorService != null) {
+                segmentExecutorService.shutdownNow();
+            }
+        }
+        if (localStateFile != null) {
+            if (localStateFlush != null) {
+                localStateFlush.run();
+            }
+            localStateFile.close();
+        }
     }
 
     @Override
@@ -138,10 +282,117 @@ public abstract class AbstractConfigBuilder<T extends AbstractConfigBuilder> imp
         if (!Constant.PATTERN_APPLICATION_NAME.matcher(applicationName).matches()) {
             throw new IllegalArgumentException("applicationName格式有问题");
         }
+        //原实例在租约到期前还会继续生成, 借用毫秒时生成的时间戳还会超前maxBorrowMillis, 回收余量必须覆盖这段时间
+        if (reclaimMarginMillis < getLeaseMillis() + maxBorrowMillis) {
+            throw new IllegalArgumentException(String.format("reclaimMarginMillis=%d不能小于租约时长%dms加maxBorrowMillis=%d",
+                    reclaimMarginMillis, getLeaseMillis(), maxBorrowMillis));
+        }
+        //注册结果和缓存不一致时缓存的workerId可能已分给其他实例, 收回租约后降级继续用它生成会重复
+        if (asyncBootstrap && LeaseExpiryPolicy.DEGRADED.equals(leaseExpiryPolicy)) {
+            throw new IllegalArgumentException("asyncBootstrap不能和DEGRADED策略同时使用, 请使用REJECT或FALLBACK_WORKER策略");
+        }
         LOGGER.info("snowflake初始化参数ip={}, port={}, applicationName={}", ip, port, applicationName);
         initScheduled();
+        openLocalState();
+
+        long start = System.nanoTime();
+        SnowflakeIdGenerate snowflakeIdGenerate = asyncBootstrap ? bootstrapLocalCreate() : null;
+        if (snowflakeIdGenerate == null) {
+            snowflakeIdGenerate = doBuild();
+            registration.complete(snowflakeIdGenerate);
+        } else {
+            LOGGER.info("使用本地缓存的dataCenterId={}, workerId={}异步启动, 用时{}ms, 租约到期时间{}",
+                    snowflakeIdGenerate.getDataCenterId(), snowflakeIdGenerate.getWorkerId(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), snowflakeIdGenerate.getLeaseExpireAt());
+            startBootstrapRegistration(snowflakeIdGenerate, start);
+        }
+        scheduledFlushLocalState(snowflakeIdGenerate);
+        return snowflakeIdGenerate;
+    }
+
+    /**
+     * 异步启动时用本地状态文件缓存的workerId创建生成器。缓存的租约到期之前其他实例不会回收该workerId,
+     * 生成器的租约就是缓存的租约, 后台注册确认之前到期的按leaseExpiryPolicy处理
+     *
+     * @return SnowflakeIdGenerate, 没有未到期的缓存时null
+     */
+    private SnowflakeIdGenerate bootstrapLocalCreate() {
+        LocalStateFile.State state = localStateFile == null ? null : localStateFile.read();
+        if (state == null || state.getLeaseExpireAt() <= timeSource.currentTimeMillis()) {
+            LOGGER.info("本地状态文件中没有未到期的workerId租约, 同步注册");
+            return null;
+        }
+        if (needLeaseBackup()) {
+            //备用workerId也需要注册和续租, 不能只用缓存
+            LOGGER.info("备用workerId由注册分配时不能异步启动, 同步注册");
+            return null;
+        }
+        SnowflakeIdGenerate snowflakeIdGenerate = super.newSnowflakeIdGenerate(state.getWorkerId(), state.getDataCenterId(),
+                localInitialTimestamp());
+        snowflakeIdGenerate.renewLease(state.getLeaseExpireAt());
+        return snowflakeIdGenerate;
+    }
+
+    /**
+     * 在后台线程中注册, 失败时每隔一个定时周期重试, 直到成功或builder关闭。
+     * 注册结果和缓存一致时由{@link #newSnowflakeIdGenerate(long, long, long)}返回缓存创建的生成器, 续租直接作用在它上面
+     *
+     * @param bootstrap 用缓存创建的生成器
+     * @param start     build()开始的时间, System.nanoTime()
+     */
+    private void startBootstrapRegistration(SnowflakeIdGenerate bootstrap, long start) {
+        bootstrapGenerate = bootstrap;
+        bootstrapThread = new Thread(() -> {
+            for (int attempt = 1; !closed; attempt++) {
+                try {
+                    handover(bootstrap, doBuild(), start);
+                    return;
+                } catch (RuntimeException e) {
+                    if (closed) {
+                        return;
+                    }
+                    LOGGER.error("异步启动第{}次注册失败: {}", attempt, e.getMessage());
+                }
+                try {
+                    scheduleTimeUnit.sleep(schedulePeriod);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "snowflake-bootstrap");
+        bootstrapThread.setDaemon(true);
+        bootstrapThread.start();
+    }
+
+    /**
+     * 注册完成后交接, 和缓存不一致时收回缓存生成器的租约
+     */
+    private void handover(SnowflakeIdGenerate bootstrap, SnowflakeIdGenerate registered, long start) {
+        bootstrapGenerate = null;
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (registered == bootstrap) {
+            LOGGER.info("异步启动注册完成, 注册结果和缓存的dataCenterId={}, workerId={}一致, 用时{}ms",
+                    bootstrap.getDataCenterId(), bootstrap.getWorkerId(), elapsed);
+        } else {
+            bootstrap.revokeLease();
+            LOGGER.error("异步启动注册结果dataCenterId={}, workerId={}和缓存的dataCenterId={}, workerId={}不一致, 用时{}ms, "
+                            + "收回缓存生成器的租约按{}处理, 注册结果的生成器通过getRegistration()获取",
+                    registered.getDataCenterId(), registered.getWorkerId(), bootstrap.getDataCenterId(),
+                    bootstrap.getWorkerId(), elapsed, bootstrap.getLeaseExpiryPolicy());
+        }
+        registration.complete(registered);
+    }
 
-        return doBuild();
+    /**
+     * 异步启动注册时, 注册结果和缓存一致就返回缓存创建的生成器, 不再新建
+     */
+    @Override
+    protected SnowflakeIdGenerate newSnowflakeIdGenerate(long workerId, long dataCenterId, long initialTimestamp) {
+        SnowflakeIdGenerate bootstrap = bootstrapGenerate;
+        if (bootstrap != null && bootstrap.getWorkerId() == workerId && bootstrap.getDataCenterId() == dataCenterId) {
+            return bootstrap;
+        }
+        return super.newSnowflakeIdGenerate(workerId, dataCenterId, initialTimestamp);
     }
 
     /**
@@ -151,60 +402,208 @@ public abstract class AbstractConfigBuilder<T extends AbstractConfigBuilder> imp
      */
     protected abstract SnowflakeIdGenerate doBuild();
 
+    public SegmentIdGenerate buildSegment(String name) {
+        return buildSegment(name, new SegmentConfig());
+    }
+
     /**
-     * 保存到本地文件
+     * 创建号段方式的生成器, 号段记录在当前applicationName下, 下一个号段在单独的线程中异步领取,
+     * 指定了scheduledExecutorService时用指定的
      *
-     * @param workerId     workerId
-     * @param dataCenterId dataCenterId
+     * @param name   号段名称
+     * @param config 号段参数
+     * @return SegmentIdGenerate
      */
-    protected void saveLocalFile(long workerId, long dataCenterId) {
-        if (localFileCache) {
-            File file = getLocalFile();
-            String data = dataCenterId + Constant.STRIKE + workerId;
+    public SegmentIdGenerate buildSegment(String name, SegmentConfig config) {
+        Objects.requireNonNull(applicationName);
+        if (!Constant.PATTERN_APPLICATION_NAME.matcher(applicationName).matches()
+                || !Constant.PATTERN_APPLICATION_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("applicationName或号段名称格式有问题");
+        }
+        initScheduled();
+        return new SegmentIdGenerate(segmentAllocator(), name, segmentExecutor(), config);
+    }
+
+    private synchronized Executor segmentExecutor() {
+        if (!sharedScheduler) {
+            return scheduledExecutorService;
+        }
+        if (segmentExecutorService == null) {
+            segmentExecutorService = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "snowflake-segment-" + applicationName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return segmentExecutorService;
+    }
+
+    /**
+     * 子类实现的号段分配
+     *
+     * @return SegmentAllocator
+     */
+    protected abstract SegmentAllocator segmentAllocator();
+
+    /**
+     * 打开本地状态文件, 当前系统时间比文件中记录的高水位小超过maxBorrowMillis时拒绝创建, 不需要先访问zookeeper或redis
+     */
+    private void openLocalState() {
+        if (!localFileCache) {
+            return;
+        }
+        File file = getLocalStateFile();
+        try {
+            localStateFile = LocalStateFile.open(file);
+        } catch (IOException e) {
+            LOGGER.error("打开本地状态文件{}异常", file.getAbsolutePath(), e);
+            return;
+        }
+        LocalStateFile.State state = localStateFile.read();
+        if (state != null) {
+            cachedLeaseExpireAt = state.getLeaseExpireAt();
+        }
+        if (state != null && timeSource.currentTimeMillis() + maxBorrowMillis < state.getHighWater()) {
             try {
-                if (file.exists()) {
-                    try (PrintWriter pw = new PrintWriter(file)) {
-                        pw.print(data);
-                    }
-                } else {
-                    File parentFile = file.getParentFile();
-                    if ((parentFile.exists() || (!parentFile.exists() && parentFile.mkdirs())) && file.createNewFile()) {
-                        try (PrintWriter pw = new PrintWriter(file)) {
-                            pw.print(data);
-                        }
-                    } else {
-                        LOGGER.error("文件创建失败:{}", file.getAbsolutePath());
-                    }
-                }
+                localStateFile.close();
+            } catch (IOException ignored) {
+            }
+            localStateFile = null;
+            throw new IllegalStateException(String.format("检查当前系统时间是否比本地状态文件%s记录的时间%d小, 请确认系统时间",
+                    file.getAbsolutePath(), state.getHighWater()));
+        }
+    }
 
-            } catch (IOException e) {
-                LOGGER.error("保存dataCenterId={}, workerId={}到本地文件异常", dataCenterId, workerId, e);
+    /**
+     * 定时把逻辑时间戳和缓存的租约写入本地状态文件, 只写映射内存, 不是每生成一个ID都写。
+     * 异步启动注册结果和缓存不一致时, 两个生成器都可能在用, 高水位取两者的最大值。
+     * 还没生成过ID的生成器的逻辑时间戳只是启动时推算的起点, 不写入, 否则连续重启时高水位每次都往前推
+     *
+     * @param snowflakeIdGenerate 生成器
+     */
+    private void scheduledFlushLocalState(SnowflakeIdGenerate snowflakeIdGenerate) {
+        if (localStateFile == null) {
+            return;
+        }
+        LocalStateFile stateFile = localStateFile;
+        localStateFlush = () -> {
+            try {
+                long highWater = issuedHighWater(snowflakeIdGenerate);
+                SnowflakeIdGenerate registered = registration.isDone() && !registration.isCompletedExceptionally()
+                        ? registration.join() : null;
+                if (registered != null && registered != snowflakeIdGenerate) {
+                    highWater = Math.max(highWater, issuedHighWater(registered));
+                }
+                stateFile.update(highWater, cachedLeaseExpireAt);
+            } catch (RuntimeException e) {
+                LOGGER.error("更新本地状态文件{}异常: {}", stateFile.getFile().getAbsolutePath(), e.getMessage());
             }
+        };
+        localStateFlushTask = scheduledExecutorService.scheduleAtFixedRate(localStateFlush, LOCAL_STATE_FLUSH_MILLIS,
+                LOCAL_STATE_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static long issuedHighWater(SnowflakeIdGenerate snowflakeIdGenerate) {
+        return snowflakeIdGenerate.getMetrics().getIssuedCount() > 0 ? snowflakeIdGenerate.getLogicalTimestamp() : 0L;
+    }
+
+    /**
+     * 本地状态文件记录的高水位之后的逻辑时间戳起点。高水位每LOCAL_STATE_FLUSH_MILLIS写入一次, 之后还可能生成过ID和借用过毫秒,
+     * 从最多可能用到的时间之后开始
+     *
+     * @return 逻辑时间戳起点, 没有记录时0
+     */
+    protected long localInitialTimestamp() {
+        LocalStateFile.State state = localStateFile == null ? null : localStateFile.read();
+        if (state == null || state.getHighWater() <= 0) {
+            return 0L;
         }
+        return state.getHighWater() + LOCAL_STATE_FLUSH_MILLIS + maxBorrowMillis;
     }
 
     /**
-     * 使用本地文件中缓存的dataCenterId和workerId创建SnowflakeIdGenerate
+     * 保存到本地状态文件, 写入完整并校验通过之前原来的记录一直有效, 写入后删除之前版本的文本文件
      *
-     * @return SnowflakeIdGenerate
+     * @param workerId     workerId
+     * @param dataCenterId dataCenterId
+     */
+    protected void saveLocalFile(long workerId, long dataCenterId) {
+        if (localStateFile == null) {
+            return;
+        }
+        //新分配的租约由注册成功后的cacheLease写入
+        cachedLeaseExpireAt = 0L;
+        try {
+            localStateFile.writeAssignment(dataCenterId, workerId, backupWorkerId >= 0 ? backupDataCenterId : -1L, backupWorkerId);
+        } catch (RuntimeException e) {
+            LOGGER.error("保存dataCenterId={}, workerId={}到本地状态文件异常", dataCenterId, workerId, e);
+            return;
+        }
+        File legacy = getLocalFile();
+        if (legacy.exists() && !legacy.delete()) {
+            LOGGER.warn("删除旧的本地缓存文件{}失败", legacy.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 使用本地状态文件中缓存的dataCenterId和workerId创建SnowflakeIdGenerate, 从记录的高水位之后开始。
+     * 没有状态文件时读取之前版本的文本文件
+     *
+     * @return SnowflakeIdGenerate, 没有缓存时null
      */
     protected SnowflakeIdGenerate useLocalCreate() {
+        if (bootstrapGenerate != null) {
+            //异步启动的后台注册失败时重试, 已经在用缓存
+            return null;
+        }
+        LocalStateFile.State state = localStateFile == null ? null : localStateFile.read();
+        if (state == null) {
+            state = readLegacyLocalFile();
+        }
+        if (state == null) {
+            return null;
+        }
+        if (needLeaseBackup() && state.getBackupWorkerId() >= 0) {
+            backupDataCenterId = state.getBackupDataCenterId();
+            backupWorkerId = state.getBackupWorkerId();
+        }
+        LOGGER.warn("使用本地缓存的dataCenterId={}, workerId={}创建SnowflakeIdGenerate", state.getDataCenterId(), state.getWorkerId());
+        return newSnowflakeIdGenerate(state.getWorkerId(), state.getDataCenterId(), localInitialTimestamp());
+    }
+
+    /**
+     * 读取之前版本保存的"dataCenterId-workerId[-backupDataCenterId-backupWorkerId]"文本文件, 没有时间戳高水位
+     *
+     * @return 缓存的分配, 文件不存在或读取失败时null
+     */
+    private LocalStateFile.State readLegacyLocalFile() {
         File file = getLocalFile();
-        if (file.exists()) {
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
-                String[] srs = br.readLine().split(Constant.STRIKE);
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("从本地缓存文件{}读取dataCenterId和workerId", file.getAbsolutePath());
-                }
-                return new SnowflakeIdGenerate(Integer.parseInt(srs[0]), Integer.parseInt(srs[1]));
-            } catch (IOException e) {
-                LOGGER.warn("读取文件{}配置失败", file.getAbsolutePath(), e);
-            }
-        } else {
+        if (!file.exists()) {
             LOGGER.warn("文件{}不存在", file.getAbsolutePath());
+            return null;
         }
-        return null;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file)))) {
+            String[] srs = br.readLine().split(Constant.STRIKE);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("从本地缓存文件{}读取dataCenterId和workerId", file.getAbsolutePath());
+            }
+            boolean backup = srs.length >= 4;
+            return new LocalStateFile.State(Long.parseLong(srs[0]), Long.parseLong(srs[1]),
+                    backup ? Long.parseLong(srs[2]) : -1L, backup ? Long.parseLong(srs[3]) : -1L, 0L, 0L);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("读取文件{}配置失败", file.getAbsolutePath(), e);
+            return null;
+        }
+    }
 
+    /**
+     * 获取本地缓存workerId分配和时间戳高水位的状态文件, 和之前版本的文本文件在同一目录
+     *
+     * @return File
+     */
+    protected File getLocalStateFile() {
+        File file = getLocalFile();
+        return new File(file.getParentFile(), file.getName() + LOCAL_STATE_SUFFIX);
     }
 
     /**
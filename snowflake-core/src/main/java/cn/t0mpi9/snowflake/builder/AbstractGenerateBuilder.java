@@ -0,0 +1,244 @@
+package cn.t0mpi9.snowflake.builder;
+
+import cn.t0mpi9.snowflake.BitLayout;
+import cn.t0mpi9.snowflake.ClockRollbackListener;
+import cn.t0mpi9.snowflake.GenerateConfig;
+import cn.t0mpi9.snowflake.GenerateMode;
+import cn.t0mpi9.snowflake.LeaseExpiryPolicy;
+import cn.t0mpi9.snowflake.LockFreeSnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.RefillPolicy;
+import cn.t0mpi9.snowflake.RingBufferSnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.RollbackStrategy;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.StripedSnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.WaitStrategy;
+import cn.t0mpi9.snowflake.time.SystemTimeSource;
+import cn.t0mpi9.snowflake.time.TimeSource;
+import cn.t0mpi9.snowflake.time.TimeSourceType;
+
+import java.util.Objects;
+
+/**
+ * 各ConfigBuilder公共的SnowflakeIdGenerate生成配置
+ * <br/>
+ * Created on 2020/7/6 10:35.
+ *
+ * @author zhubenle
+ */
+public abstract class AbstractGenerateBuilder<T extends AbstractGenerateBuilder> implements ConfigBuilder {
+
+    /**
+     * ID生成方式, 默认synchronized
+     */
+    protected GenerateMode generateMode = GenerateMode.SYNCHRONIZED;
+    /**
+     * 时钟, 默认System.currentTimeMillis()
+     */
+    protected TimeSource timeSource = SystemTimeSource.INSTANCE;
+    /**
+     * sequence用完时最多允许逻辑时间戳超前系统时间的毫秒数, 默认0不借用
+     */
+    protected long maxBorrowMillis;
+    /**
+     * RING_BUFFER方式时RingBuffer大小, 必须是2的幂
+     */
+    protected int ringBufferSize = RingBufferSnowflakeIdGenerate.DEFAULT_BUFFER_SIZE;
+    /**
+     * RING_BUFFER方式时补充水位, 剩余ID数低于ringBufferSize的百分比
+     */
+    protected int ringBufferPaddingFactor = RingBufferSnowflakeIdGenerate.DEFAULT_PADDING_FACTOR;
+    /**
+     * RING_BUFFER方式时补充策略
+     */
+    protected RefillPolicy ringBufferRefillPolicy = RefillPolicy.THRESHOLD;
+    /**
+     * RING_BUFFER方式且补充策略为SCHEDULED时的补充周期, 毫秒
+     */
+    protected long ringBufferRefillPeriodMillis = RingBufferSnowflakeIdGenerate.DEFAULT_REFILL_PERIOD_MILLIS;
+    /**
+     * STRIPED方式时sequence中用作段号的高位数, 段数为2^stripeBits
+     */
+    protected int stripeBits = StripedSnowflakeIdGenerate.DEFAULT_STRIPE_BITS;
+    /**
+     * ID的位布局, 决定epoch、时间单位和各段位数, ZooKeeper和Redis分配的顺序号也按它拆分成workerId和dataCenterId
+     */
+    protected BitLayout bitLayout = BitLayout.DEFAULT;
+    /**
+     * 时钟后移超过maxBorrowMillis时的处理策略, 默认WAIT
+     */
+    protected RollbackStrategy rollbackStrategy = RollbackStrategy.WAIT;
+    /**
+     * BACKUP_WORKER策略的备用workerId, 小于0时zookeeper和redis会额外分配一个
+     */
+    protected long backupWorkerId = -1L;
+    /**
+     * BACKUP_WORKER策略的备用dataCenterId, 小于0表示和主dataCenterId相同
+     */
+    protected long backupDataCenterId = -1L;
+    /**
+     * 时钟后移监听器
+     */
+    protected ClockRollbackListener clockRollbackListener;
+    /**
+     * 等待下一个时间单位的方式, 默认BUSY_SPIN
+     */
+    protected WaitStrategy waitStrategy = WaitStrategy.BUSY_SPIN;
+    /**
+     * zookeeper或redis分配的workerId租约过期后的处理策略, 默认DEGRADED
+     */
+    protected LeaseExpiryPolicy leaseExpiryPolicy = LeaseExpiryPolicy.DEGRADED;
+    /**
+     * FALLBACK_WORKER策略的备用workerId, 需要每个实例单独预留
+     */
+    protected long fallbackWorkerId = -1L;
+    /**
+     * FALLBACK_WORKER策略的备用dataCenterId, 小于0表示和主dataCenterId相同
+     */
+    protected long fallbackDataCenterId = -1L;
+
+    public T generateMode(GenerateMode generateMode) {
+        this.generateMode = Objects.requireNonNull(generateMode);
+        return (T) this;
+    }
+
+    public T timeSource(TimeSource timeSource) {
+        this.timeSource = Objects.requireNonNull(timeSource);
+        return (T) this;
+    }
+
+    public T timeSource(TimeSourceType timeSourceType) {
+        return timeSource(timeSourceType.timeSource());
+    }
+
+    public T maxBorrowMillis(long maxBorrowMillis) {
+        if (maxBorrowMillis < 0) {
+            throw new IllegalArgumentException("maxBorrowMillis不能小于0");
+        }
+        this.maxBorrowMillis = maxBorrowMillis;
+        return (T) this;
+    }
+
+    public T ringBufferSize(int ringBufferSize) {
+        this.ringBufferSize = ringBufferSize;
+        return (T) this;
+    }
+
+    public T ringBufferPaddingFactor(int ringBufferPaddingFactor) {
+        this.ringBufferPaddingFactor = ringBufferPaddingFactor;
+        return (T) this;
+    }
+
+    public T ringBufferRefillPolicy(RefillPolicy ringBufferRefillPolicy) {
+        this.ringBufferRefillPolicy = Objects.requireNonNull(ringBufferRefillPolicy);
+        return (T) this;
+    }
+
+    public T ringBufferRefillPeriodMillis(long ringBufferRefillPeriodMillis) {
+        this.ringBufferRefillPeriodMillis = ringBufferRefillPeriodMillis;
+        return (T) this;
+    }
+
+    public T stripeBits(int stripeBits) {
+        this.stripeBits = stripeBits;
+        return (T) this;
+    }
+
+    public T bitLayout(BitLayout bitLayout) {
+        this.bitLayout = Objects.requireNonNull(bitLayout);
+        return (T) this;
+    }
+
+    public T rollbackStrategy(RollbackStrategy rollbackStrategy) {
+        this.rollbackStrategy = Objects.requireNonNull(rollbackStrategy);
+        return (T) this;
+    }
+
+    public T backupWorkerId(long backupWorkerId) {
+        this.backupWorkerId = backupWorkerId;
+        return (T) this;
+    }
+
+    public T backupDataCenterId(long backupDataCenterId) {
+        this.backupDataCenterId = backupDataCenterId;
+        return (T) this;
+    }
+
+    public T clockRollbackListener(ClockRollbackListener clockRollbackListener) {
+        this.clockRollbackListener = clockRollbackListener;
+        return (T) this;
+    }
+
+    public T waitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+        return (T) this;
+    }
+
+    public T leaseExpiryPolicy(LeaseExpiryPolicy leaseExpiryPolicy) {
+        this.leaseExpiryPolicy = Objects.requireNonNull(leaseExpiryPolicy);
+        return (T) this;
+    }
+
+    public T fallbackWorkerId(long fallbackWorkerId) {
+        this.fallbackWorkerId = fallbackWorkerId;
+        return (T) this;
+    }
+
+    public T fallbackDataCenterId(long fallbackDataCenterId) {
+        this.fallbackDataCenterId = fallbackDataCenterId;
+        return (T) this;
+    }
+
+    /**
+     * @return BACKUP_WORKER策略且没有指定备用workerId, 需要zookeeper或redis额外分配
+     */
+    protected boolean needLeaseBackup() {
+        return RollbackStrategy.BACKUP_WORKER.equals(rollbackStrategy) && backupWorkerId < 0;
+    }
+
+    /**
+     * 根据配置的生成方式创建SnowflakeIdGenerate
+     *
+     * @param workerId     workerId
+     * @param dataCenterId dataCenterId
+     * @return SnowflakeIdGenerate
+     */
+    protected SnowflakeIdGenerate newSnowflakeIdGenerate(long workerId, long dataCenterId) {
+        return newSnowflakeIdGenerate(workerId, dataCenterId, 0L);
+    }
+
+    /**
+     * 根据配置的生成方式创建SnowflakeIdGenerate
+     *
+     * @param workerId         workerId
+     * @param dataCenterId     dataCenterId
+     * @param initialTimestamp 逻辑时间戳起点, 生成的ID时间戳都大于该值, 小于等于0表示不限制
+     * @return SnowflakeIdGenerate
+     */
+    protected SnowflakeIdGenerate newSnowflakeIdGenerate(long workerId, long dataCenterId, long initialTimestamp) {
+        GenerateConfig config = new GenerateConfig()
+                .timeSource(timeSource)
+                .maxBorrowMillis(maxBorrowMillis)
+                .initialTimestamp(initialTimestamp)
+                .bitLayout(bitLayout)
+                .rollbackStrategy(rollbackStrategy)
+                .backupWorkerId(backupWorkerId)
+                .backupDataCenterId(backupDataCenterId)
+                .clockRollbackListener(clockRollbackListener)
+                .waitStrategy(waitStrategy)
+                .leaseExpiryPolicy(leaseExpiryPolicy)
+                .fallbackWorkerId(fallbackWorkerId)
+                .fallbackDataCenterId(fallbackDataCenterId);
+        switch (generateMode) {
+            case LOCK_FREE:
+                return new LockFreeSnowflakeIdGenerate(workerId, dataCenterId, config);
+            case RING_BUFFER:
+                return new RingBufferSnowflakeIdGenerate(workerId, dataCenterId, config, ringBufferSize,
+                        ringBufferPaddingFactor, ringBufferRefillPolicy, ringBufferRefillPeriodMillis);
+            case STRIPED:
+                return new StripedSnowflakeIdGenerate(workerId, dataCenterId, config, stripeBits);
+            case SYNCHRONIZED:
+            default:
+                return new SnowflakeIdGenerate(workerId, dataCenterId, config);
+        }
+    }
+}
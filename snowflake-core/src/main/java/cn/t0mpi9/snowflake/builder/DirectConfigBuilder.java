@@ -10,7 +10,7 @@ import java.io.IOException;
  *
  * @author zhubenle
  */
-public class DirectConfigBuilder implements ConfigBuilder {
+public class DirectConfigBuilder extends AbstractGenerateBuilder<DirectConfigBuilder> {
 
     private long workerId;
     private long dataCenterId;
@@ -30,7 +30,7 @@ public class DirectConfigBuilder implements ConfigBuilder {
 
     @Override
     public SnowflakeIdGenerate build() {
-        return new SnowflakeIdGenerate(workerId, dataCenterId);
+        return newSnowflakeIdGenerate(workerId, dataCenterId);
     }
 
     @Override
@@ -1,6 +1,5 @@
 package cn.t0mpi9.snowflake.builder;
 
-import cn.t0mpi9.snowflake.Constant;
 import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
 
 import java.io.IOException;
@@ -12,7 +11,7 @@ import java.util.Objects;
  *
  * @author zhubenle
  */
-public class DirectIpConfigBuilder implements ConfigBuilder {
+public class DirectIpConfigBuilder extends AbstractGenerateBuilder<DirectIpConfigBuilder> {
 
     private String currentServerIp;
 
@@ -28,9 +27,13 @@ public class DirectIpConfigBuilder implements ConfigBuilder {
     public SnowflakeIdGenerate build() {
         Objects.requireNonNull(currentServerIp);
         long sqe = Long.parseLong(currentServerIp.substring(currentServerIp.lastIndexOf(".") + 1));
-        long workerId = sqe & Constant.BIT;
-        long dataCenterId = sqe >> 5 & Constant.BIT;
-        return new SnowflakeIdGenerate(workerId, dataCenterId);
+        if (sqe >= bitLayout.getWorkerSpace()) {
+            throw new IllegalArgumentException(String.format("ip最后一段%d超出workerId和dataCenterId的空间[0, %d)",
+                    sqe, bitLayout.getWorkerSpace()));
+        }
+        long workerId = bitLayout.workerIdOf(sqe);
+        long dataCenterId = bitLayout.dataCenterIdOf(sqe);
+        return newSnowflakeIdGenerate(workerId, dataCenterId);
     }
 
     @Override
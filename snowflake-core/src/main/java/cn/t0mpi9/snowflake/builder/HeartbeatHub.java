@@ -0,0 +1,198 @@
+package cn.t0mpi9.snowflake.builder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程内共用的心跳中心, 一个线程、一个shutdown hook
+ * <br/>
+ * 同一个zookeeper或redis、同一个上报周期的租约归为一组, 每组每个周期只调用一次{@link Batch#beat(Group, List)},
+ * 由它把组内所有租约的上报合并成一次远程调用: redis是一次批量脚本, zookeeper是一次multi事务。
+ * 心跳线程只负责调度, 同步的远程调用(jedis、curator)交给另外的线程池执行, 一个组的远程服务变慢时不影响其他组的上报和本地任务。
+ * 没有指定定时任务执行器的builder也共用这个线程执行本地状态文件的写入和号段加载, 关闭builder时只取消自己的任务
+ * <br/>
+ * Created on 2020/8/5 10:00.
+ *
+ * @author zhubenle
+ */
+final class HeartbeatHub {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeartbeatHub.class);
+
+    private static volatile HeartbeatHub shared;
+
+    private final ScheduledExecutorService executor;
+    /**
+     * 执行同步的远程调用, 各组同时只有一次上报在执行, 线程数不超过组数
+     */
+    private final ExecutorService blockingExecutor;
+    private final Map<Object, Group<?>> groups = new ConcurrentHashMap<>();
+
+    private HeartbeatHub() {
+        ScheduledThreadPoolExecutor scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "snowflake-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //取消的任务立即移除, 反复创建关闭builder时队列不会堆积
+        scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
+        this.executor = scheduledThreadPoolExecutor;
+        AtomicInteger blockingThreads = new AtomicInteger();
+        this.blockingExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "snowflake-heartbeat-io-" + blockingThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            executor.shutdownNow();
+            blockingExecutor.shutdownNow();
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("关闭snowflake心跳线程");
+            }
+        }));
+    }
+
+    /**
+     * @return 进程内共用的实例, 第一次调用时创建
+     */
+    static HeartbeatHub shared() {
+        HeartbeatHub hub = shared;
+        if (hub == null) {
+            synchronized (HeartbeatHub.class) {
+                hub = shared;
+                if (hub == null) {
+                    shared = hub = new HeartbeatHub();
+                }
+            }
+        }
+        return hub;
+    }
+
+    ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * 加入key对应的组, 组不存在时用batch创建并按周期开始上报, 加入后下一个周期生效
+     *
+     * @param key          分组, 同一个远程服务、同一个上报周期的key相等
+     * @param periodMillis 上报周期
+     * @param batch        组不存在时使用的批量上报, 组已存在时忽略
+     * @param member       租约
+     * @param <M>          租约类型, 同一个key的必须相同
+     * @return 退出组, 最后一个成员退出时停止该组的上报
+     */
+    @SuppressWarnings("unchecked")
+    <M> Closeable register(Object key, long periodMillis, Batch<M> batch, M member) {
+        for (; ; ) {
+            Group<M> group = (Group<M>) groups.computeIfAbsent(key, k -> new Group<>(k, batch));
+            synchronized (group) {
+                if (group.removed) {
+                    //最后一个成员刚退出, 重新创建
+                    continue;
+                }
+                group.members.add(member);
+                if (group.task == null) {
+                    group.task = executor.scheduleAtFixedRate(group::beat, 0, periodMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("心跳组{}加入成员, 当前{}个", key, group.members.size());
+            }
+            return () -> group.remove(member);
+        }
+    }
+
+    /**
+     * 批量上报, 只在心跳线程中调用, 不能阻塞; 同步的远程调用在{@link Group#getBlockingExecutor()}中执行
+     *
+     * @param <M> 租约类型
+     */
+    interface Batch<M> {
+        /**
+         * 把组内租约的上报合并成一次远程调用, 结果分别同步给各租约的生成器
+         *
+         * @param group   所在的组, 用于提前上报
+         * @param members 当前成员, 不为空, 第一个成员的连接作为本次调用的连接
+         */
+        void beat(Group<M> group, List<M> members);
+    }
+
+    final class Group<M> {
+        private final Object key;
+        private final Batch<M> batch;
+        private final List<M> members = new CopyOnWriteArrayList<>();
+        private ScheduledFuture<?> task;
+        private boolean removed;
+
+        private Group(Object key, Batch<M> batch) {
+            this.key = key;
+            this.batch = batch;
+        }
+
+        private void beat() {
+            List<M> snapshot = new ArrayList<>(members);
+            if (snapshot.isEmpty()) {
+                return;
+            }
+            try {
+                batch.beat(this, snapshot);
+            } catch (RuntimeException e) {
+                LOGGER.error("心跳组{}上报异常: {}", key, e.getMessage());
+            }
+        }
+
+        /**
+         * 在周期之外多上报一次
+         *
+         * @param delayMillis 延迟
+         */
+        void beatAfter(long delayMillis) {
+            try {
+                executor.schedule(this::beat, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ignored) {
+                //进程退出中
+            }
+        }
+
+        ScheduledExecutorService getExecutor() {
+            return executor;
+        }
+
+        /**
+         * @return 执行同步远程调用的线程池
+         */
+        ExecutorService getBlockingExecutor() {
+            return blockingExecutor;
+        }
+
+        private synchronized void remove(M member) {
+            if (!members.remove(member) || !members.isEmpty()) {
+                return;
+            }
+            removed = true;
+            groups.remove(key, this);
+            if (task != null) {
+                task.cancel(false);
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("心跳组{}没有成员, 停止上报", key);
+            }
+        }
+    }
+}
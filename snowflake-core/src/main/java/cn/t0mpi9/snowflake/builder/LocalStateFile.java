@@ -0,0 +1,216 @@
+package cn.t0mpi9.snowflake.builder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * 本地缓存workerId分配和逻辑时间戳高水位的二进制文件, 内存映射后读写
+ * <br/>
+ * 文件是两个64字节的记录槽, 每次写入都写到当前有效记录之外的另一个槽, generation加1, 最后写CRC32校验。
+ * 读取时取校验通过且generation最大的记录, 写到一半崩溃只会损坏正在写的槽, 另一个槽仍然是上一次完整的记录。
+ * 高水位和租约到期时间由定时任务写入映射内存, 不是每生成一个ID都写, 也不调用系统调用, 进程崩溃后由操作系统写回磁盘;
+ * 只有workerId分配变化时才force刷盘
+ * <br/>
+ * 记录格式: magic(4) | version(4) | generation(8) | dataCenterId(4) | workerId(4) | backupDataCenterId(4) |
+ * backupWorkerId(4) | highWater(8) | leaseExpireAt(8) | 保留(8) | crc32(8)。version不一致的记录按无效处理
+ * <br/>
+ * Created on 2020/8/3 9:30.
+ *
+ * @author zhubenle
+ */
+final class LocalStateFile implements Closeable {
+
+    private static final int MAGIC = 0x534E4F57;
+    private static final int VERSION = 2;
+    private static final int RECORD_SIZE = 64;
+    private static final int CRC_OFFSET = RECORD_SIZE - 8;
+    private static final int FILE_SIZE = RECORD_SIZE << 1;
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    /**
+     * 当前有效记录, 没有时为null
+     */
+    private State state;
+    private long generation;
+    private int slot;
+
+    private LocalStateFile(File file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer) {
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.buffer = buffer;
+        load();
+    }
+
+    /**
+     * 打开或创建状态文件
+     *
+     * @param file 文件
+     * @return 状态文件
+     * @throws IOException 创建或映射失败
+     */
+    static LocalStateFile open(File file) throws IOException {
+        File parentFile = file.getParentFile();
+        if (parentFile != null && !parentFile.exists() && !parentFile.mkdirs() && !parentFile.exists()) {
+            throw new IOException("目录创建失败: " + parentFile.getAbsolutePath());
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            return new LocalStateFile(file, randomAccessFile, buffer);
+        } catch (IOException | RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private void load() {
+        for (int i = 0; i < 2; i++) {
+            int offset = i * RECORD_SIZE;
+            if (buffer.getInt(offset) != MAGIC || buffer.getInt(offset + 4) != VERSION
+                    || buffer.getLong(offset + CRC_OFFSET) != crc(offset)) {
+                continue;
+            }
+            long g = buffer.getLong(offset + 8);
+            if (state == null || g > generation) {
+                generation = g;
+                slot = i;
+                state = readRecord(offset);
+            }
+        }
+    }
+
+    private State readRecord(int offset) {
+        return new State(buffer.getInt(offset + 16), buffer.getInt(offset + 20), buffer.getInt(offset + 24),
+                buffer.getInt(offset + 28), buffer.getLong(offset + 32), buffer.getLong(offset + 40));
+    }
+
+    /**
+     * @return 校验通过的最新记录, 没有时为null
+     */
+    synchronized State read() {
+        return state;
+    }
+
+    /**
+     * 写入新的workerId分配并刷盘, 高水位保留原来的值, 租约到期时间清零, 由之后的上报写入
+     *
+     * @param dataCenterId       dataCenterId
+     * @param workerId           workerId
+     * @param backupDataCenterId 备用dataCenterId, 没有时-1
+     * @param backupWorkerId     备用workerId, 没有时-1
+     */
+    synchronized void writeAssignment(long dataCenterId, long workerId, long backupDataCenterId, long backupWorkerId) {
+        write(new State(dataCenterId, workerId, backupDataCenterId, backupWorkerId, state == null ? 0L : state.highWater, 0L));
+        buffer.force();
+    }
+
+    /**
+     * 高水位只增不减, 租约到期时间按传入的值覆盖, 都没有变化或还没有workerId分配时不写
+     *
+     * @param highWater     逻辑时间戳, 毫秒
+     * @param leaseExpireAt 当前workerId在其他实例可以回收之前的到期时间, 毫秒, 没有时0
+     */
+    synchronized void update(long highWater, long leaseExpireAt) {
+        if (state == null || (highWater <= state.highWater && leaseExpireAt == state.leaseExpireAt)) {
+            return;
+        }
+        write(new State(state.dataCenterId, state.workerId, state.backupDataCenterId, state.backupWorkerId,
+                Math.max(highWater, state.highWater), leaseExpireAt));
+    }
+
+    private void write(State next) {
+        int offset = (state == null ? 0 : slot ^ 1) * RECORD_SIZE;
+        //先破坏magic, 写到一半时该槽一定校验不通过
+        buffer.putInt(offset, 0);
+        buffer.putInt(offset + 4, VERSION);
+        buffer.putLong(offset + 8, generation + 1);
+        buffer.putInt(offset + 16, (int) next.dataCenterId);
+        buffer.putInt(offset + 20, (int) next.workerId);
+        buffer.putInt(offset + 24, (int) next.backupDataCenterId);
+        buffer.putInt(offset + 28, (int) next.backupWorkerId);
+        buffer.putLong(offset + 32, next.highWater);
+        buffer.putLong(offset + 40, next.leaseExpireAt);
+        buffer.putLong(offset + 48, 0L);
+        buffer.putInt(offset, MAGIC);
+        buffer.putLong(offset + CRC_OFFSET, crc(offset));
+        generation++;
+        slot = offset / RECORD_SIZE;
+        state = next;
+    }
+
+    private long crc(int offset) {
+        //按父类型调用, JDK9+编译时不绑定到Java8没有的协变返回方法
+        ByteBuffer record = ((ByteBuffer) buffer).duplicate();
+        ((Buffer) record).position(offset).limit(offset + CRC_OFFSET);
+        CRC32 crc32 = new CRC32();
+        crc32.update(record);
+        return crc32.getValue();
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    static final class State {
+        private final long dataCenterId;
+        private final long workerId;
+        private final long backupDataCenterId;
+        private final long backupWorkerId;
+        private final long highWater;
+        private final long leaseExpireAt;
+
+        State(long dataCenterId, long workerId, long backupDataCenterId, long backupWorkerId, long highWater,
+              long leaseExpireAt) {
+            this.dataCenterId = dataCenterId;
+            this.workerId = workerId;
+            this.backupDataCenterId = backupDataCenterId;
+            this.backupWorkerId = backupWorkerId;
+            this.highWater = highWater;
+            this.leaseExpireAt = leaseExpireAt;
+        }
+
+        long getDataCenterId() {
+            return dataCenterId;
+        }
+
+        long getWorkerId() {
+            return workerId;
+        }
+
+        long getBackupDataCenterId() {
+            return backupDataCenterId;
+        }
+
+        long getBackupWorkerId() {
+            return backupWorkerId;
+        }
+
+        /**
+         * @return 已生成ID的逻辑时间戳高水位, 毫秒, 没有记录时0
+         */
+        long getHighWater() {
+            return highWater;
+        }
+
+        /**
+         * @return 缓存的workerId在其他实例可以回收之前的到期时间, 毫秒, 没有记录时0
+         */
+        long getLeaseExpireAt() {
+            return leaseExpireAt;
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package cn.t0mpi9.snowflake.builder;
 
 import cn.t0mpi9.snowflake.Constant;
+import cn.t0mpi9.snowflake.SegmentAllocator;
 import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <br/>
@@ -19,8 +28,19 @@ public class RedisConfigBuilder extends AbstractConfigBuilder<RedisConfigBuilder
     private static final Logger LOGGER = LoggerFactory.getLogger(RedisConfigBuilder.class);
 
     private static final String PERSISTENT_TIME_NAME = Constant.PERSISTENT_NAME + "-time";
+    private static final RedisScript REGISTER_SCRIPT = new RedisScript(Constant.REDIS_REGISTER_SCRIPT);
+    private static final RedisScript BATCH_HEARTBEAT_SCRIPT = new RedisScript(Constant.REDIS_BATCH_HEARTBEAT_SCRIPT);
+    public static final long DEFAULT_HEARTBEAT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(3);
 
     private RedisConn connection;
+    /**
+     * 单次续租的超时时间
+     */
+    private long heartbeatTimeoutMillis = DEFAULT_HEARTBEAT_TIMEOUT_MILLIS;
+    /**
+     * 续租慢到租约可能在下一个周期前到期时是否提前续租
+     */
+    private boolean adaptiveHeartbeat;
 
     RedisConfigBuilder() {
     }
@@ -29,6 +49,19 @@ public class RedisConfigBuilder extends AbstractConfigBuilder<RedisConfigBuilder
         this.connection = connection;
     }
 
+    public RedisConfigBuilder heartbeatTimeoutMillis(long heartbeatTimeoutMillis) {
+        if (heartbeatTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("heartbeatTimeoutMillis必须大于0");
+        }
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        return this;
+    }
+
+    public RedisConfigBuilder adaptiveHeartbeat(boolean adaptiveHeartbeat) {
+        this.adaptiveHeartbeat = adaptiveHeartbeat;
+        return this;
+    }
+
     @Override
     public void close() throws IOException {
         super.close();
@@ -44,8 +77,25 @@ public class RedisConfigBuilder extends AbstractConfigBuilder<RedisConfigBuilder
         return Constant.ROOT_NAME + Constant.COLON + applicationName + Constant.COLON + Constant.PERSISTENT_NAME;
     }
 
-    private String getEphemeralKey() {
-        return Constant.ROOT_NAME + Constant.COLON + applicationName + Constant.COLON + Constant.EPHEMERAL_NAME;
+    private String getFreeKey() {
+        return Constant.ROOT_NAME + Constant.COLON + applicationName + Constant.COLON + Constant.FREE_NAME;
+    }
+
+    private String getLeaseKey() {
+        return Constant.ROOT_NAME + Constant.COLON + applicationName + Constant.COLON + Constant.LEASE_NAME;
+    }
+
+    private String getSegmentKey(String name) {
+        return Constant.ROOT_NAME + Constant.COLON + applicationName + Constant.COLON + Constant.SEGMENT_NAME
+                + Constant.COLON + name;
+    }
+
+    /**
+     * INCRBY号段的key, 返回值就是领取后的最大值
+     */
+    @Override
+    protected SegmentAllocator segmentAllocator() {
+        return (name, step) -> connection.incrBy(getSegmentKey(name), step);
     }
 
     @Override
@@ -53,23 +103,41 @@ public class RedisConfigBuilder extends AbstractConfigBuilder<RedisConfigBuilder
         String ipPort = ip + Constant.COLON + port;
         long workerId;
         long dataCenterId;
+        long initialTimestamp = 0L;
+        long registerAt = timeSource.currentTimeMillis();
+        String[] sequentials;
 
         try {
-            String persistentTimeKey = getPersistentTimeKey();
-            String persistentKey = getPersistentKey();
-            String time = connection.hget(persistentTimeKey, ipPort);
-            if (time != null && System.currentTimeMillis() < Long.parseLong(time)) {
-                throw new IllegalStateException("检查当前系统时间是否比上一次上传到redis时间小, 请确认系统时间");
+            String[] keys = needLeaseBackup()
+                    ? new String[]{getPersistentKey(), getPersistentTimeKey(), getFreeKey(), getLeaseKey(), ipPort,
+                    ipPort + Constant.BACKUP_SUFFIX}
+                    : new String[]{getPersistentKey(), getPersistentTimeKey(), getFreeKey(), getLeaseKey(), ipPort};
+            //时钟检查、过期顺序号的回收和分配都在脚本中完成, 借用毫秒时上传的逻辑时间戳最多超前maxBorrowMillis,
+            //上次上报之后可能还借用过毫秒, 从最多可能借用到的时间之后开始
+            String[] result = connection.eval(REGISTER_SCRIPT, keys,
+                    String.valueOf(registerAt), String.valueOf(maxBorrowMillis),
+                    String.valueOf(getLeaseMillis()), String.valueOf(reclaimMarginMillis),
+                    String.valueOf(bitLayout.getWorkerSpace())).split(Constant.COLON);
+            long sequential = Long.parseLong(result[0]);
+            if (sequential == -1L) {
+                throw new IllegalStateException(String.format("检查当前系统时间是否比上一次上传到redis时间%s小, 请确认系统时间", result[1]));
+            }
+            if (sequential == -2L) {
+                throw new IllegalStateException(String.format("顺序号空间[0, %s)已用完, 没有可回收的顺序号", result[1]));
+            }
+            initialTimestamp = Long.parseLong(result[1]);
+            sequentials = result.length > 2 ? new String[]{result[0], result[2]} : new String[]{result[0]};
+            bitLayout.checkSequential(sequential);
+            workerId = bitLayout.workerIdOf(sequential);
+            dataCenterId = bitLayout.dataCenterIdOf(sequential);
+            if (result.length > 2) {
+                long backupSequential = Long.parseLong(result[2]);
+                bitLayout.checkSequential(backupSequential);
+                backupWorkerId = bitLayout.workerIdOf(backupSequential);
+                backupDataCenterId = bitLayout.dataCenterIdOf(backupSequential);
             }
-            String sequentialStr = connection.eval(Constant.REDIS_ADD_PERSISTENT_SCRIPT,
-                    new String[]{persistentKey, persistentTimeKey, ipPort}, String.valueOf(System.currentTimeMillis()));
-            long sequential = Integer.parseInt(sequentialStr);
-            workerId = sequential & Constant.BIT;
-            dataCenterId = sequential >> 5 & Constant.BIT;
 
             saveLocalFile(workerId, dataCenterId);
-
-            scheduledUpdateEphemeral(ipPort);
         } catch (IllegalStateException e) {
             throw new RuntimeException(e);
         } catch (Exception e) {
@@ -79,24 +147,169 @@ public class RedisConfigBuilder extends AbstractConfigBuilder<RedisConfigBuilder
             }
             throw new RuntimeException("创建SnowflakeIdGenerate, redis加载dataCenterId和workerId失败", e);
         }
-        return new SnowflakeIdGenerate(workerId, dataCenterId);
+        SnowflakeIdGenerate snowflakeIdGenerate = newSnowflakeIdGenerate(workerId, dataCenterId,
+                Math.max(initialTimestamp, localInitialTimestamp()));
+        snowflakeIdGenerate.renewLease(registerAt + getLeaseMillis());
+        cacheLease(registerAt + getLeaseMillis());
+        scheduledRenewLease(ipPort, sequentials, snowflakeIdGenerate);
+        return snowflakeIdGenerate;
+    }
+
+    /**
+     * 加入进程内的心跳组, 连接同一个redis、上报配置相同的实例每个周期合并成一次批量脚本续租
+     */
+    private void scheduledRenewLease(String ipPort, String[] sequentials, SnowflakeIdGenerate snowflakeIdGenerate) {
+        String[] keys = sequentials.length > 1
+                ? new String[]{getPersistentKey(), getPersistentTimeKey(), getLeaseKey(), ipPort, ipPort + Constant.BACKUP_SUFFIX}
+                : new String[]{getPersistentKey(), getPersistentTimeKey(), getLeaseKey(), ipPort};
+        joinHeartbeat(Arrays.asList(connection.getEndpoint(), heartbeatTimeoutMillis, adaptiveHeartbeat),
+                new LeaseRenewal(heartbeatTimeoutMillis, adaptiveHeartbeat, scheduleTimeUnit.toMillis(schedulePeriod),
+                        timeSource.currentTimeMillis() + getLeaseMillis()),
+                new RedisLease(ipPort, keys, sequentials, snowflakeIdGenerate));
+    }
+
+    /**
+     * 一个实例在心跳组中的租约, 续租结果同步给它的生成器
+     */
+    private final class RedisLease {
+        private final String ipPort;
+        private final String[] keys;
+        private final String[] sequentials;
+        private final SnowflakeIdGenerate snowflakeIdGenerate;
+
+        RedisLease(String ipPort, String[] keys, String[] sequentials, SnowflakeIdGenerate snowflakeIdGenerate) {
+            this.ipPort = ipPort;
+            this.keys = keys;
+            this.sequentials = sequentials;
+            this.snowflakeIdGenerate = snowflakeIdGenerate;
+        }
+
+        private RedisConn connection() {
+            return connection;
+        }
+
+        private long currentTimeMillis() {
+            return timeSource.currentTimeMillis();
+        }
+
+        private long leaseMillis() {
+            return getLeaseMillis();
+        }
+
+        private void onRenewed(long expireAt, String value) {
+            snowflakeIdGenerate.renewLease(expireAt);
+            cacheLease(expireAt);
+            snowflakeIdGenerate.getMetrics().recordHeartbeat(true);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("定时更新redis的{}的key={}的值为{}", getPersistentTimeKey(), ipPort, value);
+            }
+        }
+
+        private void onRevoked() {
+            snowflakeIdGenerate.getMetrics().recordHeartbeat(false);
+            snowflakeIdGenerate.revokeLease();
+            cacheLease(0L);
+            LOGGER.error("redis中{}的顺序号{}已过期被回收, 无法续租", ipPort, sequentials[0]);
+        }
+
+        private void onFailed(Throwable e) {
+            snowflakeIdGenerate.getMetrics().recordHeartbeat(false);
+            LOGGER.error("更新redis的{}的key={}异常: {}", getPersistentTimeKey(), ipPort, e.getMessage());
+        }
     }
 
-    private void scheduledUpdateEphemeral(String ipPort) {
-        scheduledExecutorService.scheduleAtFixedRate(() -> {
-            String persistentTimeKey = getPersistentTimeKey();
+    /**
+     * 异步批量续租, 组内所有实例用第一个实例的连接一次{@link Constant#REDIS_BATCH_HEARTBEAT_SCRIPT}完成,
+     * 心跳线程只发出命令(jedis在心跳组的同步调用线程池中执行), 结果在回调中分给各实例。上一次还没完成时跳过本次, redis变慢时心跳不会堆积;
+     * 超过heartbeatTimeoutMillis没有返回按失败处理
+     * <br/>
+     * 开启adaptiveHeartbeat时, 如果按周期下一次续租时租约剩下的时间不够两次续租的耗时, 提前在剩余时间过半时续租
+     */
+    private static final class LeaseRenewal implements HeartbeatHub.Batch<RedisLease> {
+        private final long heartbeatTimeoutMillis;
+        private final boolean adaptiveHeartbeat;
+        private final long periodMillis;
+        private final AtomicBoolean inFlight = new AtomicBoolean();
+        /**
+         * 最近一次续租成功后的租约到期时间
+         */
+        private volatile long leaseExpireAt;
+
+        LeaseRenewal(long heartbeatTimeoutMillis, boolean adaptiveHeartbeat, long periodMillis, long leaseExpireAt) {
+            this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+            this.adaptiveHeartbeat = adaptiveHeartbeat;
+            this.periodMillis = periodMillis;
+            this.leaseExpireAt = leaseExpireAt;
+        }
+
+        @Override
+        public void beat(HeartbeatHub.Group<RedisLease> group, List<RedisLease> members) {
+            if (!inFlight.compareAndSet(false, true)) {
+                LOGGER.warn("redis中{}等{}个实例上一次续租还没完成, 跳过本次", members.get(0).ipPort, members.size());
+                return;
+            }
+            RedisLease carrier = members.get(0);
+            long start = carrier.currentTimeMillis();
+            long expireAt = start + carrier.leaseMillis();
+            List<String> keys = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            String[] timestamps = new String[members.size()];
+            values.add(String.valueOf(members.size()));
+            for (int i = 0; i < members.size(); i++) {
+                RedisLease lease = members.get(i);
+                timestamps[i] = String.valueOf(lease.snowflakeIdGenerate.getLogicalTimestamp());
+                Collections.addAll(keys, lease.keys);
+                values.add(String.valueOf(lease.keys.length));
+                values.add(timestamps[i]);
+                values.add(String.valueOf(expireAt));
+                Collections.addAll(values, lease.sequentials);
+            }
+            CompletableFuture<String> future;
             try {
-                String ephemeralKey = getEphemeralKey() + Constant.COLON + ipPort;
-                long expire = scheduleTimeUnit.convert(schedulePeriod, TimeUnit.SECONDS) + 10;
-                String value = String.valueOf(System.currentTimeMillis());
-                connection.eval(Constant.REDIS_UPDATE_EPHEMERAL_SCRIPT, new String[]{ephemeralKey, persistentTimeKey, ipPort},
-                        value, String.valueOf(expire));
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("定时更新redis的{}的key={}的值为{}", persistentTimeKey, ipPort, value);
+                future = carrier.connection().evalAsync(BATCH_HEARTBEAT_SCRIPT, group.getBlockingExecutor(),
+                        keys.toArray(new String[0]), values.toArray(new String[0]));
+                ScheduledFuture<?> timeout = group.getExecutor().schedule(() -> future.completeExceptionally(
+                        new TimeoutException("续租超过" + heartbeatTimeoutMillis + "ms没有返回")),
+                        heartbeatTimeoutMillis, TimeUnit.MILLISECONDS);
+                future.whenComplete((result, e) -> timeout.cancel(false));
+            } catch (RuntimeException e) {
+                inFlight.set(false);
+                members.forEach(lease -> lease.onFailed(e));
+                return;
+            }
+            future.whenComplete((result, e) -> {
+                inFlight.set(false);
+                String[] results = e == null ? result.split(Constant.COLON) : new String[0];
+                for (int i = 0; i < members.size(); i++) {
+                    RedisLease lease = members.get(i);
+                    if (e != null) {
+                        lease.onFailed(e);
+                    } else if (i < results.length && "1".equals(results[i])) {
+                        lease.onRenewed(expireAt, timestamps[i]);
+                    } else {
+                        lease.onRevoked();
+                    }
+                }
+                if (e == null) {
+                    leaseExpireAt = expireAt;
                 }
-            } catch (Exception e) {
-                LOGGER.error("更新redis的{}的key={}异常: {}", persistentTimeKey, ipPort, e.getMessage());
+                if (adaptiveHeartbeat) {
+                    renewEarlyIfNeeded(group, carrier, carrier.currentTimeMillis(), start);
+                }
+            });
+        }
+
+        private void renewEarlyIfNeeded(HeartbeatHub.Group<RedisLease> group, RedisLease carrier, long now, long start) {
+            long remaining = leaseExpireAt - now;
+            if (remaining - periodMillis >= (now - start) << 1) {
+                return;
             }
-        }, 0, schedulePeriod, scheduleTimeUnit);
+            //至少间隔四分之一个周期, redis不可用时不会频繁重试
+            long delay = Math.min(periodMillis, Math.max(periodMillis >> 2, remaining >> 1));
+            group.beatAfter(delay);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("redis中{}的租约剩余{}ms, {}ms后提前续租", carrier.ipPort, remaining, delay);
+            }
+        }
     }
 }
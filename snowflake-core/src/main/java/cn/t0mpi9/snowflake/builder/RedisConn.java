@@ -1,6 +1,11 @@
 package cn.t0mpi9.snowflake.builder;
 
 import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 /**
  * <br/>
@@ -12,5 +17,89 @@ interface RedisConn extends Closeable {
 
     String eval(String script, String[] keys, String... values);
 
+    /**
+     * @throws RuntimeException redis中没有该脚本时异常信息以NOSCRIPT开头
+     */
+    String evalsha(String sha, String[] keys, String... values);
+
     String hget(String key, String field);
+
+    long incrBy(String key, long increment);
+
+    /**
+     * 合并心跳时按它分组, 相等的连接连到同一个redis的同一个库, 可以互相代为上报。默认每个连接单独一组
+     *
+     * @return 连接的redis
+     */
+    default Object getEndpoint() {
+        return this;
+    }
+
+    /**
+     * 先按SHA1调用, redis中没有该脚本(第一次调用或redis重启、SCRIPT FLUSH后)时用EVAL执行, EVAL会顺便缓存脚本,
+     * 之后又可以按SHA1调用。集群时EVAL按key路由到对应节点, 不需要像SCRIPT LOAD一样指定节点
+     *
+     * @param script 脚本
+     * @param keys   KEYS
+     * @param values ARGV
+     * @return 脚本返回值
+     */
+    default String eval(RedisScript script, String[] keys, String... values) {
+        try {
+            return evalsha(script.getSha(), keys, values);
+        } catch (RuntimeException e) {
+            if (!isNoScript(e)) {
+                throw e;
+            }
+            return eval(script.getScript(), keys, values);
+        }
+    }
+
+    /**
+     * 异步执行脚本, 同{@link #eval(RedisScript, String[], String...)}。默认在executor中同步执行,
+     * lettuce基于async命令实现, 不使用executor
+     *
+     * @param script   脚本
+     * @param executor 执行同步调用的线程池
+     * @param keys     KEYS
+     * @param values   ARGV
+     * @return 脚本返回值
+     * @throws RejectedExecutionException executor已关闭
+     */
+    default CompletableFuture<String> evalAsync(RedisScript script, Executor executor, String[] keys, String... values) {
+        return CompletableFuture.supplyAsync(() -> eval(script, keys, values), executor);
+    }
+
+    /**
+     * evalsha返回NOSCRIPT时改用eval
+     */
+    static CompletableFuture<String> fallbackOnNoScript(CompletionStage<String> evalsha,
+                                                        Supplier<? extends CompletionStage<String>> eval) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        evalsha.whenComplete((result, e) -> {
+            if (e == null) {
+                future.complete(result);
+            } else if (isNoScript(e)) {
+                eval.get().whenComplete((evalResult, evalException) -> {
+                    if (evalException == null) {
+                        future.complete(evalResult);
+                    } else {
+                        future.completeExceptionally(evalException);
+                    }
+                });
+            } else {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().startsWith("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
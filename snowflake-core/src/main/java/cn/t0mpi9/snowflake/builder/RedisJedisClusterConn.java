@@ -24,11 +24,21 @@ class RedisJedisClusterConn implements RedisConn {
         return String.valueOf(jedisCluster.eval(script, Arrays.asList(keys), Arrays.asList(values)));
     }
 
+    @Override
+    public String evalsha(String sha, String[] keys, String... values) {
+        return String.valueOf(jedisCluster.evalsha(sha, Arrays.asList(keys), Arrays.asList(values)));
+    }
+
     @Override
     public String hget(String key, String field) {
         return jedisCluster.hget(key, field);
     }
 
+    @Override
+    public long incrBy(String key, long increment) {
+        return jedisCluster.incrBy(key, increment);
+    }
+
     @Override
     public void close() throws IOException {
         jedisCluster.close();
@@ -1,11 +1,13 @@
 package cn.t0mpi9.snowflake.builder;
 
+import cn.t0mpi9.snowflake.Constant;
 import redis.clients.jedis.Jedis;
 
 import java.io.IOException;
 import java.util.Arrays;
 
 /**
+ * 单个{@link Jedis}连接不是线程安全的, 心跳线程的上报和调用方线程的号段领取会同时使用, 所有命令在该对象上串行执行
  * <br/>
  * Created on 2020/6/22 13:24.
  *
@@ -14,23 +16,40 @@ import java.util.Arrays;
 class RedisJedisConn implements RedisConn {
 
     private final Jedis jedis;
+    private final String endpoint;
 
     RedisJedisConn(Jedis jedis) {
         this.jedis = jedis;
+        this.endpoint = jedis.getClient().getHost() + Constant.COLON + jedis.getClient().getPort() + Constant.SLASH + jedis.getDB();
     }
 
     @Override
-    public String eval(String script, String[] keys, String... values) {
+    public synchronized String eval(String script, String[] keys, String... values) {
         return String.valueOf(jedis.eval(script, Arrays.asList(keys), Arrays.asList(values)));
     }
 
     @Override
-    public String hget(String key, String field) {
+    public synchronized String evalsha(String sha, String[] keys, String... values) {
+        return String.valueOf(jedis.evalsha(sha, Arrays.asList(keys), Arrays.asList(values)));
+    }
+
+    @Override
+    public synchronized String hget(String key, String field) {
         return jedis.hget(key, field);
     }
 
     @Override
-    public void close() throws IOException {
+    public synchronized long incrBy(String key, long increment) {
+        return jedis.incrBy(key, increment);
+    }
+
+    @Override
+    public Object getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
         jedis.close();
     }
 }
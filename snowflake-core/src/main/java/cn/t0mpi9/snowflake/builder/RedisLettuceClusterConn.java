@@ -2,8 +2,11 @@ package cn.t0mpi9.snowflake.builder;
 
 import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.cluster.api.StatefulRedisClusterConnection;
+import io.lettuce.core.cluster.api.async.RedisAdvancedClusterAsyncCommands;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * <br/>
@@ -24,11 +27,28 @@ class RedisLettuceClusterConn implements RedisConn {
         return connection.sync().eval(script, ScriptOutputType.VALUE, keys, values);
     }
 
+    @Override
+    public String evalsha(String sha, String[] keys, String... values) {
+        return connection.sync().evalsha(sha, ScriptOutputType.VALUE, keys, values);
+    }
+
+    @Override
+    public CompletableFuture<String> evalAsync(RedisScript script, Executor executor, String[] keys, String... values) {
+        RedisAdvancedClusterAsyncCommands<String, String> async = connection.async();
+        return RedisConn.fallbackOnNoScript(async.evalsha(script.getSha(), ScriptOutputType.VALUE, keys, values),
+                () -> async.eval(script.getScript(), ScriptOutputType.VALUE, keys, values));
+    }
+
     @Override
     public String hget(String key, String field) {
         return connection.sync().hget(key, field);
     }
 
+    @Override
+    public long incrBy(String key, long increment) {
+        return connection.sync().incrby(key, increment);
+    }
+
     @Override
     public void close() throws IOException {
         connection.close();
@@ -1,9 +1,13 @@
 package cn.t0mpi9.snowflake.builder;
 
+import io.lettuce.core.RedisClient;
 import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * <br/>
@@ -14,14 +18,46 @@ import java.io.IOException;
 class RedisLettuceConn implements RedisConn {
 
     private final StatefulRedisConnection<String, String> connection;
+    /**
+     * 由builder创建的客户端, 关闭连接时一起关闭; 外部传入的为null
+     */
+    private final RedisClient ownedClient;
+    private final Object endpoint;
 
-    RedisLettuceConn(StatefulRedisConnection<String, String> connection) {
+    /**
+     * @param connection  连接
+     * @param redisClient 创建连接的客户端, 同一个客户端的连接在同一个心跳组
+     */
+    RedisLettuceConn(StatefulRedisConnection<String, String> connection, RedisClient redisClient) {
+        this(connection, null, redisClient);
+    }
+
+    /**
+     * @param connection  连接
+     * @param ownedClient 由builder创建的客户端
+     * @param endpoint    心跳分组, "host:port/database"
+     */
+    RedisLettuceConn(StatefulRedisConnection<String, String> connection, RedisClient ownedClient, Object endpoint) {
         this.connection = connection;
+        this.ownedClient = ownedClient;
+        this.endpoint = endpoint;
     }
 
     @Override
     public String eval(String script, String[] keys, String... values) {
-        return String.valueOf((Long) connection.sync().eval(script, ScriptOutputType.INTEGER, keys, values));
+        return connection.sync().eval(script, ScriptOutputType.VALUE, keys, values);
+    }
+
+    @Override
+    public String evalsha(String sha, String[] keys, String... values) {
+        return connection.sync().evalsha(sha, ScriptOutputType.VALUE, keys, values);
+    }
+
+    @Override
+    public CompletableFuture<String> evalAsync(RedisScript script, Executor executor, String[] keys, String... values) {
+        RedisAsyncCommands<String, String> async = connection.async();
+        return RedisConn.fallbackOnNoScript(async.evalsha(script.getSha(), ScriptOutputType.VALUE, keys, values),
+                () -> async.eval(script.getScript(), ScriptOutputType.VALUE, keys, values));
     }
 
     @Override
@@ -29,8 +65,21 @@ class RedisLettuceConn implements RedisConn {
         return connection.sync().hget(key, field);
     }
 
+    @Override
+    public long incrBy(String key, long increment) {
+        return connection.sync().incrby(key, increment);
+    }
+
+    @Override
+    public Object getEndpoint() {
+        return endpoint;
+    }
+
     @Override
     public void close() throws IOException {
         connection.close();
+        if (ownedClient != null) {
+            ownedClient.shutdown();
+        }
     }
 }
@@ -0,0 +1,47 @@
+package cn.t0mpi9.snowflake.builder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * lua脚本和它的SHA1, SHA1在本地计算, 通过EVALSHA调用时不用先SCRIPT LOAD
+ * <br/>
+ * Created on 2020/7/29 9:30.
+ *
+ * @author zhubenle
+ */
+final class RedisScript {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String script;
+    private final String sha;
+
+    RedisScript(String script) {
+        this.script = script;
+        this.sha = sha1Hex(script);
+    }
+
+    String getScript() {
+        return script;
+    }
+
+    String getSha() {
+        return sha;
+    }
+
+    private static String sha1Hex(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8));
+            char[] chars = new char[digest.length << 1];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i << 1] = HEX[(digest[i] >> 4) & 0xF];
+                chars[(i << 1) + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package cn.t0mpi9.snowflake.builder;
 
+import cn.t0mpi9.snowflake.Constant;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.RedisURI;
 import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.resource.ClientResources;
+import io.lettuce.core.resource.DefaultClientResources;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
@@ -72,8 +75,11 @@ public class SnowflakeIdGenerateBuilder implements Closeable {
                 .withPassword(Objects.isNull(password) ? "" : password)
                 .withDatabase(database)
                 .build();
-        RedisClient redisClient = RedisClient.create(redisURI);
-        return useLettuceRedis(redisClient);
+        //多个builder共用一组事件循环线程, 关闭连接时一起关闭创建的客户端
+        RedisClient redisClient = RedisClient.create(SharedClientResources.INSTANCE, redisURI);
+        configBuilder = new RedisConfigBuilder(new RedisLettuceConn(redisClient.connect(), redisClient,
+                redisHost + Constant.COLON + redisPort + Constant.SLASH + database));
+        return (RedisConfigBuilder) configBuilder;
     }
 
     /**
@@ -84,7 +90,7 @@ public class SnowflakeIdGenerateBuilder implements Closeable {
      */
     public RedisConfigBuilder useLettuceRedis(RedisClient redisClient) {
         Objects.requireNonNull(redisClient);
-        configBuilder = new RedisConfigBuilder(new RedisLettuceConn(redisClient.connect()));
+        configBuilder = new RedisConfigBuilder(new RedisLettuceConn(redisClient.connect(), redisClient));
         return (RedisConfigBuilder) configBuilder;
     }
 
@@ -191,4 +197,11 @@ public class SnowflakeIdGenerateBuilder implements Closeable {
             configBuilder.close();
         }
     }
+
+    /**
+     * 按redis配置创建lettuce客户端时共用的ClientResources, 用到时才加载, 没有引入lettuce时不影响其他方式
+     */
+    private static final class SharedClientResources {
+        private static final ClientResources INSTANCE = DefaultClientResources.create();
+    }
 }
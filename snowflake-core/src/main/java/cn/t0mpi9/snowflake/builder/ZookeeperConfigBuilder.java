@@ -1,20 +1,24 @@
 package cn.t0mpi9.snowflake.builder;
 
 import cn.t0mpi9.snowflake.Constant;
+import cn.t0mpi9.snowflake.SegmentAllocator;
 import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.imps.CuratorFrameworkState;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <br/>
@@ -27,6 +31,11 @@ public class ZookeeperConfigBuilder extends AbstractConfigBuilder<ZookeeperConfi
     private static final Logger LOGGER = LoggerFactory.getLogger(ZookeeperConfigBuilder.class);
 
     private CuratorFramework curator;
+    private ZookeeperWorkerSlots workerSlots;
+    /**
+     * 异步启动失败重试时doBuild会执行多次, 重连监听只注册一次
+     */
+    private boolean reconnectListening;
 
     ZookeeperConfigBuilder() {
     }
@@ -42,6 +51,11 @@ public class ZookeeperConfigBuilder extends AbstractConfigBuilder<ZookeeperConfi
     @Override
     public void close() throws IOException {
         super.close();
+        synchronized (this) {
+            if (workerSlots != null) {
+                workerSlots.close();
+            }
+        }
         curator.close();
         LOGGER.info("snowflake zk connection closed");
     }
@@ -51,56 +65,55 @@ public class ZookeeperConfigBuilder extends AbstractConfigBuilder<ZookeeperConfi
         String ipPort = ip + Constant.COLON + port;
         long workerId;
         long dataCenterId;
+        long initialTimestamp = 0L;
+        long claimAt;
+        ZookeeperWorkerSlots.Slot slot;
+        ZookeeperWorkerSlots.Slot backupSlot = null;
         try {
             createEphemeralNode(ipPort);
-            curator.getConnectionStateListenable().addListener((client, newState) -> {
-                if (ConnectionState.RECONNECTED.equals(newState)) {
-                    try {
-                        createEphemeralNode(ipPort);
-                    } catch (Exception e) {
-                        LOGGER.error("重连后创建临时节点异常", e);
+            if (!reconnectListening) {
+                curator.getConnectionStateListenable().addListener((client, newState) -> {
+                    if (ConnectionState.RECONNECTED.equals(newState)) {
+                        try {
+                            createEphemeralNode(ipPort);
+                        } catch (Exception e) {
+                            LOGGER.error("重连后创建临时节点异常", e);
+                        }
                     }
+                });
+                reconnectListening = true;
+            }
+
+            startWorkerSlots();
+            claimAt = timeSource.currentTimeMillis();
+            slot = workerSlots.claim(ipPort);
+            long preTimeStamp = slot.getPreTimestamp();
+            if (preTimeStamp >= 0) {
+                long now = timeSource.currentTimeMillis();
+                if (now + maxBorrowMillis < preTimeStamp) {
+                    //检查当前系统时间是否比上一次上传到zk时间小, 借用毫秒时上传的逻辑时间戳最多超前maxBorrowMillis
+                    throw new IllegalStateException("检查当前系统时间是否比上一次上传到zk时间小, 请确认系统时间");
                 }
-            });
-
-            String persistentPath = getPersistentPath();
-            //检查根节点是否存在
-            Stat stat = curator.checkExists().forPath(persistentPath);
-            String nodePath;
-            if (Objects.isNull(stat)) {
-                //根节点不存在，第一次连接
-                nodePath = createPersistentNode(ipPort);
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("根节点不存在，第一次连接创建{}", nodePath);
-                }
-            } else {
-                List<String> childrenPathList = curator.getChildren().forPath(persistentPath);
-                if (childrenPathList.size() > Constant.MAX_SEQUENTIAL) {
-                    throw new IllegalStateException("SnowflakeIdGenerate创建时，zookeeper中顺序节点数超过" + Constant.MAX_SEQUENTIAL);
-                }
-                Map<String, String> stringStringMap = childrenPathList.stream()
-                        .collect(Collectors.toMap(s -> s.split(Constant.STRIKE)[0], s -> s));
-                String nodeChildrenPath = stringStringMap.get(ipPort);
-                if (nodeChildrenPath != null) {
-                    nodePath = persistentPath + Constant.SLASH + nodeChildrenPath;
-                    long preTimeStamp = Long.parseLong(new String(curator.getData().forPath(nodePath)));
-                    if (System.currentTimeMillis() < preTimeStamp) {
-                        //检查当前系统时间是否比上一次上传到zk时间小
-                        throw new IllegalStateException("检查当前系统时间是否比上一次上传到zk时间小, 请确认系统时间");
-                    }
-                } else {
-                    //当前服务第一次连接
-                    nodePath = createPersistentNode(ipPort);
+                if (maxBorrowMillis > 0) {
+                    //上次上报之后可能还借用过毫秒, 从最多可能借用到的时间之后开始
+                    initialTimestamp = Math.max(now, preTimeStamp) + maxBorrowMillis;
                 }
             }
-            //192.168.105:105-0000000000
-            String ipPortSequential = nodePath.substring(nodePath.lastIndexOf(Constant.SLASH) + 1);
-            //0000000000
-            int sequential = Integer.parseInt(ipPortSequential.split(Constant.STRIKE)[1]);
-            workerId = sequential & Constant.BIT;
-            dataCenterId = sequential >> 5 & Constant.BIT;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("{}分配到顺序号节点{}", ipPort, slot.getPath());
+            }
+            long sequential = slot.getSequential();
+            bitLayout.checkSequential(sequential);
+            workerId = bitLayout.workerIdOf(sequential);
+            dataCenterId = bitLayout.dataCenterIdOf(sequential);
+            if (needLeaseBackup()) {
+                backupSlot = workerSlots.claim(ipPort + Constant.BACKUP_SUFFIX);
+                long backupSequential = backupSlot.getSequential();
+                bitLayout.checkSequential(backupSequential);
+                backupWorkerId = bitLayout.workerIdOf(backupSequential);
+                backupDataCenterId = bitLayout.dataCenterIdOf(backupSequential);
+            }
             saveLocalFile(workerId, dataCenterId);
-            scheduledUpdateData(nodePath);
         } catch (IllegalStateException e) {
             throw new RuntimeException(e);
         } catch (Exception e) {
@@ -110,55 +123,255 @@ public class ZookeeperConfigBuilder extends AbstractConfigBuilder<ZookeeperConfi
             }
             throw new RuntimeException("创建SnowflakeIdGenerate, zookeeper加载dataCenterId和workerId失败", e);
         }
-        return new SnowflakeIdGenerate(workerId, dataCenterId);
+        SnowflakeIdGenerate snowflakeIdGenerate = newSnowflakeIdGenerate(workerId, dataCenterId,
+                Math.max(initialTimestamp, localInitialTimestamp()));
+        snowflakeIdGenerate.renewLease(claimAt + getLeaseMillis());
+        cacheLease(reclaimableAt(claimAt, claimAt));
+        scheduledUpdateData(slot, backupSlot, snowflakeIdGenerate);
+        return snowflakeIdGenerate;
+    }
+
+    /**
+     * slot缓存只创建一次, 重试注册时复用已经在按事件更新的缓存; 启动失败时关闭, 下次重试重新创建
+     */
+    private synchronized void startWorkerSlots() throws Exception {
+        if (workerSlots != null) {
+            return;
+        }
+        ZookeeperWorkerSlots slots = new ZookeeperWorkerSlots(curator, getRootPath(), bitLayout.getWorkerSpace(),
+                reclaimMarginMillis, timeSource);
+        try {
+            slots.start();
+        } catch (Exception e) {
+            slots.close();
+            throw e;
+        }
+        workerSlots = slots;
     }
 
-    private String getPersistentPath() {
-        return Constant.SLASH + Constant.ROOT_NAME + Constant.SLASH + applicationName + Constant.SLASH + Constant.PERSISTENT_NAME;
+    private String getRootPath() {
+        return Constant.SLASH + Constant.ROOT_NAME + Constant.SLASH + applicationName;
     }
 
     private String getEphemeralPath() {
         return Constant.SLASH + Constant.ROOT_NAME + Constant.SLASH + applicationName + Constant.SLASH + Constant.EPHEMERAL_NAME;
     }
 
+    private String getSegmentPath(String name) {
+        return Constant.SLASH + Constant.ROOT_NAME + Constant.SLASH + applicationName + Constant.SLASH + Constant.SEGMENT_NAME
+                + Constant.SLASH + name;
+    }
+
+    @Override
+    protected SegmentAllocator segmentAllocator() {
+        return this::allocateSegment;
+    }
+
     /**
-     * 创建ipPort的持久节点保存当前系统时间戳
+     * 号段节点的数据是已领取的最大值, 读出后带版本号写回加上step的值, 版本冲突说明其他进程同时领取, 重试
+     *
+     * @param name 号段名称
+     * @param step 领取的号码数
+     * @return 领取后的最大值
      */
-    private String createPersistentNode(String ipPort) throws Exception {
-        String data = String.valueOf(System.currentTimeMillis());
-        return curator.create()
-                .creatingParentsIfNeeded()
-                .withMode(CreateMode.PERSISTENT_SEQUENTIAL)
-                .forPath(getPersistentPath() + Constant.SLASH + ipPort + Constant.STRIKE, data.getBytes());
+    private long allocateSegment(String name, long step) throws Exception {
+        String path = getSegmentPath(name);
+        for (; ; ) {
+            Stat stat = new Stat();
+            byte[] data;
+            try {
+                data = curator.getData().storingStatIn(stat).forPath(path);
+            } catch (KeeperException.NoNodeException e) {
+                try {
+                    curator.create().creatingParentsIfNeeded().forPath(path, String.valueOf(step).getBytes());
+                    return step;
+                } catch (KeeperException.NodeExistsException ignored) {
+                    continue;
+                }
+            }
+            long max = Long.parseLong(new String(data)) + step;
+            try {
+                curator.setData().withVersion(stat.getVersion()).forPath(path, String.valueOf(max).getBytes());
+                return max;
+            } catch (KeeperException.BadVersionException ignored) {
+                //其他进程同时领取, 重新读取
+            }
+        }
+    }
+
+    /**
+     * 加入进程内的心跳组, 连接同一个zookeeper的实例每个周期在一个multi事务中带版本号更新slot节点数据为当前逻辑时间戳,
+     * 成功后把租约延长到本次上报开始时间加上租约有效时间
+     */
+    private void scheduledUpdateData(ZookeeperWorkerSlots.Slot slot, ZookeeperWorkerSlots.Slot backupSlot,
+                                     SnowflakeIdGenerate snowflakeIdGenerate) {
+        joinHeartbeat(Arrays.asList(curator.getZookeeperClient().getCurrentConnectionString(), curator.getNamespace()),
+                new SlotRenewal(), new ZookeeperLease(slot, backupSlot, snowflakeIdGenerate));
     }
 
     /**
-     * 添加定时任务，执行更新节点数据为当前时间戳
+     * 一个实例在心跳组中的slot, 上报结果同步给它的生成器
      */
-    private void scheduledUpdateData(String nodePath) {
-        scheduledExecutorService.scheduleAtFixedRate(() -> {
+    private final class ZookeeperLease {
+        private final ZookeeperWorkerSlots.Slot slot;
+        private final ZookeeperWorkerSlots.Slot backupSlot;
+        private final SnowflakeIdGenerate snowflakeIdGenerate;
+
+        ZookeeperLease(ZookeeperWorkerSlots.Slot slot, ZookeeperWorkerSlots.Slot backupSlot,
+                       SnowflakeIdGenerate snowflakeIdGenerate) {
+            this.slot = slot;
+            this.backupSlot = backupSlot;
+            this.snowflakeIdGenerate = snowflakeIdGenerate;
+        }
+
+        private CuratorFramework curator() {
+            return curator;
+        }
+
+        private long currentTimeMillis() {
+            return timeSource.currentTimeMillis();
+        }
+
+        /**
+         * 单独上报, 顺序号已被回收时记录心跳失败并收回生成器的租约
+         */
+        private void renew() {
             try {
-                String data = String.valueOf(System.currentTimeMillis());
-                curator.setData().forPath(nodePath, data.getBytes());
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("定时更新zk节点{}的值为{}", nodePath, data);
+                long start = timeSource.currentTimeMillis();
+                long timestamp = snowflakeIdGenerate.getLogicalTimestamp();
+                if (!workerSlots.renew(slot, timestamp) || (backupSlot != null && !workerSlots.renew(backupSlot, timestamp))) {
+                    onRevoked();
+                    return;
                 }
+                onRenewed(start, timestamp);
             } catch (Exception e) {
-                LOGGER.error("更新节点路径数据{}异常: {}", nodePath, e.getMessage());
+                onFailed(e);
+            }
+        }
+
+        private void onRenewed(long start, long timestamp) {
+            snowflakeIdGenerate.renewLease(start + getLeaseMillis());
+            cacheLease(reclaimableAt(start, timestamp));
+            snowflakeIdGenerate.getMetrics().recordHeartbeat(true);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("定时更新zk节点{}的值为{}", slot.getPath(), timestamp);
+            }
+        }
+
+        private void onRevoked() {
+            snowflakeIdGenerate.getMetrics().recordHeartbeat(false);
+            snowflakeIdGenerate.revokeLease();
+            cacheLease(0L);
+            LOGGER.error("zk节点{}的顺序号已过期被回收, 无法续租", slot.getPath());
+        }
+
+        private void onFailed(Exception e) {
+            snowflakeIdGenerate.getMetrics().recordHeartbeat(false);
+            LOGGER.error("更新节点路径数据{}异常: {}", slot.getPath(), e.getMessage());
+        }
+    }
+
+    /**
+     * 组内所有slot用第一个实例的连接在一个multi事务中上报; 事务因为有slot版本不一致或已被删除而失败时,
+     * 本周期改为逐个上报, 找出被回收的实例, 其他实例仍然续租成功。只有一个slot时直接单独上报
+     * <br/>
+     * curator的调用是同步的, 在心跳组的同步调用线程池中执行, 心跳线程只提交; 上一次还没完成时跳过本次
+     */
+    private static final class SlotRenewal implements HeartbeatHub.Batch<ZookeeperLease> {
+        private final AtomicBoolean inFlight = new AtomicBoolean();
+
+        @Override
+        public void beat(HeartbeatHub.Group<ZookeeperLease> group, List<ZookeeperLease> members) {
+            if (!inFlight.compareAndSet(false, true)) {
+                LOGGER.warn("zk节点{}等{}个实例上一次续租还没完成, 跳过本次", members.get(0).slot.getPath(), members.size());
+                return;
+            }
+            try {
+                group.getBlockingExecutor().execute(() -> {
+                    try {
+                        renew(members);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("zk节点{}等{}个实例续租异常: {}", members.get(0).slot.getPath(), members.size(), e.getMessage());
+                    } finally {
+                        inFlight.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //进程退出中
+                inFlight.set(false);
+            }
+        }
+
+        private void renew(List<ZookeeperLease> members) {
+            ZookeeperLease carrier = members.get(0);
+            List<ZookeeperWorkerSlots.Slot> slots = new ArrayList<>();
+            long[] timestamps = new long[members.size() << 1];
+            long start = carrier.currentTimeMillis();
+            for (ZookeeperLease lease : members) {
+                long timestamp = lease.snowflakeIdGenerate.getLogicalTimestamp();
+                timestamps[slots.size()] = timestamp;
+                slots.add(lease.slot);
+                if (lease.backupSlot != null) {
+                    timestamps[slots.size()] = timestamp;
+                    slots.add(lease.backupSlot);
+                }
             }
-        }, 0, schedulePeriod, scheduleTimeUnit);
+            if (slots.size() > 1) {
+                try {
+                    if (ZookeeperWorkerSlots.renewAll(carrier.curator(), slots, timestamps)) {
+                        int i = 0;
+                        for (ZookeeperLease lease : members) {
+                            lease.onRenewed(start, timestamps[i]);
+                            i += lease.backupSlot != null ? 2 : 1;
+                        }
+                        return;
+                    }
+                } catch (Exception e) {
+                    members.forEach(lease -> lease.onFailed(e));
+                    return;
+                }
+            }
+            members.forEach(ZookeeperLease::renew);
+        }
     }
 
     /**
-     * 创建ipPort的临时节点，用于查看当前哪些服务连接到zk
+     * 缓存给下次异步启动的租约。zookeeper中顺序号的回收看的是上报的时间戳加回收余量, 不看租约,
+     * 空闲的生成器上报的逻辑时间戳可能早于本次上报, 取两者中早的
+     *
+     * @param start     本次上报开始的时间
+     * @param timestamp 本次上报的逻辑时间戳
+     * @return 到期时间, 毫秒
+     */
+    private long reclaimableAt(long start, long timestamp) {
+        return Math.min(start + getLeaseMillis(), timestamp + reclaimMarginMillis);
+    }
+
+    /**
+     * 创建ipPort的临时节点，用于查看当前哪些服务连接到zk, 也是顺序号是否可以回收的依据。
+     * 重启时上一个进程的会话可能还没过期, 删除它留下的节点后重新创建
      * @param ipPort ip:port
      * @return zk 路径
      * @throws Exception 异常
      */
     private String createEphemeralNode(String ipPort) throws Exception {
-        return curator.create()
-                .creatingParentsIfNeeded()
-                .withMode(CreateMode.EPHEMERAL)
-                .forPath(getEphemeralPath() + Constant.SLASH + ipPort, "".getBytes());
+        String path = getEphemeralPath() + Constant.SLASH + ipPort;
+        try {
+            return curator.create()
+                    .creatingParentsIfNeeded()
+                    .withMode(CreateMode.EPHEMERAL)
+                    .forPath(path, "".getBytes());
+        } catch (KeeperException.NodeExistsException e) {
+            Stat stat = curator.checkExists().forPath(path);
+            if (stat != null && stat.getEphemeralOwner() == curator.getZookeeperClient().getZooKeeper().getSessionId()) {
+                return path;
+            }
+            try {
+                curator.delete().forPath(path);
+            } catch (KeeperException.NoNodeException ignored) {
+                //已随旧会话过期
+            }
+            return curator.create().withMode(CreateMode.EPHEMERAL).forPath(path, "".getBytes());
+        }
     }
 }
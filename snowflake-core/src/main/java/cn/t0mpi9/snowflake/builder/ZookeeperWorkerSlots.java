@@ -0,0 +1,344 @@
+package cn.t0mpi9.snowflake.builder;
+
+import cn.t0mpi9.snowflake.Constant;
+import cn.t0mpi9.snowflake.time.TimeSource;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorOp;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * zookeeper中可回收的顺序号, 每个顺序号一个持久节点slot/{顺序号}, 数据是"ip:port,上报的时间戳"
+ * <br/>
+ * 顺序号由节点名保证唯一: 空闲的顺序号create节点占用, 节点已存在说明被其他实例抢先; 已下线实例的顺序号带版本号setData接管,
+ * 版本不一致说明被其他实例抢先或原实例还在上报。已下线指ephemeral下没有该实例的临时节点, 并且上报的时间戳早于当前时间超过回收余量。
+ * <br/>
+ * slot下的节点通过PathChildrenCache缓存在按顺序号排序的map中, 只在启动时全量加载一次, 之后按事件更新, 分配时不用再遍历zookeeper。
+ * 之前按PERSISTENT_SEQUENTIAL创建的persistent/{ip:port}-{顺序号}节点仍然占用其顺序号, 本实例的旧节点会迁移到slot下,
+ * 其他实例的旧节点下线后同样可以回收
+ * <br/>
+ * Created on 2020/7/30 10:20.
+ *
+ * @author zhubenle
+ */
+final class ZookeeperWorkerSlots implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZookeeperWorkerSlots.class);
+
+    private final CuratorFramework curator;
+    private final String slotPath;
+    private final String ephemeralPath;
+    private final String legacyPath;
+    private final long space;
+    private final long reclaimMarginMillis;
+    private final TimeSource timeSource;
+    private final PathChildrenCache cache;
+    private final NavigableMap<Long, SlotData> slots = new ConcurrentSkipListMap<>();
+
+    ZookeeperWorkerSlots(CuratorFramework curator, String rootPath, long space, long reclaimMarginMillis,
+                         TimeSource timeSource) {
+        this.curator = curator;
+        this.slotPath = rootPath + Constant.SLASH + Constant.SLOT_NAME;
+        this.ephemeralPath = rootPath + Constant.SLASH + Constant.EPHEMERAL_NAME;
+        this.legacyPath = rootPath + Constant.SLASH + Constant.PERSISTENT_NAME;
+        this.space = space;
+        this.reclaimMarginMillis = reclaimMarginMillis;
+        this.timeSource = timeSource;
+        this.cache = new PathChildrenCache(curator, slotPath, true);
+    }
+
+    /**
+     * 同步加载slot下的全部节点, 之后按事件更新
+     */
+    void start() throws Exception {
+        cache.getListenable().addListener((client, event) -> {
+            ChildData data = event.getData();
+            if (data == null) {
+                return;
+            }
+            switch (event.getType()) {
+                case CHILD_ADDED:
+                case CHILD_UPDATED:
+                    update(data);
+                    break;
+                case CHILD_REMOVED:
+                    slots.remove(sequentialOf(data.getPath()));
+                    break;
+                default:
+            }
+        });
+        cache.start(PathChildrenCache.StartMode.BUILD_INITIAL_CACHE);
+        for (ChildData data : cache.getCurrentData()) {
+            update(data);
+        }
+    }
+
+    /**
+     * 事件和初始加载可能交错, 只保留版本较新的数据
+     */
+    private void update(ChildData data) {
+        if (data.getData() == null || data.getStat() == null) {
+            return;
+        }
+        SlotData slotData = SlotData.parse(data.getData(), data.getStat().getVersion());
+        slots.merge(sequentialOf(data.getPath()), slotData, (a, b) -> a.version >= b.version ? a : b);
+    }
+
+    /**
+     * 为owner分配顺序号, 依次尝试: owner已占用的slot, owner之前的persistent节点, 空闲的顺序号, 已下线实例的顺序号
+     *
+     * @param owner ip:port或加备用后缀的ip:port
+     * @return 分配到的slot, 原来就属于owner时{@link Slot#getPreTimestamp()}是上次上报的时间戳, 否则是-1
+     * @throws IllegalStateException 顺序号空间已用完
+     */
+    Slot claim(String owner) throws Exception {
+        long now = timeSource.currentTimeMillis();
+        for (Map.Entry<Long, SlotData> entry : slots.entrySet()) {
+            if (owner.equals(entry.getValue().owner)) {
+                Stat stat = new Stat();
+                byte[] bytes = curator.getData().storingStatIn(stat).forPath(pathOf(entry.getKey()));
+                SlotData current = SlotData.parse(bytes, stat.getVersion());
+                if (owner.equals(current.owner)) {
+                    return new Slot(entry.getKey(), pathOf(entry.getKey()), owner, stat.getVersion(), current.timestamp);
+                }
+            }
+        }
+        Map<Long, String> legacy = legacyChildren();
+        for (Map.Entry<Long, String> entry : legacy.entrySet()) {
+            if (entry.getValue().startsWith(owner + Constant.STRIKE) && entry.getKey() < space
+                    && !slots.containsKey(entry.getKey())) {
+                String path = legacyPath + Constant.SLASH + entry.getValue();
+                long pre = Long.parseLong(new String(curator.getData().forPath(path), StandardCharsets.UTF_8));
+                Slot slot = create(entry.getKey(), owner, pre);
+                if (slot != null) {
+                    deleteQuietly(path);
+                    return new Slot(slot.sequential, slot.path, owner, slot.version, pre);
+                }
+            }
+        }
+        //已占用的顺序号在内存中跳过, 只对空闲的create
+        for (long sequential = 0; sequential < space; sequential++) {
+            if (slots.containsKey(sequential) || legacy.containsKey(sequential)) {
+                continue;
+            }
+            Slot slot = create(sequential, owner, now);
+            if (slot != null) {
+                return slot;
+            }
+        }
+        for (Map.Entry<Long, SlotData> entry : slots.entrySet()) {
+            SlotData data = entry.getValue();
+            if (entry.getKey() < space && isOffline(data.owner, data.timestamp, now)) {
+                try {
+                    Stat stat = curator.setData().withVersion(data.version)
+                            .forPath(pathOf(entry.getKey()), SlotData.format(owner, now));
+                    LOGGER.info("回收已下线的{}的顺序号{}给{}", data.owner, entry.getKey(), owner);
+                    return new Slot(entry.getKey(), pathOf(entry.getKey()), owner, stat.getVersion(), -1L);
+                } catch (KeeperException.BadVersionException | KeeperException.NoNodeException ignored) {
+                    //被其他实例抢先回收, 或原实例还在上报
+                }
+            }
+        }
+        for (Map.Entry<Long, String> entry : legacy.entrySet()) {
+            if (entry.getKey() >= space || slots.containsKey(entry.getKey())) {
+                continue;
+            }
+            String path = legacyPath + Constant.SLASH + entry.getValue();
+            String legacyOwner = entry.getValue().substring(0, entry.getValue().lastIndexOf(Constant.STRIKE));
+            long pre = Long.parseLong(new String(curator.getData().forPath(path), StandardCharsets.UTF_8));
+            if (isOffline(legacyOwner, pre, now)) {
+                Slot slot = create(entry.getKey(), owner, now);
+                if (slot != null) {
+                    deleteQuietly(path);
+                    LOGGER.info("回收已下线的{}的顺序号{}给{}", legacyOwner, entry.getKey(), owner);
+                    return slot;
+                }
+            }
+        }
+        throw new IllegalStateException(String.format("顺序号空间[0, %d)已用完, 没有可回收的顺序号", space));
+    }
+
+    /**
+     * 上报逻辑时间戳, 带版本号写入
+     *
+     * @param slot      {@link #claim(String)}分配的slot
+     * @param timestamp 逻辑时间戳
+     * @return false表示顺序号已被其他实例回收
+     */
+    boolean renew(Slot slot, long timestamp) throws Exception {
+        for (; ; ) {
+            try {
+                slot.version = curator.setData().withVersion(slot.version)
+                        .forPath(slot.path, SlotData.format(slot.owner, timestamp)).getVersion();
+                return true;
+            } catch (KeeperException.BadVersionException e) {
+                Stat stat = new Stat();
+                SlotData current = SlotData.parse(curator.getData().storingStatIn(stat).forPath(slot.path), stat.getVersion());
+                if (!slot.owner.equals(current.owner)) {
+                    return false;
+                }
+                slot.version = stat.getVersion();
+            } catch (KeeperException.NoNodeException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 在一个multi事务中带版本号上报多个slot, 一次往返。任一slot版本不一致或已被删除时整个事务失败, 都不写入,
+     * 需要逐个{@link #renew(Slot, long)}区分是哪个被回收
+     *
+     * @param curator    zookeeper客户端, slot的路径在它的namespace下
+     * @param slots      已分配的slot
+     * @param timestamps 每个slot的逻辑时间戳
+     * @return false表示有slot版本不一致或已被删除
+     */
+    static boolean renewAll(CuratorFramework curator, List<Slot> slots, long[] timestamps) throws Exception {
+        List<CuratorOp> ops = new ArrayList<>(slots.size());
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            ops.add(curator.transactionOp().setData().withVersion(slot.version)
+                    .forPath(slot.path, SlotData.format(slot.owner, timestamps[i])));
+        }
+        List<CuratorTransactionResult> results;
+        try {
+            results = curator.transaction().forOperations(ops);
+        } catch (KeeperException.BadVersionException | KeeperException.NoNodeException e) {
+            return false;
+        }
+        for (int i = 0; i < slots.size(); i++) {
+            slots.get(i).version = results.get(i).getResultStat().getVersion();
+        }
+        return true;
+    }
+
+    /**
+     * 没有临时节点, 并且上报的时间戳早于当前时间超过回收余量。备用workerId没有单独的临时节点, 看所属实例的
+     */
+    private boolean isOffline(String owner, long timestamp, long now) throws Exception {
+        if (timestamp + reclaimMarginMillis >= now) {
+            return false;
+        }
+        String instance = owner.endsWith(Constant.BACKUP_SUFFIX)
+                ? owner.substring(0, owner.length() - Constant.BACKUP_SUFFIX.length()) : owner;
+        return curator.checkExists().forPath(ephemeralPath + Constant.SLASH + instance) == null;
+    }
+
+    private Slot create(long sequential, String owner, long timestamp) throws Exception {
+        String path = pathOf(sequential);
+        try {
+            curator.create().creatingParentsIfNeeded().forPath(path, SlotData.format(owner, timestamp));
+            return new Slot(sequential, path, owner, 0, -1L);
+        } catch (KeeperException.NodeExistsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 之前按PERSISTENT_SEQUENTIAL创建的节点, 全部迁移或回收后persistent下为空
+     *
+     * @return 顺序号到节点名
+     */
+    private Map<Long, String> legacyChildren() throws Exception {
+        Map<Long, String> legacy = new HashMap<>();
+        List<String> children;
+        try {
+            children = curator.getChildren().forPath(legacyPath);
+        } catch (KeeperException.NoNodeException e) {
+            return legacy;
+        }
+        for (String child : children) {
+            legacy.put(Long.parseLong(child.substring(child.lastIndexOf(Constant.STRIKE) + 1)), child);
+        }
+        return legacy;
+    }
+
+    private void deleteQuietly(String path) {
+        try {
+            curator.delete().forPath(path);
+        } catch (Exception e) {
+            LOGGER.warn("删除旧节点{}异常: {}", path, e.getMessage());
+        }
+    }
+
+    private String pathOf(long sequential) {
+        return slotPath + Constant.SLASH + sequential;
+    }
+
+    private static long sequentialOf(String path) {
+        return Long.parseLong(path.substring(path.lastIndexOf(Constant.SLASH) + 1));
+    }
+
+    @Override
+    public void close() throws IOException {
+        cache.close();
+    }
+
+    /**
+     * 已分配的slot, version在上报时更新, 只在定时任务线程中访问
+     */
+    static final class Slot {
+        private final long sequential;
+        private final String path;
+        private final String owner;
+        private int version;
+        private final long preTimestamp;
+
+        Slot(long sequential, String path, String owner, int version, long preTimestamp) {
+            this.sequential = sequential;
+            this.path = path;
+            this.owner = owner;
+            this.version = version;
+            this.preTimestamp = preTimestamp;
+        }
+
+        long getSequential() {
+            return sequential;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        long getPreTimestamp() {
+            return preTimestamp;
+        }
+    }
+
+    private static final class SlotData {
+        private final String owner;
+        private final long timestamp;
+        private final int version;
+
+        private SlotData(String owner, long timestamp, int version) {
+            this.owner = owner;
+            this.timestamp = timestamp;
+            this.version = version;
+        }
+
+        static SlotData parse(byte[] bytes, int version) {
+            String data = new String(bytes, StandardCharsets.UTF_8);
+            int index = data.lastIndexOf(Constant.COMMA);
+            return new SlotData(data.substring(0, index), Long.parseLong(data.substring(index + 1)), version);
+        }
+
+        static byte[] format(String owner, long timestamp) {
+            return (owner + Constant.COMMA + timestamp).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
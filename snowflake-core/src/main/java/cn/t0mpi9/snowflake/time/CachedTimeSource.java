@@ -0,0 +1,80 @@
+package cn.t0mpi9.snowflake.time;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 缓存的毫秒时钟
+ * <br/>
+ * 由单独的ticker线程按tick间隔刷新System.currentTimeMillis()到volatile字段, 取时间只是一次volatile读,
+ * 代价是最多落后一个tick。多个SnowflakeIdGenerate可以共用{@link #shared()}
+ * <br/>
+ * Created on 2020/7/10 9:35.
+ *
+ * @author zhubenle
+ */
+public class CachedTimeSource implements TimeSource, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachedTimeSource.class);
+
+    public static final long DEFAULT_TICK_MICROS = 500L;
+
+    private volatile long now;
+    private volatile boolean running = true;
+    private final Thread ticker;
+
+    public CachedTimeSource() {
+        this(DEFAULT_TICK_MICROS);
+    }
+
+    /**
+     * @param tickMicros 刷新间隔, 微秒, 应小于1毫秒, 否则缓存时间会整毫秒地落后
+     */
+    public CachedTimeSource(long tickMicros) {
+        if (tickMicros <= 0) {
+            throw new IllegalArgumentException("tickMicros必须大于0");
+        }
+        long tickNanos = TimeUnit.MICROSECONDS.toNanos(tickMicros);
+        this.now = System.currentTimeMillis();
+        this.ticker = new Thread(() -> {
+            while (running) {
+                now = System.currentTimeMillis();
+                LockSupport.parkNanos(this, tickNanos);
+            }
+        }, "snowflake-cached-clock");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+        LOGGER.info("CachedTimeSource初始化, tickMicros={}", tickMicros);
+    }
+
+    /**
+     * 进程共享的CachedTimeSource, 第一次调用时启动ticker线程
+     *
+     * @return CachedTimeSource
+     */
+    public static CachedTimeSource shared() {
+        return Holder.INSTANCE;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    @Override
+    public void close() {
+        if (this == Holder.INSTANCE) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(ticker);
+    }
+
+    private static class Holder {
+        private static final CachedTimeSource INSTANCE = new CachedTimeSource();
+    }
+}
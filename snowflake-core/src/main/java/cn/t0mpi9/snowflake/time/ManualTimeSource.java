@@ -0,0 +1,44 @@
+package cn.t0mpi9.snowflake.time;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 手动控制的时钟, 用于测试时钟后移、同一毫秒sequence用完等情况
+ * <br/>
+ * 注意sequence用完后SnowflakeIdGenerate会等待时钟前进, 需要其他线程调用{@link #advance(long)}
+ * <br/>
+ * Created on 2020/7/10 9:50.
+ *
+ * @author zhubenle
+ */
+public class ManualTimeSource implements TimeSource {
+
+    private final AtomicLong now;
+
+    public ManualTimeSource() {
+        this(System.currentTimeMillis());
+    }
+
+    public ManualTimeSource(long now) {
+        this.now = new AtomicLong(now);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now.get();
+    }
+
+    public void set(long now) {
+        this.now.set(now);
+    }
+
+    /**
+     * 时钟前进或后退(负数)
+     *
+     * @param millis 毫秒
+     * @return 调整后的时间戳
+     */
+    public long advance(long millis) {
+        return now.addAndGet(millis);
+    }
+}
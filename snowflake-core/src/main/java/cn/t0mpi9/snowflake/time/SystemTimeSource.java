@@ -0,0 +1,21 @@
+package cn.t0mpi9.snowflake.time;
+
+/**
+ * 直接使用System.currentTimeMillis()
+ * <br/>
+ * Created on 2020/7/10 9:32.
+ *
+ * @author zhubenle
+ */
+public final class SystemTimeSource implements TimeSource {
+
+    public static final SystemTimeSource INSTANCE = new SystemTimeSource();
+
+    private SystemTimeSource() {
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,18 @@
+package cn.t0mpi9.snowflake.time;
+
+/**
+ * SnowflakeIdGenerate获取当前毫秒时间戳的时钟
+ * <br/>
+ * Created on 2020/7/10 9:30.
+ *
+ * @author zhubenle
+ */
+public interface TimeSource {
+
+    /**
+     * 当前时间戳
+     *
+     * @return 毫秒
+     */
+    long currentTimeMillis();
+}
@@ -0,0 +1,31 @@
+package cn.t0mpi9.snowflake.time;
+
+/**
+ * 配置用的时钟类型
+ * <br/>
+ * Created on 2020/7/10 10:10.
+ *
+ * @author zhubenle
+ */
+public enum TimeSourceType {
+    /**
+     * {@link SystemTimeSource}
+     */
+    SYSTEM {
+        @Override
+        public TimeSource timeSource() {
+            return SystemTimeSource.INSTANCE;
+        }
+    },
+    /**
+     * 进程共享的{@link CachedTimeSource}
+     */
+    CACHED {
+        @Override
+        public TimeSource timeSource() {
+            return CachedTimeSource.shared();
+        }
+    };
+
+    public abstract TimeSource timeSource();
+}
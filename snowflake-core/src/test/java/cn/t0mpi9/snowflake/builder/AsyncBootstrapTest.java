@@ -0,0 +1,179 @@
+package cn.t0mpi9.snowflake.builder;
+
+import cn.t0mpi9.snowflake.BitLayout;
+import cn.t0mpi9.snowflake.LeaseExpiryPolicy;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.time.ManualTimeSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步启动: 用本地状态文件缓存的租约创建生成器, 后台注册完成后交接, 用{@link FakeRedisServer}在本机回环上测试
+ * <br/>
+ * Created on 2020/8/7 16:00.
+ *
+ * @author zhubenle
+ */
+public class AsyncBootstrapTest {
+
+    private static final long NOW = 1596787200000L;
+    /**
+     * 上报周期1s, 租约11s
+     */
+    private static final long LEASE_MILLIS = 11000L;
+    private static final long RECLAIM_MARGIN_MILLIS = 20000L;
+    private static final BitLayout TWO_WORKERS = BitLayout.builder().dataCenterIdBits(0).workerIdBits(1).build();
+
+    private FakeRedisServer server;
+    private ManualTimeSource timeSource;
+    private File fileCachePath;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeRedisServer();
+        timeSource = new ManualTimeSource(NOW);
+        fileCachePath = Files.createTempDirectory("snowflake-bootstrap").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        delete(fileCachePath);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        Assert.assertTrue(file.delete());
+    }
+
+    private RedisConfigBuilder redis(SnowflakeIdGenerateBuilder builder, FakeRedisServer redisServer, int port) {
+        return builder.useJedisRedis("127.0.0.1", redisServer.getPort(), null, 0)
+                .applicationName("bootstrap-test")
+                .ip("10.0.0.1")
+                .port(port)
+                .fileCachePath(fileCachePath.getAbsolutePath())
+                .schedulePeriod(1)
+                .scheduleTimeUnit(TimeUnit.SECONDS)
+                .reclaimMarginMillis(RECLAIM_MARGIN_MILLIS)
+                .timeSource(timeSource)
+                .bitLayout(TWO_WORKERS)
+                .leaseExpiryPolicy(LeaseExpiryPolicy.REJECT);
+    }
+
+    /**
+     * 同步注册一次并关闭, 关闭时把租约写入本地状态文件
+     */
+    private long register(FakeRedisServer redisServer, int port) throws IOException {
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            return redis(builder, redisServer, port).build().getWorkerId();
+        }
+    }
+
+    @Test
+    public void testSyncWithoutCachedLease() throws Exception {
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            RedisConfigBuilder configBuilder = redis(builder, server, 1).asyncBootstrap(true);
+            SnowflakeIdGenerate snowflakeIdGenerate = configBuilder.build();
+            Assert.assertTrue(configBuilder.getRegistration().isDone());
+            Assert.assertSame(snowflakeIdGenerate, configBuilder.getRegistration().join());
+        }
+    }
+
+    @Test
+    public void testSyncWithExpiredCachedLease() throws Exception {
+        Assert.assertEquals(0L, register(server, 1));
+        timeSource.set(NOW + LEASE_MILLIS);
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            RedisConfigBuilder configBuilder = redis(builder, server, 1).asyncBootstrap(true);
+            SnowflakeIdGenerate snowflakeIdGenerate = configBuilder.build();
+            Assert.assertTrue(configBuilder.getRegistration().isDone());
+            Assert.assertSame(snowflakeIdGenerate, configBuilder.getRegistration().join());
+            Assert.assertEquals(NOW + LEASE_MILLIS * 2, snowflakeIdGenerate.getLeaseExpireAt());
+        }
+    }
+
+    @Test
+    public void testHandoverToSameWorker() throws Exception {
+        Assert.assertEquals(0L, register(server, 1));
+        timeSource.set(NOW + 1000L);
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            RedisConfigBuilder configBuilder = redis(builder, server, 1).asyncBootstrap(true);
+            SnowflakeIdGenerate bootstrap = configBuilder.build();
+            Assert.assertEquals(0L, bootstrap.getWorkerId());
+            Assert.assertTrue(bootstrap.nextId() > 0);
+
+            //注册结果一致, 续租直接作用在缓存创建的生成器上
+            Assert.assertSame(bootstrap, configBuilder.getRegistration().get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(NOW + 1000L + LEASE_MILLIS, bootstrap.getLeaseExpireAt());
+        }
+    }
+
+    @Test
+    public void testHandoverToOtherWorker() throws Exception {
+        Assert.assertEquals(0L, register(server, 1));
+        //redis数据丢失后缓存的顺序号0先被其他实例注册走
+        try (FakeRedisServer other = new FakeRedisServer();
+             SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            Assert.assertEquals(0L, register(other, 2));
+            RedisConfigBuilder configBuilder = redis(builder, other, 1).asyncBootstrap(true);
+            SnowflakeIdGenerate bootstrap = configBuilder.build();
+            Assert.assertEquals(0L, bootstrap.getWorkerId());
+
+            SnowflakeIdGenerate registered = configBuilder.getRegistration().get(5, TimeUnit.SECONDS);
+            Assert.assertNotSame(bootstrap, registered);
+            Assert.assertEquals(1L, registered.getWorkerId());
+            Assert.assertEquals(1L, TWO_WORKERS.parseWorkerId(registered.nextId()));
+            //缓存的生成器收回租约后拒绝生成, 不会和注册走顺序号0的实例重复
+            Assert.assertTrue(bootstrap.isLeaseExpired());
+            try {
+                bootstrap.nextId();
+                Assert.fail();
+            } catch (IllegalStateException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testRetryAfterFailedRegistration() throws Exception {
+        Assert.assertEquals(0L, register(server, 1));
+        try (FakeRedisServer other = new FakeRedisServer();
+             SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            Assert.assertEquals(0L, register(other, 2));
+            Assert.assertEquals(1L, register(other, 3));
+            //顺序号空间已用完, 注册失败后每个上报周期重试, 期间缓存的生成器继续生成
+            RedisConfigBuilder configBuilder = redis(builder, other, 1).asyncBootstrap(true);
+            SnowflakeIdGenerate bootstrap = configBuilder.build();
+            Thread.sleep(200L);
+            Assert.assertFalse(configBuilder.getRegistration().isDone());
+            Assert.assertEquals(0L, TWO_WORKERS.parseWorkerId(bootstrap.nextId()));
+
+            //其他两个实例的顺序号过了租约和回收余量后可以回收, 重试注册拿到和缓存一致的顺序号0
+            timeSource.set(NOW + LEASE_MILLIS + RECLAIM_MARGIN_MILLIS);
+            Assert.assertSame(bootstrap, configBuilder.getRegistration().get(5, TimeUnit.SECONDS));
+            Assert.assertFalse(bootstrap.isLeaseExpired());
+            Assert.assertEquals(0L, TWO_WORKERS.parseWorkerId(bootstrap.nextId()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectDegradedPolicy() throws Exception {
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            redis(builder, server, 1)
+                    .leaseExpiryPolicy(LeaseExpiryPolicy.DEGRADED)
+                    .asyncBootstrap(true)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package cn.t0mpi9.snowflake.builder;
+
+import cn.t0mpi9.snowflake.Constant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 进程内的redis协议模拟服务, 只实现RedisConfigBuilder注册、心跳和号段领取用到的命令, 给redis注册的测试和注册延迟的benchmark用
+ * <br/>
+ * 所有命令在一把锁内串行执行, 和redis单线程执行一致。EVAL只认识{@link Constant}中的脚本, 用java模拟脚本逻辑;
+ * EVAL和SCRIPT LOAD过的脚本按SHA1缓存, EVALSHA找不到时和redis一样返回NOSCRIPT错误
+ * <br/>
+ * Created on 2020/7/20 10:30.
+ *
+ * @author zhubenle
+ */
+public class FakeRedisServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FakeRedisServer.class);
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "fake-redis");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+    private final Map<String, String> strings = new HashMap<>();
+    private final Map<String, String> scripts = new HashMap<>();
+    private final Map<String, BitSet> bitmaps = new HashMap<>();
+    private final Map<String, Map<String, Long>> zsets = new HashMap<>();
+    private int evalCount;
+    private volatile long responseDelayMillis;
+    private int evalShaCount;
+
+    public FakeRedisServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return 收到的EVAL次数, 即传输脚本全文的次数
+     */
+    public synchronized int getEvalCount() {
+        return evalCount;
+    }
+
+    public synchronized int getEvalShaCount() {
+        return evalShaCount;
+    }
+
+    /**
+     * 模拟redis变慢, 每个命令执行前等待, 不占用执行命令的锁
+     */
+    public void setResponseDelayMillis(long responseDelayMillis) {
+        this.responseDelayMillis = responseDelayMillis;
+    }
+
+    /**
+     * 模拟redis重启或SCRIPT FLUSH后脚本缓存丢失
+     */
+    public synchronized void flushScripts() {
+        scripts.clear();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOGGER.error("fake redis accept异常", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             InputStream in = new BufferedInputStream(s.getInputStream());
+             OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+            for (; ; ) {
+                List<String> command = readCommand(in);
+                if (responseDelayMillis > 0) {
+                    Thread.sleep(responseDelayMillis);
+                }
+                synchronized (this) {
+                    execute(command, out);
+                }
+                out.flush();
+            }
+        } catch (EOFException | SocketException | InterruptedException e) {
+            //客户端关闭连接或服务关闭
+        } catch (IOException e) {
+            LOGGER.error("fake redis处理命令异常", e);
+        }
+    }
+
+    private void execute(List<String> command, OutputStream out) throws IOException {
+        String name = command.get(0).toUpperCase();
+        switch (name) {
+            case "PING":
+                writeSimple(out, "PONG");
+                break;
+            case "AUTH":
+            case "SELECT":
+            case "CLIENT":
+                writeSimple(out, "OK");
+                break;
+            case "HGET":
+                writeBulk(out, hash(command.get(1)).get(command.get(2)));
+                break;
+            case "HSET":
+                writeInteger(out, hash(command.get(1)).put(command.get(2), command.get(3)) == null ? 1 : 0);
+                break;
+            case "GET":
+                writeBulk(out, strings.get(command.get(1)));
+                break;
+            case "SET":
+                strings.put(command.get(1), command.get(2));
+                writeSimple(out, "OK");
+                break;
+            case "INCRBY":
+                long value = Long.parseLong(strings.getOrDefault(command.get(1), "0")) + Long.parseLong(command.get(2));
+                strings.put(command.get(1), String.valueOf(value));
+                writeInteger(out, value);
+                break;
+            case "EVAL":
+                evalCount++;
+                scripts.put(sha1Hex(command.get(1)), command.get(1));
+                eval(command.get(1), command, out);
+                break;
+            case "EVALSHA":
+                evalShaCount++;
+                String script = scripts.get(command.get(1).toLowerCase());
+                if (script == null) {
+                    writeError(out, "NOSCRIPT No matching script. Please use EVAL.");
+                } else {
+                    eval(script, command, out);
+                }
+                break;
+            case "SCRIPT":
+                if ("LOAD".equalsIgnoreCase(command.get(1))) {
+                    String sha = sha1Hex(command.get(2));
+                    scripts.put(sha, command.get(2));
+                    writeBulk(out, sha);
+                } else if ("FLUSH".equalsIgnoreCase(command.get(1))) {
+                    scripts.clear();
+                    writeSimple(out, "OK");
+                } else {
+                    writeError(out, "ERR unknown subcommand '" + command.get(1) + "'");
+                }
+                break;
+            default:
+                writeError(out, "ERR unknown command '" + name + "'");
+        }
+    }
+
+    private void eval(String script, List<String> command, OutputStream out) throws IOException {
+        int numKeys = Integer.parseInt(command.get(2));
+        List<String> keys = command.subList(3, 3 + numKeys);
+        List<String> args = command.subList(3 + numKeys, command.size());
+        if (Constant.REDIS_REGISTER_SCRIPT.equals(script)) {
+            writeBulk(out, register(keys, args));
+        } else if (Constant.REDIS_HEARTBEAT_SCRIPT.equals(script)) {
+            writeBulk(out, heartbeat(keys, args));
+        } else if (Constant.REDIS_BATCH_HEARTBEAT_SCRIPT.equals(script)) {
+            StringBuilder result = new StringBuilder();
+            int k = 0;
+            int a = 1;
+            for (int n = Integer.parseInt(args.get(0)); n > 0; n--) {
+                int count = Integer.parseInt(args.get(a));
+                result.append(result.length() > 0 ? Constant.COLON : "")
+                        .append(heartbeat(keys.subList(k, k + count), args.subList(a + 1, a + count)));
+                k += count;
+                a += count;
+            }
+            writeBulk(out, result.toString());
+        } else {
+            writeError(out, "ERR unknown script");
+        }
+    }
+
+    /**
+     * 同{@link Constant#REDIS_HEARTBEAT_SCRIPT}
+     */
+    private String heartbeat(List<String> keys, List<String> args) {
+        for (int i = 3; i < keys.size(); i++) {
+            if (!args.get(i - 1).equals(hash(keys.get(0)).get(keys.get(i)))) {
+                return "0";
+            }
+        }
+        for (int i = 3; i < keys.size(); i++) {
+            hash(keys.get(1)).put(keys.get(i), args.get(0));
+            zset(keys.get(2)).put(keys.get(i), Long.parseLong(args.get(1)));
+        }
+        return "1";
+    }
+
+    /**
+     * 同{@link Constant#REDIS_REGISTER_SCRIPT}
+     */
+    private String register(List<String> keys, List<String> args) {
+        long now = Long.parseLong(args.get(0));
+        long borrow = Long.parseLong(args.get(1));
+        long lease = Long.parseLong(args.get(2));
+        long margin = Long.parseLong(args.get(3));
+        long space = Long.parseLong(args.get(4));
+        Map<String, String> persistent = hash(keys.get(0));
+        Map<String, String> times = hash(keys.get(1));
+        Map<String, Long> leases = zset(keys.get(3));
+        long initial = 0L;
+        String pre = times.get(keys.get(4));
+        if (pre != null) {
+            if (now + borrow < Long.parseLong(pre)) {
+                return "-1:" + pre;
+            }
+            if (borrow > 0) {
+                initial = Math.max(now, Long.parseLong(pre)) + borrow;
+            }
+        }
+        BitSet free = bitmaps.get(keys.get(2));
+        if (free == null) {
+            free = new BitSet();
+            for (Map.Entry<String, String> entry : persistent.entrySet()) {
+                free.set(Integer.parseInt(entry.getValue()));
+                String t = times.get(entry.getKey());
+                leases.put(entry.getKey(), (t == null ? now : Long.parseLong(t)) + lease);
+            }
+            if (!free.isEmpty()) {
+                bitmaps.put(keys.get(2), free);
+            }
+        }
+        List<String> dead = new ArrayList<>();
+        leases.entrySet().stream()
+                .filter(e -> e.getValue() <= now - margin)
+                .sorted(Map.Entry.comparingByValue())
+                .limit(16)
+                .forEach(e -> dead.add(e.getKey()));
+        for (String member : dead) {
+            String t = times.get(member);
+            if (t == null || Long.parseLong(t) + margin < now) {
+                String sequential = persistent.remove(member);
+                if (sequential != null) {
+                    free.clear(Integer.parseInt(sequential));
+                }
+                times.remove(member);
+                leases.remove(member);
+            }
+        }
+        String time = String.valueOf(Math.max(now, initial));
+        StringBuilder result = new StringBuilder();
+        for (int i = 4; i < keys.size(); i++) {
+            String field = keys.get(i);
+            String sequential = persistent.get(field);
+            if (sequential == null || Long.parseLong(sequential) >= space) {
+                int pos = free.nextClearBit(0);
+                while (pos < space && persistent.containsValue(String.valueOf(pos))) {
+                    free.set(pos);
+                    pos = free.nextClearBit(pos);
+                }
+                if (pos >= space) {
+                    return "-2:" + space;
+                }
+                sequential = String.valueOf(pos);
+                persistent.put(field, sequential);
+            }
+            free.set(Integer.parseInt(sequential));
+            bitmaps.put(keys.get(2), free);
+            times.put(field, time);
+            leases.put(field, now + lease);
+            result.append(sequential);
+            if (i == 4) {
+                result.append(':').append(initial);
+            }
+            if (i + 1 < keys.size()) {
+                result.append(':');
+            }
+        }
+        return result.toString();
+    }
+
+    private Map<String, Long> zset(String key) {
+        return zsets.computeIfAbsent(key, k -> new HashMap<>());
+    }
+
+    private static String sha1Hex(String script) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<String, String> hash(String key) {
+        return hashes.computeIfAbsent(key, k -> new HashMap<>());
+    }
+
+    /**
+     * 客户端发送的命令都是bulk string数组
+     */
+    private static List<String> readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (header.charAt(0) != '*') {
+            throw new IOException("不支持的请求: " + header);
+        }
+        int count = Integer.parseInt(header.substring(1));
+        List<String> command = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String lengthLine = readLine(in);
+            int length = Integer.parseInt(lengthLine.substring(1));
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(bytes, read, length - read);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                read += n;
+            }
+            readLine(in);
+            command.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (; ; ) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b == '\r') {
+                in.read();
+                return sb.toString();
+            }
+            sb.append((char) b);
+        }
+    }
+
+    private static void writeSimple(OutputStream out, String value) throws IOException {
+        out.write(('+' + value + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeError(OutputStream out, String message) throws IOException {
+        out.write(('-' + message + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeInteger(OutputStream out, long value) throws IOException {
+        out.write((":" + value + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBulk(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(('$' + String.valueOf(bytes.length) + "\r\n").getBytes(StandardCharsets.UTF_8));
+        out.write(bytes);
+        out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+}
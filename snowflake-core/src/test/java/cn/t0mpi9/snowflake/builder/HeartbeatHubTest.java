@@ -0,0 +1,136 @@
+package cn.t0mpi9.snowflake.builder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 心跳组的创建、合并上报、最后一个成员退出后停止, 以及组刚被移除时加入的重新创建
+ * <br/>
+ * Created on 2020/8/7 17:00.
+ *
+ * @author zhubenle
+ */
+public class HeartbeatHubTest {
+
+    private static final long PERIOD_MILLIS = 50L;
+
+    @Test
+    public void testCoalesceMembers() throws Exception {
+        Object key = new Object();
+        RecordingBatch batch = new RecordingBatch();
+        RecordingBatch ignored = new RecordingBatch();
+        Closeable a = HeartbeatHub.shared().register(key, PERIOD_MILLIS, batch, "a");
+        Closeable b = HeartbeatHub.shared().register(key, PERIOD_MILLIS, ignored, "b");
+        try {
+            //同一个key的成员每个周期合并成一次调用, 组已存在时传入的batch不使用
+            batch.await(Arrays.asList("a", "b"));
+            Assert.assertTrue(ignored.beats.isEmpty());
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    @Test
+    public void testStopAfterLastMemberLeaves() throws Exception {
+        Object key = new Object();
+        RecordingBatch batch = new RecordingBatch();
+        Closeable a = HeartbeatHub.shared().register(key, PERIOD_MILLIS, batch, "a");
+        Closeable b = HeartbeatHub.shared().register(key, PERIOD_MILLIS, batch, "b");
+        batch.await(Arrays.asList("a", "b"));
+        HeartbeatHub.Group<String> group = batch.group.get();
+
+        a.close();
+        batch.await(Collections.singletonList("b"));
+        b.close();
+        batch.assertStopped();
+
+        //组已移除, 再加入时重新创建并开始上报
+        RecordingBatch next = new RecordingBatch();
+        Closeable c = HeartbeatHub.shared().register(key, PERIOD_MILLIS, next, "c");
+        try {
+            next.await(Collections.singletonList("c"));
+            Assert.assertNotSame(group, next.group.get());
+            Assert.assertTrue(batch.beats.isEmpty());
+        } finally {
+            c.close();
+        }
+    }
+
+    @Test
+    public void testRecreateRemovedGroup() throws Exception {
+        Object key = new Object();
+        RecordingBatch batch = new RecordingBatch();
+        Closeable a = HeartbeatHub.shared().register(key, PERIOD_MILLIS, batch, "a");
+        batch.await(Collections.singletonList("a"));
+        HeartbeatHub.Group<String> group = batch.group.get();
+
+        RecordingBatch next = new RecordingBatch();
+        AtomicReference<Closeable> c = new AtomicReference<>();
+        Thread joiner = new Thread(() -> c.set(HeartbeatHub.shared().register(key, PERIOD_MILLIS, next, "c")));
+        synchronized (group) {
+            //加入的线程已经从map中取到旧组, 等待组的锁时最后一个成员退出
+            joiner.start();
+            long deadline = System.currentTimeMillis() + 2000L;
+            while (joiner.getState() != Thread.State.BLOCKED && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(Thread.State.BLOCKED, joiner.getState());
+            a.close();
+        }
+        joiner.join(2000L);
+        Assert.assertNotNull(c.get());
+        try {
+            //旧组已标记removed, 加入的线程重新创建组, 而不是加入已经停止上报的旧组
+            next.await(Collections.singletonList("c"));
+            Assert.assertNotSame(group, next.group.get());
+            batch.assertStopped();
+        } finally {
+            c.get().close();
+        }
+    }
+
+    private static final class RecordingBatch implements HeartbeatHub.Batch<String> {
+        private final BlockingQueue<List<String>> beats = new LinkedBlockingQueue<>();
+        private final AtomicReference<HeartbeatHub.Group<String>> group = new AtomicReference<>();
+
+        @Override
+        public void beat(HeartbeatHub.Group<String> group, List<String> members) {
+            this.group.set(group);
+            beats.add(new ArrayList<>(members));
+        }
+
+        /**
+         * 等到一次成员是expected的上报, 加入后下一个周期才生效, 之前的上报跳过
+         */
+        void await(List<String> expected) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            List<String> members;
+            do {
+                members = beats.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                Assert.assertNotNull("没有等到成员是" + expected + "的上报", members);
+            } while (!expected.equals(members));
+            beats.clear();
+        }
+
+        /**
+         * 正在执行的上报结束后不再上报
+         */
+        void assertStopped() throws InterruptedException {
+            Thread.sleep(PERIOD_MILLIS * 2);
+            beats.clear();
+            Thread.sleep(PERIOD_MILLIS * 3);
+            Assert.assertTrue(beats.isEmpty());
+        }
+    }
+}
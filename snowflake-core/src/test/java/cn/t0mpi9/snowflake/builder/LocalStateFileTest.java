@@ -0,0 +1,158 @@
+package cn.t0mpi9.snowflake.builder;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * 本地状态文件的双槽写入、损坏后退回上一代记录和高水位只增不减
+ * <br/>
+ * Created on 2020/8/7 15:00.
+ *
+ * @author zhubenle
+ */
+public class LocalStateFileTest {
+
+    private static final int RECORD_SIZE = 64;
+    private static final int CRC_OFFSET = RECORD_SIZE - 8;
+    private static final int HIGH_WATER_OFFSET = 32;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("snowflake-state", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        Assert.assertTrue(file.delete());
+    }
+
+    /**
+     * 写两代记录: 第1代在槽0, 高水位0; 第2代在槽1, 高水位100
+     */
+    private void writeTwoGenerations() throws IOException {
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            stateFile.writeAssignment(1, 2, -1, -1);
+            stateFile.update(100L, 200L);
+        }
+    }
+
+    private void flip(long position) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.seek(position);
+            int b = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(b ^ 0xFF);
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            Assert.assertNull(stateFile.read());
+            //还没有workerId分配时不写
+            stateFile.update(100L, 200L);
+            Assert.assertNull(stateFile.read());
+        }
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            Assert.assertNull(stateFile.read());
+        }
+    }
+
+    @Test
+    public void testReadNewestGeneration() throws IOException {
+        writeTwoGenerations();
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            LocalStateFile.State state = stateFile.read();
+            Assert.assertEquals(1L, state.getDataCenterId());
+            Assert.assertEquals(2L, state.getWorkerId());
+            Assert.assertEquals(-1L, state.getBackupDataCenterId());
+            Assert.assertEquals(-1L, state.getBackupWorkerId());
+            Assert.assertEquals(100L, state.getHighWater());
+            Assert.assertEquals(200L, state.getLeaseExpireAt());
+
+            //重新分配保留高水位, 租约到期时间清零
+            stateFile.writeAssignment(3, 4, 5, 6);
+        }
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            LocalStateFile.State state = stateFile.read();
+            Assert.assertEquals(3L, state.getDataCenterId());
+            Assert.assertEquals(6L, state.getBackupWorkerId());
+            Assert.assertEquals(100L, state.getHighWater());
+            Assert.assertEquals(0L, state.getLeaseExpireAt());
+        }
+    }
+
+    @Test
+    public void testCorruptNewestSlot() throws IOException {
+        writeTwoGenerations();
+        //写到一半崩溃, 最新的槽数据和CRC不一致
+        flip(RECORD_SIZE + HIGH_WATER_OFFSET);
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            LocalStateFile.State state = stateFile.read();
+            Assert.assertEquals(2L, state.getWorkerId());
+            Assert.assertEquals(0L, state.getHighWater());
+
+            //下一次写入覆盖损坏的槽
+            stateFile.update(150L, 250L);
+        }
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            Assert.assertEquals(150L, stateFile.read().getHighWater());
+        }
+    }
+
+    @Test
+    public void testCorruptNewestCrc() throws IOException {
+        writeTwoGenerations();
+        flip(RECORD_SIZE + CRC_OFFSET + 7);
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            Assert.assertEquals(0L, stateFile.read().getHighWater());
+        }
+    }
+
+    @Test
+    public void testCorruptOlderSlot() throws IOException {
+        writeTwoGenerations();
+        flip(HIGH_WATER_OFFSET);
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            Assert.assertEquals(100L, stateFile.read().getHighWater());
+        }
+        //两个槽都损坏时没有记录
+        flip(RECORD_SIZE + CRC_OFFSET);
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            Assert.assertNull(stateFile.read());
+        }
+    }
+
+    @Test
+    public void testHighWaterNeverLowered() throws IOException {
+        writeTwoGenerations();
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            //租约到期时间变化时仍然写入, 高水位保持原值
+            stateFile.update(50L, 300L);
+            Assert.assertEquals(100L, stateFile.read().getHighWater());
+            Assert.assertEquals(300L, stateFile.read().getLeaseExpireAt());
+            stateFile.update(100L, 300L);
+            stateFile.update(120L, 300L);
+            Assert.assertEquals(120L, stateFile.read().getHighWater());
+        }
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            Assert.assertEquals(120L, stateFile.read().getHighWater());
+            Assert.assertEquals(300L, stateFile.read().getLeaseExpireAt());
+            stateFile.update(10L, 300L);
+            Assert.assertEquals(120L, stateFile.read().getHighWater());
+        }
+        //上面两次较小的高水位都没有写入, 损坏最新的槽后退回的上一代是update(50L, 300L)写入的100
+        flip(RECORD_SIZE + HIGH_WATER_OFFSET);
+        try (LocalStateFile stateFile = LocalStateFile.open(file)) {
+            Assert.assertEquals(100L, stateFile.read().getHighWater());
+        }
+    }
+}
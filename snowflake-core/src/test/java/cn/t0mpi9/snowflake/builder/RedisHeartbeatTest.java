@@ -0,0 +1,135 @@
+package cn.t0mpi9.snowflake.builder;
+
+import cn.t0mpi9.snowflake.GenerateMetrics;
+import cn.t0mpi9.snowflake.time.ManualTimeSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * redis批量续租的跳过、超时和提前续租, 用{@link FakeRedisServer#setResponseDelayMillis(long)}模拟redis变慢
+ * <br/>
+ * Created on 2020/8/8 11:00.
+ *
+ * @author zhubenle
+ */
+public class RedisHeartbeatTest {
+
+    private static final long PERIOD_MILLIS = 100L;
+    private static final long RECLAIM_MARGIN_MILLIS = 30000L;
+
+    private FakeRedisServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeRedisServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private RedisConfigBuilder redis(SnowflakeIdGenerateBuilder builder, int port) {
+        return builder.useJedisRedis("127.0.0.1", server.getPort(), null, 0)
+                .applicationName("heartbeat-test")
+                .ip("10.0.0.1")
+                .port(port)
+                .localFileCache(false)
+                .schedulePeriod(PERIOD_MILLIS)
+                .scheduleTimeUnit(TimeUnit.MILLISECONDS)
+                .reclaimMarginMillis(RECLAIM_MARGIN_MILLIS);
+    }
+
+    /**
+     * 等到count达到expected
+     */
+    private static void await(LongSupplier count, long expected, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (count.getAsLong() < expected) {
+            Assert.assertTrue("没有等到" + expected + "次, 当前" + count.getAsLong(), System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testSkipBeatWhileInFlight() throws Exception {
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            GenerateMetrics metrics = redis(builder, 1).build().getMetrics();
+            await(metrics::getHeartbeatSuccessCount, 1, 2000L);
+            long renewed = metrics.getHeartbeatSuccessCount();
+
+            //每次续租500ms, 期间的周期跳过; 如果排在慢的续租后面, redis恢复时积压的续租会一起发出
+            server.setResponseDelayMillis(500L);
+            Thread.sleep(2000L);
+            server.setResponseDelayMillis(0L);
+            //等最后一次慢的续租返回
+            Thread.sleep(600L);
+            long during = metrics.getHeartbeatSuccessCount() - renewed;
+            Assert.assertTrue("续租" + during + "次", during >= 2 && during <= 8);
+            Assert.assertEquals(0L, metrics.getHeartbeatFailureCount());
+        }
+    }
+
+    @Test
+    public void testTimeoutRecordsFailure() throws Exception {
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            GenerateMetrics metrics = redis(builder, 1).heartbeatTimeoutMillis(150L).build().getMetrics();
+            await(metrics::getHeartbeatSuccessCount, 1, 2000L);
+
+            server.setResponseDelayMillis(500L);
+            //设置之前已经发出的续租不受影响
+            Thread.sleep(PERIOD_MILLIS);
+            long renewed = metrics.getHeartbeatSuccessCount();
+            //超过150ms没有返回按失败处理, 不等redis返回
+            await(metrics::getHeartbeatFailureCount, 1, 400L);
+            Assert.assertEquals(renewed, metrics.getHeartbeatSuccessCount());
+
+            //redis恢复后继续续租
+            server.setResponseDelayMillis(0L);
+            await(metrics::getHeartbeatSuccessCount, renewed + 1, 2000L);
+        }
+    }
+
+    @Test
+    public void testRenewEarly() throws Exception {
+        ManualTimeSource timeSource = new ManualTimeSource(1596787200000L);
+        //周期10s, 租约20s
+        server.setResponseDelayMillis(300L);
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            GenerateMetrics metrics = redis(builder, 1)
+                    .adaptiveHeartbeat(true)
+                    .schedulePeriod(10)
+                    .scheduleTimeUnit(TimeUnit.SECONDS)
+                    .timeSource(timeSource)
+                    .build()
+                    .getMetrics();
+            //第一次续租在build之后立即发出, 返回之前把时钟拨快16s, 相当于这次续租用了16s,
+            //剩余的4s租约不够下一个周期, 在剩余时间过半时(2.5s, 至少四分之一个周期)提前续租
+            Thread.sleep(100L);
+            timeSource.advance(16000L);
+            await(metrics::getHeartbeatSuccessCount, 1, 2000L);
+            long renewedAt = System.currentTimeMillis();
+            await(metrics::getHeartbeatSuccessCount, 2, 5000L);
+            long delay = System.currentTimeMillis() - renewedAt;
+            Assert.assertTrue("提前续租间隔" + delay + "ms", delay >= 2000L && delay < 5000L);
+        }
+    }
+
+    @Test
+    public void testSlowJedisDoesNotBlockHeartbeatThread() throws Exception {
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            redis(builder, 1).build();
+            server.setResponseDelayMillis(1000L);
+            //等到有一次续租在等redis返回
+            Thread.sleep(PERIOD_MILLIS * 3);
+            //jedis的同步调用不在心跳线程中执行, 心跳线程上的其他组、超时检查和本地状态文件写入照常运行
+            HeartbeatHub.shared().getExecutor().submit(() -> {
+            }).get(PERIOD_MILLIS * 3, TimeUnit.MILLISECONDS);
+        }
+    }
+}
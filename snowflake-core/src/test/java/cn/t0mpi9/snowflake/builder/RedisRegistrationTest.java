@@ -0,0 +1,144 @@
+package cn.t0mpi9.snowflake.builder;
+
+import cn.t0mpi9.snowflake.BitLayout;
+import cn.t0mpi9.snowflake.RollbackStrategy;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.time.ManualTimeSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * redis注册脚本的顺序号分配、过期回收、时钟检查和备用顺序号, 用{@link FakeRedisServer}在本机回环上测试
+ * <br/>
+ * Created on 2020/8/7 10:00.
+ *
+ * @author zhubenle
+ */
+public class RedisRegistrationTest {
+
+    private static final long NOW = 1596787200000L;
+    /**
+     * 上报周期1s, 租约11s
+     */
+    private static final long LEASE_MILLIS = 11000L;
+    private static final long RECLAIM_MARGIN_MILLIS = 20000L;
+
+    private FakeRedisServer server;
+    private ManualTimeSource timeSource;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeRedisServer();
+        timeSource = new ManualTimeSource(NOW);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private RedisConfigBuilder redis(SnowflakeIdGenerateBuilder builder, int port) {
+        return builder.useJedisRedis("127.0.0.1", server.getPort(), null, 0)
+                .applicationName("registration-test")
+                .ip("10.0.0.1")
+                .port(port)
+                .localFileCache(false)
+                .schedulePeriod(1)
+                .scheduleTimeUnit(TimeUnit.SECONDS)
+                .reclaimMarginMillis(RECLAIM_MARGIN_MILLIS)
+                .timeSource(timeSource);
+    }
+
+    private long register(int port, BitLayout bitLayout) throws Exception {
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            SnowflakeIdGenerate snowflakeIdGenerate = redis(builder, port).bitLayout(bitLayout).build();
+            return snowflakeIdGenerate.getDataCenterId() << bitLayout.getWorkerIdBits() | snowflakeIdGenerate.getWorkerId();
+        }
+    }
+
+    private static String registerError(ThrowingRunnable runnable) {
+        try {
+            runnable.run();
+        } catch (Exception e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            return e.getCause().getMessage();
+        }
+        throw new AssertionError("注册应该失败");
+    }
+
+    @Test
+    public void testRegisterFromFreeList() throws Exception {
+        Assert.assertEquals(0L, register(1, BitLayout.DEFAULT));
+        Assert.assertEquals(1L, register(2, BitLayout.DEFAULT));
+        Assert.assertEquals(2L, register(3, BitLayout.DEFAULT));
+        //租约还没过期, 同一个ip:port重新注册拿回原来的顺序号
+        timeSource.advance(1000L);
+        Assert.assertEquals(1L, register(2, BitLayout.DEFAULT));
+        Assert.assertEquals(3L, register(4, BitLayout.DEFAULT));
+    }
+
+    @Test
+    public void testSkipLegacyAllocation() throws Exception {
+        Assert.assertEquals(0L, register(1, BitLayout.DEFAULT));
+        //滚动升级期间旧版本实例按HVALS取max+1写入hash, 不设置bitmap
+        try (Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            jedis.hset("snowflake-id-generate:registration-test:persistent", "10.0.0.9:1", "1");
+        }
+        Assert.assertEquals(2L, register(2, BitLayout.DEFAULT));
+        Assert.assertEquals(3L, register(3, BitLayout.DEFAULT));
+    }
+
+    @Test
+    public void testReclaimAfterLeaseAndMargin() throws Exception {
+        BitLayout twoWorkers = BitLayout.builder().dataCenterIdBits(0).workerIdBits(1).build();
+        Assert.assertEquals(0L, register(1, twoWorkers));
+        Assert.assertEquals(1L, register(2, twoWorkers));
+
+        String message = registerError(() -> register(3, twoWorkers));
+        Assert.assertTrue(message, message.contains("[0, 2)"));
+
+        //租约到期之后还要再过回收余量才能回收
+        timeSource.set(NOW + LEASE_MILLIS + RECLAIM_MARGIN_MILLIS - 1);
+        registerError(() -> register(3, twoWorkers));
+
+        timeSource.set(NOW + LEASE_MILLIS + RECLAIM_MARGIN_MILLIS);
+        Assert.assertEquals(0L, register(3, twoWorkers));
+        Assert.assertEquals(1L, register(4, twoWorkers));
+        registerError(() -> register(5, twoWorkers));
+    }
+
+    @Test
+    public void testRejectClockBehindLastReport() throws Exception {
+        register(1, BitLayout.DEFAULT);
+        timeSource.set(NOW - 60000L);
+        String message = registerError(() -> register(1, BitLayout.DEFAULT));
+        Assert.assertTrue(message, message.contains(String.valueOf(NOW)));
+        //其他ip:port没有上报记录, 不受影响
+        Assert.assertEquals(1L, register(2, BitLayout.DEFAULT));
+    }
+
+    @Test
+    public void testBackupSequential() throws Exception {
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            SnowflakeIdGenerate snowflakeIdGenerate = redis(builder, 1)
+                    .rollbackStrategy(RollbackStrategy.BACKUP_WORKER)
+                    .build();
+            Assert.assertEquals(0L, SnowflakeIdGenerate.parseWorkerId(snowflakeIdGenerate.nextId()));
+
+            //时钟后移, 切换到注册时一起分配的备用顺序号
+            timeSource.set(NOW - 5000L);
+            Assert.assertEquals(1L, SnowflakeIdGenerate.parseWorkerId(snowflakeIdGenerate.nextId()));
+        }
+        timeSource.set(NOW + 1000L);
+        Assert.assertEquals(2L, register(2, BitLayout.DEFAULT));
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
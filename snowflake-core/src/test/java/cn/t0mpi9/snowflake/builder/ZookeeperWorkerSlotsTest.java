@@ -0,0 +1,316 @@
+package cn.t0mpi9.snowflake.builder;
+
+import cn.t0mpi9.snowflake.BitLayout;
+import cn.t0mpi9.snowflake.LeaseExpiryPolicy;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.time.ManualTimeSource;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.listen.ListenerManager;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.CreateMode;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * zookeeper顺序号slot的分配、回收、旧节点迁移和批量上报, 用curator-test的进程内TestingServer
+ * <br/>
+ * Created on 2020/8/7 14:00.
+ *
+ * @author zhubenle
+ */
+public class ZookeeperWorkerSlotsTest {
+
+    private static final String ROOT = "/snowflake-id-generate/slots-test";
+    private static final long NOW = 1596787200000L;
+    private static final long MARGIN = 1000L;
+    private static final String BOOTSTRAP_ROOT = "/snowflake-id-generate/bootstrap-test";
+    private static final long BOOTSTRAP_MARGIN = 20000L;
+
+    private TestingServer server;
+    private CuratorFramework curator;
+    private ManualTimeSource timeSource;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TestingServer();
+        curator = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        curator.start();
+        timeSource = new ManualTimeSource(NOW);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        curator.close();
+        server.close();
+    }
+
+    private ZookeeperWorkerSlots slots(long space) throws Exception {
+        ZookeeperWorkerSlots slots = new ZookeeperWorkerSlots(curator, ROOT, space, MARGIN, timeSource);
+        slots.start();
+        return slots;
+    }
+
+    private String read(String path) throws Exception {
+        return new String(curator.getData().forPath(path), StandardCharsets.UTF_8);
+    }
+
+    private void write(String path, String data) throws Exception {
+        curator.setData().forPath(path, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testClaimFreeAndOwnSlot() throws Exception {
+        try (ZookeeperWorkerSlots slots = slots(4)) {
+            ZookeeperWorkerSlots.Slot a = slots.claim("10.0.0.1:80");
+            ZookeeperWorkerSlots.Slot b = slots.claim("10.0.0.2:80");
+            Assert.assertEquals(0L, a.getSequential());
+            Assert.assertEquals(1L, b.getSequential());
+            Assert.assertEquals(-1L, a.getPreTimestamp());
+            Assert.assertTrue(slots.renew(a, NOW + 5));
+        }
+        //重新加载后同一个owner拿回自己的slot和上次上报的时间戳
+        try (ZookeeperWorkerSlots slots = slots(4)) {
+            ZookeeperWorkerSlots.Slot a = slots.claim("10.0.0.1:80");
+            Assert.assertEquals(0L, a.getSequential());
+            Assert.assertEquals(NOW + 5, a.getPreTimestamp());
+        }
+    }
+
+    @Test
+    public void testTakeoverOfflineSlot() throws Exception {
+        ZookeeperWorkerSlots.Slot a;
+        ZookeeperWorkerSlots.Slot b;
+        try (ZookeeperWorkerSlots slots = slots(2)) {
+            a = slots.claim("10.0.0.1:80");
+            b = slots.claim("10.0.0.2:80");
+        }
+        //10.0.0.1还有临时节点, 不算下线
+        curator.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                .forPath(ROOT + "/ephemeral/10.0.0.1:80");
+        //重新加载, 初始缓存是同步加载的, 包含上面两个slot
+        try (ZookeeperWorkerSlots slots = slots(2)) {
+            //上报的时间戳早于当前时间还没超过回收余量
+            timeSource.set(NOW + MARGIN);
+            try {
+                slots.claim("10.0.0.3:80");
+                Assert.fail();
+            } catch (IllegalStateException expected) {
+            }
+
+            timeSource.set(NOW + MARGIN + 1);
+            ZookeeperWorkerSlots.Slot c = slots.claim("10.0.0.3:80");
+            Assert.assertEquals(b.getSequential(), c.getSequential());
+            Assert.assertEquals(-1L, c.getPreTimestamp());
+            Assert.assertEquals("10.0.0.3:80," + (NOW + MARGIN + 1), read(c.getPath()));
+
+            //原owner带旧版本号上报失败, 不会覆盖新owner
+            Assert.assertFalse(slots.renew(b, NOW + MARGIN + 2));
+            Assert.assertTrue(slots.renew(a, NOW + MARGIN + 2));
+            Assert.assertEquals("10.0.0.3:80," + (NOW + MARGIN + 1), read(c.getPath()));
+        }
+    }
+
+    @Test
+    public void testLoseTakeoverRace() throws Exception {
+        try (ZookeeperWorkerSlots slots = slots(1)) {
+            slots.claim("10.0.0.1:80");
+        }
+        try (ZookeeperWorkerSlots slots = slots(1)) {
+            timeSource.set(NOW + MARGIN + 1);
+            //其他实例抢先接管; 缓存还是旧版本时本实例带旧版本号setData失败, 缓存已更新时新owner不算下线, 都不能分给本实例
+            write(ROOT + "/slot/0", "10.0.0.9:80," + (NOW + MARGIN + 1));
+            try {
+                slots.claim("10.0.0.2:80");
+                Assert.fail();
+            } catch (IllegalStateException expected) {
+            }
+            Assert.assertEquals("10.0.0.9:80," + (NOW + MARGIN + 1), read(ROOT + "/slot/0"));
+        }
+    }
+
+    @Test
+    public void testRenewRetriesVersionOfSameOwner() throws Exception {
+        try (ZookeeperWorkerSlots slots = slots(2)) {
+            ZookeeperWorkerSlots.Slot a = slots.claim("10.0.0.1:80");
+            //版本变化但owner没变, 例如同一个实例的上一次上报, 重新读取版本后继续
+            write(a.getPath(), "10.0.0.1:80," + (NOW + 1));
+            Assert.assertTrue(slots.renew(a, NOW + 2));
+            Assert.assertEquals("10.0.0.1:80," + (NOW + 2), read(a.getPath()));
+
+            curator.delete().forPath(a.getPath());
+            Assert.assertFalse(slots.renew(a, NOW + 3));
+        }
+    }
+
+    @Test
+    public void testMigrateLegacyNodes() throws Exception {
+        String legacy = ROOT + "/persistent/";
+        curator.create().creatingParentsIfNeeded()
+                .forPath(legacy + "10.0.0.1:80-0000000002", String.valueOf(NOW - 10).getBytes(StandardCharsets.UTF_8));
+        curator.create().creatingParentsIfNeeded()
+                .forPath(legacy + "10.0.0.9:80-0000000003", String.valueOf(NOW - 5000).getBytes(StandardCharsets.UTF_8));
+        try (ZookeeperWorkerSlots slots = slots(4)) {
+            //本实例的旧节点迁移到slot下, 保留上次上报的时间戳
+            ZookeeperWorkerSlots.Slot a = slots.claim("10.0.0.1:80");
+            Assert.assertEquals(2L, a.getSequential());
+            Assert.assertEquals(NOW - 10, a.getPreTimestamp());
+            Assert.assertNull(curator.checkExists().forPath(legacy + "10.0.0.1:80-0000000002"));
+
+            Assert.assertEquals(0L, slots.claim("10.0.0.2:80").getSequential());
+            Assert.assertEquals(1L, slots.claim("10.0.0.3:80").getSequential());
+
+            //其他实例的旧节点在线时仍然占用其顺序号, 下线后回收
+            curator.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL)
+                    .forPath(ROOT + "/ephemeral/10.0.0.9:80");
+            try {
+                slots.claim("10.0.0.4:80");
+                Assert.fail();
+            } catch (IllegalStateException expected) {
+            }
+            curator.delete().forPath(ROOT + "/ephemeral/10.0.0.9:80");
+            ZookeeperWorkerSlots.Slot d = slots.claim("10.0.0.4:80");
+            Assert.assertEquals(3L, d.getSequential());
+            Assert.assertEquals(-1L, d.getPreTimestamp());
+            Assert.assertNull(curator.checkExists().forPath(legacy + "10.0.0.9:80-0000000003"));
+            Assert.assertEquals(Arrays.asList("0", "1", "2", "3"), sorted(curator.getChildren().forPath(ROOT + "/slot")));
+        }
+    }
+
+    @Test
+    public void testRenewAllFallsBackToSingle() throws Exception {
+        try (ZookeeperWorkerSlots slots = slots(4)) {
+            ZookeeperWorkerSlots.Slot a = slots.claim("10.0.0.1:80");
+            ZookeeperWorkerSlots.Slot b = slots.claim("10.0.0.2:80");
+            Assert.assertTrue(ZookeeperWorkerSlots.renewAll(curator, Arrays.asList(a, b), new long[]{NOW + 1, NOW + 2}));
+            Assert.assertEquals("10.0.0.2:80," + (NOW + 2), read(b.getPath()));
+
+            //b被回收后整个事务失败, 都不写入, 逐个上报区分出b
+            write(b.getPath(), "10.0.0.9:80," + NOW);
+            Assert.assertFalse(ZookeeperWorkerSlots.renewAll(curator, Arrays.asList(a, b), new long[]{NOW + 3, NOW + 3}));
+            Assert.assertEquals("10.0.0.1:80," + (NOW + 1), read(a.getPath()));
+            Assert.assertTrue(slots.renew(a, NOW + 3));
+            Assert.assertFalse(slots.renew(b, NOW + 3));
+        }
+    }
+
+    @Test
+    public void testGroupRevokesOnlyStolenSlot() throws Exception {
+        try (SnowflakeIdGenerateBuilder first = SnowflakeIdGenerateBuilder.create();
+             SnowflakeIdGenerateBuilder second = SnowflakeIdGenerateBuilder.create()) {
+            SnowflakeIdGenerate a = zookeeper(first, "10.0.0.1").build();
+            SnowflakeIdGenerate b = zookeeper(second, "10.0.0.2").build();
+            long sequential = b.getDataCenterId() << BitLayout.DEFAULT.getWorkerIdBits() | b.getWorkerId();
+            write("/snowflake-id-generate/group-test/slot/" + sequential, "10.0.0.9:80," + System.currentTimeMillis());
+
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (!b.isLeaseExpired() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertTrue(b.isLeaseExpired());
+            Assert.assertFalse(a.isLeaseExpired());
+            Assert.assertEquals(0L, a.getMetrics().getHeartbeatFailureCount());
+        }
+    }
+
+    @Test
+    public void testAsyncBootstrapRetryReusesSlotCache() throws Exception {
+        File fileCachePath = Files.createTempDirectory("snowflake-zk-bootstrap").toFile();
+        try {
+            try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+                Assert.assertEquals(0L, bootstrap(builder, newCurator(), fileCachePath).build().getWorkerId());
+            }
+            //缓存的顺序号0和另一个顺序号都被其他实例占用, 注册失败后每个上报周期重试
+            write(BOOTSTRAP_ROOT + "/slot/0", "10.0.0.9:80," + NOW);
+            curator.create().forPath(BOOTSTRAP_ROOT + "/slot/1", ("10.0.0.8:80," + NOW).getBytes(StandardCharsets.UTF_8));
+            timeSource.set(NOW + 1000L);
+
+            CuratorFramework client = newCurator();
+            @SuppressWarnings("unchecked")
+            ListenerManager<ConnectionStateListener, ?> listeners =
+                    (ListenerManager<ConnectionStateListener, ?>) client.getConnectionStateListenable();
+            try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+                ZookeeperConfigBuilder configBuilder = bootstrap(builder, client, fileCachePath).asyncBootstrap(true);
+                int curatorListeners = listeners.size();
+                SnowflakeIdGenerate bootstrap = configBuilder.build();
+                Thread.sleep(1000L);
+                Assert.assertFalse(configBuilder.getRegistration().isDone());
+                //多次重试后只多了一个重连监听和一个slot缓存的连接状态监听
+                Assert.assertEquals(curatorListeners + 2, listeners.size());
+
+                timeSource.set(NOW + BOOTSTRAP_MARGIN + 1);
+                Assert.assertSame(bootstrap, configBuilder.getRegistration().get(5, TimeUnit.SECONDS));
+                Assert.assertEquals(curatorListeners + 2, listeners.size());
+            }
+        } finally {
+            delete(fileCachePath);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReclaimMarginShorterThanLease() throws Exception {
+        try (SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create()) {
+            zookeeper(builder, "10.0.0.1")
+                    .schedulePeriod(60)
+                    .scheduleTimeUnit(TimeUnit.SECONDS)
+                    .build();
+        }
+    }
+
+    private ZookeeperConfigBuilder zookeeper(SnowflakeIdGenerateBuilder builder, String ip) {
+        return builder.useZookeeper(server.getConnectString())
+                .applicationName("group-test")
+                .ip(ip)
+                .port(80)
+                .localFileCache(false)
+                .schedulePeriod(200)
+                .scheduleTimeUnit(TimeUnit.MILLISECONDS);
+    }
+
+    private CuratorFramework newCurator() {
+        return CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+    }
+
+    /**
+     * 两个顺序号, 上报周期200ms, 开启本地状态文件
+     */
+    private ZookeeperConfigBuilder bootstrap(SnowflakeIdGenerateBuilder builder, CuratorFramework client, File fileCachePath) {
+        return builder.useZookeeper(client)
+                .applicationName("bootstrap-test")
+                .ip("10.0.0.1")
+                .port(80)
+                .fileCachePath(fileCachePath.getAbsolutePath())
+                .schedulePeriod(200)
+                .scheduleTimeUnit(TimeUnit.MILLISECONDS)
+                .reclaimMarginMillis(BOOTSTRAP_MARGIN)
+                .timeSource(timeSource)
+                .bitLayout(BitLayout.builder().dataCenterIdBits(0).workerIdBits(1).build())
+                .leaseExpiryPolicy(LeaseExpiryPolicy.REJECT);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        Assert.assertTrue(file.delete());
+    }
+
+    private static List<String> sorted(List<String> list) {
+        list.sort(null);
+        return list;
+    }
+}
@@ -1,10 +1,39 @@
 package cn.t0mpi9.snowflake.test;
 
-import cn.t0mpi9.snowflake.Constant;
+import cn.t0mpi9.snowflake.AsyncSnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.BitLayout;
+import cn.t0mpi9.snowflake.ClockRollbackEvent;
+import cn.t0mpi9.snowflake.GenerateMode;
+import cn.t0mpi9.snowflake.IdEncoding;
+import cn.t0mpi9.snowflake.LeaseExpiryPolicy;
+import cn.t0mpi9.snowflake.RingBufferSnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.RollbackStrategy;
+import cn.t0mpi9.snowflake.SnowflakeIdDecoder;
+import cn.t0mpi9.snowflake.SegmentConfig;
+import cn.t0mpi9.snowflake.SegmentIdGenerate;
 import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.SnowflakeIdRegistry;
+import cn.t0mpi9.snowflake.WaitStrategy;
 import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import cn.t0mpi9.snowflake.time.ManualTimeSource;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
@@ -18,8 +47,8 @@ public class SnowflakeIdGenerateTest {
     @Test
     public void testUtil() {
         int sq = 1023;
-        System.out.println(sq & Constant.BIT);
-        System.out.println(sq >> 5 & Constant.BIT);
+        Assert.assertEquals(31L, BitLayout.DEFAULT.workerIdOf(sq));
+        Assert.assertEquals(31L, BitLayout.DEFAULT.dataCenterIdOf(sq));
         System.out.println(System.getProperty("java.io.tmpdir"));
     }
 
@@ -39,6 +68,513 @@ public class SnowflakeIdGenerateTest {
         System.out.println(SnowflakeIdGenerate.parseId(id));
     }
 
+    @Test
+    public void testSnowflakeIdGenerateLockFree() throws Exception {
+        for (GenerateMode generateMode : new GenerateMode[]{GenerateMode.LOCK_FREE, GenerateMode.STRIPED}) {
+            testConcurrentUnique(SnowflakeIdGenerateBuilder.create()
+                    .useDirect()
+                    .workerId(3)
+                    .dataCenterId(7)
+                    .generateMode(generateMode)
+                    .build(), GenerateMode.LOCK_FREE.equals(generateMode));
+        }
+    }
+
+    private void testConcurrentUnique(SnowflakeIdGenerate snowflakeIdGenerate, boolean ordered) throws Exception {
+        int threads = 8;
+        int perThread = 50000;
+        long[] ids = new long[threads * perThread];
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t * perThread;
+                futures.add(executorService.submit(() -> {
+                    long last = -1;
+                    for (int i = 0; i < perThread; i++) {
+                        long id = snowflakeIdGenerate.nextId();
+                        Assert.assertTrue(!ordered || id > last);
+                        last = id;
+                        ids[offset + i] = id;
+                    }
+                }));
+            }
+            //断言失败时在测试线程中抛出
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        Arrays.sort(ids);
+        for (int i = 1; i < ids.length; i++) {
+            Assert.assertNotEquals(ids[i - 1], ids[i]);
+        }
+        SnowflakeIdGenerate.SnowflakeId snowflakeId = SnowflakeIdGenerate.parseId(ids[ids.length - 1]);
+        Assert.assertEquals(3, snowflakeId.getWorkerId());
+        Assert.assertEquals(7, snowflakeId.getDataCenterId());
+        System.out.println(snowflakeId);
+    }
+
+    @Test
+    public void testSnowflakeIdGenerateNextIds() {
+        for (GenerateMode generateMode : new GenerateMode[]{GenerateMode.SYNCHRONIZED, GenerateMode.LOCK_FREE}) {
+            SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                    .useDirect()
+                    .workerId(5)
+                    .dataCenterId(9)
+                    .generateMode(generateMode)
+                    .build();
+
+            long first = snowflakeIdGenerate.nextId();
+            long[] ids = new long[10002];
+            snowflakeIdGenerate.nextIds(ids, 1, 10000);
+            Assert.assertEquals(0, ids[0]);
+            Assert.assertEquals(0, ids[10001]);
+            long last = first;
+            for (int i = 1; i <= 10000; i++) {
+                Assert.assertTrue(ids[i] > last);
+                last = ids[i];
+                SnowflakeIdGenerate.SnowflakeId snowflakeId = SnowflakeIdGenerate.parseId(ids[i]);
+                Assert.assertEquals(5, snowflakeId.getWorkerId());
+                Assert.assertEquals(9, snowflakeId.getDataCenterId());
+            }
+            Assert.assertTrue(snowflakeIdGenerate.nextId() > last);
+            Assert.assertEquals(3, snowflakeIdGenerate.nextIds(3).length);
+        }
+    }
+
+    @Test
+    public void testSnowflakeIdGenerateRingBuffer() throws Exception {
+        RingBufferSnowflakeIdGenerate snowflakeIdGenerate = (RingBufferSnowflakeIdGenerate) SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .dataCenterId(2)
+                .generateMode(GenerateMode.RING_BUFFER)
+                .ringBufferSize(1 << 10)
+                .ringBufferPaddingFactor(20)
+                .build();
+        Assert.assertEquals(1 << 10, snowflakeIdGenerate.remaining());
+
+        int threads = 4;
+        int perThread = 100000;
+        long[] ids = new long[threads * perThread];
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int offset = t * perThread;
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    ids[offset + i] = snowflakeIdGenerate.nextId();
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        snowflakeIdGenerate.close();
+        Arrays.sort(ids);
+        for (int i = 1; i < ids.length; i++) {
+            Assert.assertNotEquals(ids[i - 1], ids[i]);
+        }
+        Assert.assertEquals(ids.length, snowflakeIdGenerate.getMetrics().getIssuedCount());
+        System.out.println("starvation: " + snowflakeIdGenerate.getStarvationCount());
+    }
+
+    @Test
+    public void testSnowflakeIdGenerateManualTime() {
+        ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+        SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .timeSource(timeSource)
+                .build();
+
+        long id = snowflakeIdGenerate.nextId();
+        Assert.assertEquals(1593532800000L, SnowflakeIdGenerate.parseId(id).getTimeStamp());
+        Assert.assertEquals(1, SnowflakeIdGenerate.parseId(snowflakeIdGenerate.nextId()).getSequence());
+        timeSource.advance(1);
+        Assert.assertEquals(0, SnowflakeIdGenerate.parseId(snowflakeIdGenerate.nextId()).getSequence());
+
+        timeSource.advance(-5);
+        try {
+            snowflakeIdGenerate.nextId();
+            Assert.fail();
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSnowflakeIdGenerateBorrow() {
+        for (GenerateMode generateMode : new GenerateMode[]{GenerateMode.SYNCHRONIZED, GenerateMode.LOCK_FREE}) {
+            ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+            SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                    .useDirect()
+                    .generateMode(generateMode)
+                    .timeSource(timeSource)
+                    .maxBorrowMillis(2)
+                    .build();
+
+            long[] ids = snowflakeIdGenerate.nextIds(4096 * 3);
+            Assert.assertEquals(1593532800002L, SnowflakeIdGenerate.parseId(ids[ids.length - 1]).getTimeStamp());
+            Assert.assertEquals(2, snowflakeIdGenerate.getLeadMillis());
+            Assert.assertEquals(2, snowflakeIdGenerate.getMaxLeadMillis());
+            Assert.assertEquals(1593532800002L, snowflakeIdGenerate.getLogicalTimestamp());
+            Assert.assertEquals(4096 * 3, snowflakeIdGenerate.getMetrics().getIssuedCount());
+            Assert.assertEquals(2, snowflakeIdGenerate.getMetrics().getSequenceOverflowCount());
+            Assert.assertEquals(0, snowflakeIdGenerate.getMetrics().getTilNextMillisNanos());
+
+            timeSource.advance(1);
+            long id = snowflakeIdGenerate.nextId();
+            Assert.assertTrue(id > ids[ids.length - 1]);
+            Assert.assertEquals(1593532800003L, SnowflakeIdGenerate.parseId(id).getTimeStamp());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testSnowflakeIdGenerateWaitOutsideMonitor() throws Exception {
+        ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+        SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .timeSource(timeSource)
+                .waitStrategy(WaitStrategy.PARK)
+                .build();
+        snowflakeIdGenerate.nextIds(4096);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            //sequence用完, 时间不动时一直等下一毫秒
+            Future<Long> waiting = executorService.submit(() -> snowflakeIdGenerate.nextId());
+            Future<long[]> batch = executorService.submit(() -> snowflakeIdGenerate.nextIds(2));
+            Thread.sleep(100);
+            Assert.assertFalse(waiting.isDone());
+            Assert.assertFalse(batch.isDone());
+
+            //等待时不持有监视器, 同步方法不会阻塞
+            Assert.assertEquals(1593532800000L, snowflakeIdGenerate.getLogicalTimestamp());
+            Assert.assertEquals(-1L, snowflakeIdGenerate.tryNextId());
+
+            timeSource.advance(1);
+            Assert.assertEquals(1593532800001L, SnowflakeIdGenerate.parseTimestamp(waiting.get(1, TimeUnit.SECONDS)));
+            Assert.assertEquals(1593532800001L, SnowflakeIdGenerate.parseTimestamp(batch.get(1, TimeUnit.SECONDS)[1]));
+            Assert.assertEquals(4096 + 3, snowflakeIdGenerate.getMetrics().getIssuedCount());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncSnowflakeIdGenerate() throws Exception {
+        for (GenerateMode generateMode : new GenerateMode[]{GenerateMode.SYNCHRONIZED, GenerateMode.LOCK_FREE}) {
+            ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+            SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                    .useDirect()
+                    .generateMode(generateMode)
+                    .timeSource(timeSource)
+                    .build();
+            try (AsyncSnowflakeIdGenerate async = new AsyncSnowflakeIdGenerate(snowflakeIdGenerate)) {
+                long[] ids = async.nextIds(4096).get();
+                Assert.assertEquals(0, snowflakeIdGenerate.tryNextIds(new long[1], 0, 1));
+
+                //当前毫秒的sequence用完, 请求排队而不是阻塞调用线程
+                CompletableFuture<Long> pending = async.nextId();
+                CompletableFuture<long[]> pendingIds = async.nextIds(10);
+                Thread.sleep(20);
+                Assert.assertFalse(pending.isDone());
+                Assert.assertEquals(2, async.getPendingCount());
+
+                timeSource.advance(1);
+                long id = pending.get(1, TimeUnit.SECONDS);
+                long[] moreIds = pendingIds.get(1, TimeUnit.SECONDS);
+                Assert.assertTrue(id > ids[ids.length - 1]);
+                Assert.assertEquals(1593532800001L, SnowflakeIdGenerate.parseId(id).getTimeStamp());
+                for (long moreId : moreIds) {
+                    Assert.assertTrue(moreId > id);
+                    id = moreId;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSnowflakeIdGenerateTryNextId() {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            for (GenerateMode generateMode : new GenerateMode[]{GenerateMode.SYNCHRONIZED, GenerateMode.LOCK_FREE}) {
+                ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+                SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                        .useDirect()
+                        .generateMode(generateMode)
+                        .waitStrategy(waitStrategy)
+                        .timeSource(timeSource)
+                        .build();
+                long first = snowflakeIdGenerate.tryNextId();
+                long[] ids = snowflakeIdGenerate.nextIds(4095);
+                Assert.assertTrue(ids[0] > first);
+                Assert.assertEquals(-1L, snowflakeIdGenerate.tryNextId());
+                Assert.assertEquals(-1L, snowflakeIdGenerate.tryNextId(5, TimeUnit.MILLISECONDS));
+                Assert.assertEquals(1, snowflakeIdGenerate.getMetrics().getTimeoutCount());
+                Assert.assertEquals(4096, snowflakeIdGenerate.getMetrics().getIssuedCount());
+
+                timeSource.advance(1);
+                long id = snowflakeIdGenerate.tryNextId(5, TimeUnit.MILLISECONDS);
+                Assert.assertTrue(id > ids[ids.length - 1]);
+            }
+
+            SnowflakeIdGenerate system = SnowflakeIdGenerateBuilder.create()
+                    .useDirect()
+                    .waitStrategy(waitStrategy)
+                    .build();
+            Assert.assertEquals(10000, Arrays.stream(system.nextIds(10000)).distinct().count());
+        }
+    }
+
+    @Test
+    public void testSnowflakeIdRegistry() {
+        ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+        SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(3)
+                .dataCenterId(2)
+                .timeSource(timeSource)
+                .build();
+        SnowflakeIdRegistry registry = new SnowflakeIdRegistry(snowflakeIdGenerate, 2);
+        SnowflakeIdRegistry.Namespace order = registry.register("order");
+        Assert.assertSame(order, registry.register("order"));
+        registry.register("user");
+
+        //各namespace的sequence独立, 同一毫秒内都从0开始
+        for (int i = 0; i < 100; i++) {
+            long id = order.nextId();
+            Assert.assertEquals(id, registry.nextId("user"));
+            Assert.assertEquals(i, SnowflakeIdGenerate.parseId(id).getSequence());
+            Assert.assertEquals(3, SnowflakeIdGenerate.parseId(id).getWorkerId());
+            Assert.assertEquals(2, SnowflakeIdGenerate.parseId(id).getDataCenterId());
+        }
+        Assert.assertEquals(200, snowflakeIdGenerate.getMetrics().getIssuedCount());
+        try {
+            registry.register("item");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+        }
+        try {
+            registry.nextId("item");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSegmentIdGenerate() {
+        ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+        AtomicLong remote = new AtomicLong();
+        SegmentIdGenerate segmentIdGenerate = new SegmentIdGenerate((name, step) -> remote.addAndGet(step), "order",
+                Runnable::run, new SegmentConfig()
+                .initialStep(10)
+                .minStep(10)
+                .maxStep(80)
+                .targetSegmentMillis(60_000)
+                .timeSource(timeSource));
+        //号段用得快, 步长翻倍到maxStep, 号码连续
+        for (int i = 1; i <= 300; i++) {
+            Assert.assertEquals(i, segmentIdGenerate.nextId());
+        }
+        Assert.assertEquals(80, segmentIdGenerate.getStep());
+        long allocateCount = segmentIdGenerate.getAllocateCount();
+
+        //号段用时超过两倍targetSegmentMillis, 步长减半
+        timeSource.advance(300_000);
+        long last = 300;
+        while (segmentIdGenerate.getAllocateCount() == allocateCount) {
+            long id = segmentIdGenerate.nextId();
+            Assert.assertEquals(last + 1, id);
+            last = id;
+        }
+        Assert.assertEquals(40, segmentIdGenerate.getStep());
+        Assert.assertEquals(remote.get(), last + segmentIdGenerate.getRemaining() + 40);
+    }
+
+    @Test
+    public void testIdEncoding() {
+        SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create().useDirect().build();
+        long[] ids = snowflakeIdGenerate.nextIds(100);
+        ByteBuffer buffer = ByteBuffer.allocate(IdEncoding.DECIMAL.width());
+        for (IdEncoding encoding : IdEncoding.values()) {
+            String previous = encoding.encode(0L);
+            for (long id : ids) {
+                String encoded = encoding.encode(id);
+                Assert.assertEquals(encoding.width(), encoded.length());
+                Assert.assertTrue(encoded.compareTo(previous) > 0);
+                Assert.assertEquals(id, encoding.decode(encoded));
+                previous = encoded;
+            }
+            Assert.assertEquals(Long.MAX_VALUE, encoding.decode(encoding.encode(Long.MAX_VALUE)));
+
+            ((Buffer) buffer).clear();
+            long id = snowflakeIdGenerate.nextId(encoding, buffer);
+            ((Buffer) buffer).flip();
+            Assert.assertEquals(id, encoding.decode(buffer));
+        }
+        Assert.assertEquals(IdEncoding.CROCKFORD_BASE32.decode("00000000000Z1"),
+                IdEncoding.CROCKFORD_BASE32.decode("00000000000zl"));
+        try {
+            IdEncoding.DECIMAL.decode("9999999999999999999");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSnowflakeIdGenerateBitLayout() {
+        BitLayout bitLayout = BitLayout.builder()
+                .epoch(1577836800000L)
+                .timeUnitMillis(10)
+                .dataCenterIdBits(0)
+                .workerIdBits(8)
+                .sequenceBits(15)
+                .build();
+        for (GenerateMode generateMode : new GenerateMode[]{GenerateMode.SYNCHRONIZED, GenerateMode.LOCK_FREE}) {
+            ManualTimeSource timeSource = new ManualTimeSource(1593532800005L);
+            SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                    .useDirect()
+                    .workerId(200)
+                    .generateMode(generateMode)
+                    .timeSource(timeSource)
+                    .bitLayout(bitLayout)
+                    .build();
+
+            long[] ids = snowflakeIdGenerate.nextIds(1 << 15);
+            SnowflakeIdGenerate.SnowflakeId last = bitLayout.parse(ids[ids.length - 1]);
+            Assert.assertEquals(1593532800000L, last.getTimeStamp());
+            Assert.assertEquals(200, last.getWorkerId());
+            Assert.assertEquals((1 << 15) - 1, last.getSequence());
+            Assert.assertEquals(last.getTimeStamp(), bitLayout.parseTimestamp(ids[ids.length - 1]));
+
+            SnowflakeIdDecoder.Columns columns = new SnowflakeIdDecoder(bitLayout, 1000, ForkJoinPool.commonPool())
+                    .decodeParallel(ids);
+            for (int i = 0; i < ids.length; i += 997) {
+                SnowflakeIdGenerate.SnowflakeId parsed = bitLayout.parse(ids[i]);
+                Assert.assertEquals(parsed.getTimeStamp(), columns.getTimestamps()[i]);
+                Assert.assertEquals(parsed.getWorkerId(), columns.getWorkerIds()[i]);
+                Assert.assertEquals(parsed.getSequence(), columns.getSequences()[i]);
+            }
+
+            timeSource.advance(10);
+            SnowflakeIdGenerate.SnowflakeId next = bitLayout.parse(snowflakeIdGenerate.nextId());
+            Assert.assertEquals(1593532800010L, next.getTimeStamp());
+            Assert.assertEquals(0, next.getSequence());
+        }
+        try {
+            SnowflakeIdGenerateBuilder.create().useDirectIp().currentServerIp("192.100.10.89")
+                    .bitLayout(bitLayout.toBuilder().workerIdBits(6).build())
+                    .build();
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSnowflakeIdGenerateRollback() {
+        BitLayout bitLayout = BitLayout.builder().clockEpochBits(1).build();
+        for (GenerateMode generateMode : new GenerateMode[]{GenerateMode.SYNCHRONIZED, GenerateMode.LOCK_FREE, GenerateMode.STRIPED}) {
+            ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+            List<ClockRollbackEvent> events = new ArrayList<>();
+            SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                    .useDirect()
+                    .workerId(1)
+                    .generateMode(generateMode)
+                    .stripeBits(0)
+                    .timeSource(timeSource)
+                    .bitLayout(bitLayout)
+                    .rollbackStrategy(RollbackStrategy.CLOCK_EPOCH)
+                    .clockRollbackListener(events::add)
+                    .build();
+
+            Set<Long> ids = new HashSet<>();
+            ids.add(snowflakeIdGenerate.nextId());
+            timeSource.advance(-100);
+            long id = snowflakeIdGenerate.nextId();
+            Assert.assertTrue(ids.add(id));
+            Assert.assertEquals(1, bitLayout.parse(id).getClockEpoch());
+            Assert.assertEquals(1, snowflakeIdGenerate.getIdentity());
+            Assert.assertEquals(1, events.size());
+            Assert.assertTrue(events.get(0).isSwitched());
+            Assert.assertEquals(100, events.get(0).getMoveMillis());
+
+            //clockEpoch 0在1593532800000之前都不可用, 再次后移只能等待
+            timeSource.advance(-100);
+            try {
+                snowflakeIdGenerate.nextId();
+                Assert.fail();
+            } catch (RuntimeException e) {
+                System.out.println(e.getMessage());
+            }
+            Assert.assertFalse(events.get(events.size() - 1).isSwitched());
+            Assert.assertEquals(1593532800000L, snowflakeIdGenerate.getLogicalTimestamp());
+        }
+
+        ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+        SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .timeSource(timeSource)
+                .rollbackStrategy(RollbackStrategy.BACKUP_WORKER)
+                .backupWorkerId(2)
+                .build();
+        snowflakeIdGenerate.nextId();
+        timeSource.advance(-100);
+        Assert.assertEquals(2, SnowflakeIdGenerate.parseId(snowflakeIdGenerate.nextId()).getWorkerId());
+        timeSource.advance(200);
+        snowflakeIdGenerate.nextId();
+        //主workerId最大时间戳之后再次后移, 切回主workerId
+        timeSource.advance(-50);
+        Assert.assertEquals(1, SnowflakeIdGenerate.parseId(snowflakeIdGenerate.nextId()).getWorkerId());
+        Assert.assertEquals(2, snowflakeIdGenerate.getRollbackCount());
+    }
+
+    @Test
+    public void testSnowflakeIdGenerateLease() {
+        for (GenerateMode generateMode : new GenerateMode[]{GenerateMode.SYNCHRONIZED, GenerateMode.LOCK_FREE, GenerateMode.STRIPED}) {
+            ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+            SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                    .useDirect()
+                    .workerId(1)
+                    .generateMode(generateMode)
+                    .timeSource(timeSource)
+                    .leaseExpiryPolicy(LeaseExpiryPolicy.FALLBACK_WORKER)
+                    .fallbackWorkerId(31)
+                    .build();
+            Assert.assertEquals(Long.MAX_VALUE, snowflakeIdGenerate.getLeaseExpireAt());
+            snowflakeIdGenerate.renewLease(1593532800010L);
+            Assert.assertEquals(1, SnowflakeIdGenerate.parseId(snowflakeIdGenerate.nextId()).getWorkerId());
+            timeSource.advance(10);
+            Assert.assertTrue(snowflakeIdGenerate.isLeaseExpired());
+            Assert.assertEquals(31, SnowflakeIdGenerate.parseId(snowflakeIdGenerate.nextId()).getWorkerId());
+            long[] ids = snowflakeIdGenerate.nextIds(3);
+            Assert.assertEquals(31, SnowflakeIdGenerate.parseId(ids[2]).getWorkerId());
+            Assert.assertEquals(4, snowflakeIdGenerate.getMetrics().getLeaseExpiredCount());
+            snowflakeIdGenerate.renewLease(1593532800020L);
+            Assert.assertEquals(1, SnowflakeIdGenerate.parseId(snowflakeIdGenerate.nextId()).getWorkerId());
+        }
+
+        ManualTimeSource timeSource = new ManualTimeSource(1593532800000L);
+        SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(1)
+                .timeSource(timeSource)
+                .leaseExpiryPolicy(LeaseExpiryPolicy.REJECT)
+                .build();
+        snowflakeIdGenerate.renewLease(1593532800010L);
+        snowflakeIdGenerate.nextId();
+        snowflakeIdGenerate.revokeLease();
+        try {
+            snowflakeIdGenerate.nextId();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
     @Test
     public void testSnowflakeIdGenerateZk() throws Exception {
         SnowflakeIdGenerate snowflakeIdGenerate = SnowflakeIdGenerateBuilder.create()
@@ -0,0 +1,78 @@
+package cn.t0mpi9.snowflake.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * ID服务的TCP协议, 大端字节序
+ * <br/>
+ * 请求: count(4), 要取的ID数量, 1到{@link #MAX_BATCH}。一个连接上可以连续发送多个请求, 按顺序响应。
+ * <br/>
+ * 响应: n(4) | id(8) * n。n大于0时后面是n个严格递增的ID; n小于0时是错误码, 后面没有数据:
+ * {@link #ERROR_GENERATE}是服务端生成失败, 连接可以继续使用; {@link #ERROR_BAD_REQUEST}是请求不合法, 服务端随后关闭连接
+ * <br/>
+ * Created on 2020/8/6 9:30.
+ *
+ * @author zhubenle
+ */
+public final class IdProtocol {
+
+    /**
+     * 单个请求最多的ID数量, 响应最大512KB
+     */
+    public static final int MAX_BATCH = 65536;
+    public static final int ERROR_GENERATE = -1;
+    public static final int ERROR_BAD_REQUEST = -2;
+
+    static final int REQUEST_SIZE = 4;
+    static final int HEADER_SIZE = 4;
+
+    private IdProtocol() {
+    }
+
+    /**
+     * 在阻塞模式的连接上发送一个请求并读取响应
+     *
+     * @param channel 阻塞模式的连接
+     * @param count   ID数量
+     * @param header  读写请求和响应头的4字节缓冲, 调用方复用
+     * @return 严格递增的ID数组
+     * @throws IOException 读写失败或服务端关闭连接
+     */
+    public static long[] fetch(SocketChannel channel, int count, ByteBuffer header) throws IOException {
+        if (count < 1 || count > MAX_BATCH) {
+            throw new IllegalArgumentException("count必须在1到" + MAX_BATCH + "之间");
+        }
+        ((Buffer) header).clear();
+        ((Buffer) header.putInt(count)).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        ((Buffer) header).clear();
+        readFully(channel, header);
+        int n = header.getInt(0);
+        if (n == ERROR_GENERATE) {
+            throw new IllegalStateException("服务端生成ID失败");
+        }
+        if (n != count) {
+            throw new IOException("响应不合法, 请求" + count + "个, 响应" + n);
+        }
+        ByteBuffer body = ByteBuffer.allocate(n << 3);
+        readFully(channel, body);
+        ((Buffer) body).flip();
+        long[] ids = new long[n];
+        body.asLongBuffer().get(ids);
+        return ids;
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("服务端关闭了连接");
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package cn.t0mpi9.snowflake.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SnowflakeIdServer}的客户端, 后台线程按块预取ID, 调用方从本地的块中取
+ * <br/>
+ * 后台线程用一个连接顺序取号, 队列里最多缓存prefetchBlocks块, 取走一块后立即补一块,
+ * 所以同一个客户端取到的ID是递增的。连接失败或服务端生成失败时按100ms到3s退避重试, 期间先用完已缓存的块,
+ * 缓存用完后{@link #nextId()}最多等timeoutMillis。
+ * 缓存的块里ID的时间戳是取号时的时间, 不是使用时的时间
+ * <br/>
+ * Created on 2020/8/6 14:00.
+ *
+ * @author zhubenle
+ */
+public class SnowflakeIdClient implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnowflakeIdClient.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 5000;
+    public static final int DEFAULT_PREFETCH_BLOCKS = 2;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 3000L;
+    private static final long MIN_RETRY_MILLIS = 100L;
+    private static final long MAX_RETRY_MILLIS = 3000L;
+
+    private final InetSocketAddress address;
+    private final int blockSize;
+    private final long timeoutMillis;
+    private final BlockingQueue<long[]> blocks;
+    private final Thread fetcher;
+    private volatile boolean running = true;
+    /**
+     * 当前在用的块和下标, 由this保护
+     */
+    private long[] block;
+    private int position;
+
+    public SnowflakeIdClient(String host, int port) {
+        this(new InetSocketAddress(host, port), DEFAULT_BLOCK_SIZE, DEFAULT_PREFETCH_BLOCKS, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * 创建后立即开始预取
+     *
+     * @param address        服务端地址
+     * @param blockSize      每次取号的数量, 1到{@link IdProtocol#MAX_BATCH}
+     * @param prefetchBlocks 最多缓存的块数
+     * @param timeoutMillis  缓存用完时等待的最长时间
+     */
+    public SnowflakeIdClient(InetSocketAddress address, int blockSize, int prefetchBlocks, long timeoutMillis) {
+        if (blockSize < 1 || blockSize > IdProtocol.MAX_BATCH) {
+            throw new IllegalArgumentException("blockSize必须在1到" + IdProtocol.MAX_BATCH + "之间");
+        }
+        if (prefetchBlocks < 1) {
+            throw new IllegalArgumentException("prefetchBlocks不能小于1");
+        }
+        this.address = address;
+        this.blockSize = blockSize;
+        this.timeoutMillis = timeoutMillis;
+        this.blocks = new ArrayBlockingQueue<>(prefetchBlocks);
+        this.fetcher = new Thread(this::fetch, "snowflake-id-client");
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    /**
+     * @return 下一个ID
+     * @throws IllegalStateException 缓存用完且timeoutMillis内没有取到
+     */
+    public synchronized long nextId() {
+        if (block == null || position == block.length) {
+            block = take();
+            position = 0;
+        }
+        return block[position++];
+    }
+
+    /**
+     * @param n 数量
+     * @return 递增的n个ID
+     * @throws IllegalStateException 缓存用完且timeoutMillis内没有取到
+     */
+    public synchronized long[] nextIds(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n不能小于0");
+        }
+        long[] ids = new long[n];
+        int off = 0;
+        while (off < n) {
+            if (block == null || position == block.length) {
+                block = take();
+                position = 0;
+            }
+            int len = Math.min(n - off, block.length - position);
+            System.arraycopy(block, position, ids, off, len);
+            position += len;
+            off += len;
+        }
+        return ids;
+    }
+
+    private long[] take() {
+        long[] next;
+        try {
+            next = blocks.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待ID时被中断");
+        }
+        if (next == null) {
+            throw new IllegalStateException(timeoutMillis + "ms内没有从" + address + "取到ID");
+        }
+        return next;
+    }
+
+    private void fetch() {
+        SocketChannel channel = null;
+        ByteBuffer header = ByteBuffer.allocate(IdProtocol.HEADER_SIZE);
+        long retryMillis = MIN_RETRY_MILLIS;
+        while (running) {
+            try {
+                if (channel == null) {
+                    channel = SocketChannel.open(address);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                long[] ids = IdProtocol.fetch(channel, blockSize, header);
+                retryMillis = MIN_RETRY_MILLIS;
+                blocks.put(ids);
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException | RuntimeException e) {
+                if (!running) {
+                    break;
+                }
+                LOGGER.warn("从{}取ID失败: {}, {}ms后重试", address, e.getMessage(), retryMillis);
+                if (e instanceof IOException && channel != null) {
+                    closeQuietly(channel);
+                    channel = null;
+                }
+                try {
+                    Thread.sleep(retryMillis);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                retryMillis = Math.min(retryMillis << 1, MAX_RETRY_MILLIS);
+            }
+        }
+        if (channel != null) {
+            closeQuietly(channel);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 停止预取并关闭连接, 已缓存的ID丢弃
+     */
+    @Override
+    public void close() {
+        running = false;
+        //阻塞在socket读写上时中断会关闭连接
+        fetcher.interrupt();
+        try {
+            fetcher.join(MAX_RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
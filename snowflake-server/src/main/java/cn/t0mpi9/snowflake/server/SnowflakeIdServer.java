@@ -0,0 +1,276 @@
+package cn.t0mpi9.snowflake.server;
+
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 把{@link SnowflakeIdGenerate}通过TCP提供给没有自己workerId的进程, 协议见{@link IdProtocol}
+ * <br/>
+ * 一个selector线程处理所有连接, 每个请求在该线程内调用一次{@link SnowflakeIdGenerate#nextIds(long[], int, int)},
+ * 写成一个响应后直接写socket, 写不完的等可写时继续, 这期间不再读该连接的请求。
+ * 适合批量取号的客户端({@link SnowflakeIdClient}), 每个请求取1个ID时吞吐受限于网络往返
+ * <br/>
+ * Created on 2020/8/6 10:00.
+ *
+ * @author zhubenle
+ */
+public class SnowflakeIdServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnowflakeIdServer.class);
+
+    public static final int DEFAULT_PORT = 7090;
+    /**
+     * 一次最多读入的请求数, 对方不读响应时最多积压这么多个响应
+     */
+    private static final int MAX_PENDING_REQUESTS = 16;
+
+    private final SnowflakeIdGenerate snowflakeIdGenerate;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread thread;
+    /**
+     * 生成ID的缓冲, 只在selector线程中使用
+     */
+    private final long[] ids = new long[IdProtocol.MAX_BATCH];
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder idCount = new LongAdder();
+    private volatile boolean running;
+
+    public SnowflakeIdServer(SnowflakeIdGenerate snowflakeIdGenerate, int port) throws IOException {
+        this(snowflakeIdGenerate, new InetSocketAddress(port));
+    }
+
+    /**
+     * 绑定端口, 调用{@link #start()}后开始处理请求
+     *
+     * @param snowflakeIdGenerate ID生成器
+     * @param address             监听地址, 端口为0时由系统分配
+     * @throws IOException 绑定失败
+     */
+    public SnowflakeIdServer(SnowflakeIdGenerate snowflakeIdGenerate, InetSocketAddress address) throws IOException {
+        this.snowflakeIdGenerate = Objects.requireNonNull(snowflakeIdGenerate, "snowflakeIdGenerate不能为null");
+        this.selector = Selector.open();
+        try {
+            this.serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(address);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException | RuntimeException e) {
+            selector.close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "snowflake-id-server");
+        thread.setDaemon(true);
+    }
+
+    public SnowflakeIdServer start() {
+        running = true;
+        thread.start();
+        LOGGER.info("snowflake ID服务启动, 监听{}", getLocalAddress());
+        return this;
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * @return 已响应的请求数, 不含错误响应
+     */
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    /**
+     * @return 已发出的ID数
+     */
+    public long getIdCount() {
+        return idCount.sum();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("snowflake ID服务异常退出: {}", e.getMessage(), e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            if (key.isAcceptable()) {
+                accept();
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+                connection.read();
+            } else if (key.isWritable()) {
+                connection.flush();
+            }
+        } catch (IOException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("关闭连接{}: {}", key.channel(), e.getMessage());
+            }
+            key.cancel();
+            closeQuietly(key.channel());
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(key, channel));
+    }
+
+    private ByteBuffer respond(int count) {
+        if (count < 1 || count > IdProtocol.MAX_BATCH) {
+            return null;
+        }
+        try {
+            snowflakeIdGenerate.nextIds(ids, 0, count);
+        } catch (RuntimeException e) {
+            LOGGER.warn("生成{}个ID失败: {}", count, e.getMessage());
+            return error(IdProtocol.ERROR_GENERATE);
+        }
+        ByteBuffer response = ByteBuffer.allocate(IdProtocol.HEADER_SIZE + (count << 3));
+        response.putInt(count);
+        //视图从当前position开始, 不移动response的position
+        response.asLongBuffer().put(ids, 0, count);
+        ((Buffer) response).clear();
+        requestCount.increment();
+        idCount.add(count);
+        return response;
+    }
+
+    private static ByteBuffer error(int code) {
+        ByteBuffer response = ByteBuffer.allocate(IdProtocol.HEADER_SIZE);
+        ((Buffer) response.putInt(code)).flip();
+        return response;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * 停止selector线程并关闭所有连接, 不关闭ID生成器
+     */
+    @Override
+    public void close() throws IOException {
+        if (!running) {
+            if (!thread.isAlive()) {
+                closeQuietly(serverChannel);
+                closeQuietly(selector);
+            }
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        LOGGER.info("snowflake ID服务关闭, 共响应{}个请求, {}个ID", getRequestCount(), getIdCount());
+    }
+
+    /**
+     * 一个客户端连接, 只在selector线程中使用
+     */
+    private final class Connection {
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private final ByteBuffer requests = ByteBuffer.allocate(IdProtocol.REQUEST_SIZE * MAX_PENDING_REQUESTS);
+        private final ArrayDeque<ByteBuffer> responses = new ArrayDeque<>();
+        /**
+         * 收到不合法的请求, 写完之前的响应后关闭
+         */
+        private boolean closing;
+
+        private Connection(SelectionKey key, SocketChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        private void read() throws IOException {
+            if (channel.read(requests) < 0) {
+                key.cancel();
+                channel.close();
+                return;
+            }
+            ((Buffer) requests).flip();
+            while (!closing && requests.remaining() >= IdProtocol.REQUEST_SIZE) {
+                ByteBuffer response = respond(requests.getInt());
+                if (response == null) {
+                    closing = true;
+                    response = error(IdProtocol.ERROR_BAD_REQUEST);
+                }
+                responses.add(response);
+            }
+            requests.compact();
+            flush();
+        }
+
+        private void flush() throws IOException {
+            while (!responses.isEmpty()) {
+                ByteBuffer response = responses.peek();
+                channel.write(response);
+                if (response.hasRemaining()) {
+                    //socket缓冲已满, 等可写, 期间不读新的请求
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                responses.poll();
+            }
+            if (closing) {
+                key.cancel();
+                channel.close();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+}
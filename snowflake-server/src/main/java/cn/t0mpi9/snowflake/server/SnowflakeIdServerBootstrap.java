@@ -0,0 +1,104 @@
+package cn.t0mpi9.snowflake.server;
+
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.builder.AbstractConfigBuilder;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 独立启动ID服务, 参数是可选的properties文件路径, 同名的系统属性(-D)优先
+ * <br/>
+ * snowflake.mode: direct(默认)、zookeeper或redis, 分别用对应的builder创建生成器, 服务本身占一个workerId;
+ * snowflake.server.host、snowflake.server.port: 监听地址, 默认0.0.0.0:{@value SnowflakeIdServer#DEFAULT_PORT};
+ * snowflake.direct.worker-id、snowflake.direct.data-center-id: direct方式的workerId和dataCenterId;
+ * snowflake.zk-config.connection: zookeeper连接地址;
+ * snowflake.redis-config.host、port、password、database、client: redis配置, client是lettuce(默认)或jedis;
+ * snowflake.application-name、snowflake.current-server-ip: zookeeper和redis方式注册的应用名和ip, 端口用监听端口。
+ * zookeeper和redis的客户端依赖需要自行加到classpath
+ * <br/>
+ * Created on 2020/8/6 16:00.
+ *
+ * @author zhubenle
+ */
+public class SnowflakeIdServerBootstrap {
+
+    private static final String PREFIX = "snowflake.";
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = new Properties();
+        if (args.length > 0) {
+            try (InputStream in = new FileInputStream(args[0])) {
+                properties.load(in);
+            }
+        }
+        String host = property(properties, "server.host", "0.0.0.0");
+        int port = Integer.parseInt(property(properties, "server.port", String.valueOf(SnowflakeIdServer.DEFAULT_PORT)));
+
+        SnowflakeIdGenerateBuilder builder = SnowflakeIdGenerateBuilder.create();
+        SnowflakeIdGenerate snowflakeIdGenerate = build(builder, properties, port);
+        SnowflakeIdServer server = new SnowflakeIdServer(snowflakeIdGenerate, new InetSocketAddress(host, port)).start();
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                builder.close();
+            } catch (IOException ignored) {
+            } finally {
+                stopped.countDown();
+            }
+        }));
+        stopped.await();
+    }
+
+    private static SnowflakeIdGenerate build(SnowflakeIdGenerateBuilder builder, Properties properties, int port)
+            throws IOException {
+        String mode = property(properties, "mode", "direct");
+        AbstractConfigBuilder<?> configBuilder;
+        switch (mode) {
+            case "direct":
+                return builder.use(builder.useDirect())
+                        .workerId(Long.parseLong(property(properties, "direct.worker-id", "0")))
+                        .dataCenterId(Long.parseLong(property(properties, "direct.data-center-id", "0")))
+                        .build();
+            case "zookeeper":
+                configBuilder = builder.useZookeeper(required(properties, "zk-config.connection"));
+                break;
+            case "redis":
+                String redisHost = property(properties, "redis-config.host", "127.0.0.1");
+                int redisPort = Integer.parseInt(property(properties, "redis-config.port", "6379"));
+                String password = property(properties, "redis-config.password", null);
+                int database = Integer.parseInt(property(properties, "redis-config.database", "0"));
+                configBuilder = "jedis".equals(property(properties, "redis-config.client", "lettuce"))
+                        ? builder.useJedisRedis(redisHost, redisPort, password, database)
+                        : builder.useLettuceRedis(redisHost, redisPort, password, database);
+                break;
+            default:
+                throw new IllegalArgumentException("不支持的snowflake.mode: " + mode);
+        }
+        String ip = property(properties, "current-server-ip", null);
+        return configBuilder.applicationName(property(properties, "application-name", "snowflake-server"))
+                .ip(ip != null ? ip : InetAddress.getLocalHost().getHostAddress())
+                .port(port)
+                .build();
+    }
+
+    private static String property(Properties properties, String name, String defaultValue) {
+        return System.getProperty(PREFIX + name, properties.getProperty(PREFIX + name, defaultValue));
+    }
+
+    private static String required(Properties properties, String name) {
+        String value = property(properties, name, null);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("缺少配置" + PREFIX + name);
+        }
+        return value;
+    }
+}
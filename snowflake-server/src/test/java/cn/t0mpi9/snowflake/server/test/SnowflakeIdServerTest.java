@@ -0,0 +1,100 @@
+package cn.t0mpi9.snowflake.server.test;
+
+import cn.t0mpi9.snowflake.LeaseExpiryPolicy;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
+import cn.t0mpi9.snowflake.server.IdProtocol;
+import cn.t0mpi9.snowflake.server.SnowflakeIdClient;
+import cn.t0mpi9.snowflake.server.SnowflakeIdServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <br/>
+ * Created on 2020/8/6 17:00.
+ *
+ * @author zhubenle
+ */
+public class SnowflakeIdServerTest {
+
+    private static SnowflakeIdGenerate direct(LeaseExpiryPolicy leaseExpiryPolicy) {
+        return SnowflakeIdGenerateBuilder.create()
+                .useDirect()
+                .workerId(3)
+                .dataCenterId(1)
+                .leaseExpiryPolicy(leaseExpiryPolicy)
+                .build();
+    }
+
+    @Test
+    public void testClientsOverLoopback() throws Exception {
+        SnowflakeIdGenerate snowflakeIdGenerate = direct(LeaseExpiryPolicy.DEGRADED);
+        try (SnowflakeIdServer server = new SnowflakeIdServer(snowflakeIdGenerate,
+                new InetSocketAddress("127.0.0.1", 0)).start()) {
+            InetSocketAddress address = server.getLocalAddress();
+            Set<Long> ids = ConcurrentHashMap.newKeySet();
+            int clients = 4;
+            int perClient = 20000;
+            CountDownLatch done = new CountDownLatch(clients);
+            for (int i = 0; i < clients; i++) {
+                new Thread(() -> {
+                    try (SnowflakeIdClient client = new SnowflakeIdClient(address, 1000, 2, 3000L)) {
+                        long last = -1L;
+                        for (int j = 0; j < perClient; j++) {
+                            long id = client.nextId();
+                            Assert.assertTrue(id > last);
+                            last = id;
+                            ids.add(id);
+                        }
+                        for (long id : client.nextIds(2500)) {
+                            ids.add(id);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+            done.await();
+            Assert.assertEquals(clients * (perClient + 2500), ids.size());
+            Assert.assertEquals(3L, SnowflakeIdGenerate.parseWorkerId(ids.iterator().next()));
+            Assert.assertTrue(server.getIdCount() >= ids.size());
+        }
+    }
+
+    @Test
+    public void testErrorResponses() throws Exception {
+        SnowflakeIdGenerate snowflakeIdGenerate = direct(LeaseExpiryPolicy.REJECT);
+        try (SnowflakeIdServer server = new SnowflakeIdServer(snowflakeIdGenerate,
+                new InetSocketAddress("127.0.0.1", 0)).start();
+             SocketChannel channel = SocketChannel.open(server.getLocalAddress())) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            Assert.assertEquals(5000, IdProtocol.fetch(channel, 5000, header).length);
+
+            //租约失效后服务端返回生成失败, 连接可以继续使用
+            snowflakeIdGenerate.revokeLease();
+            try {
+                IdProtocol.fetch(channel, 10, header);
+                Assert.fail();
+            } catch (IllegalStateException expected) {
+            }
+            snowflakeIdGenerate.renewLease(System.currentTimeMillis() + 60000L);
+            Assert.assertEquals(10, IdProtocol.fetch(channel, 10, header).length);
+
+            //不合法的请求返回错误码后关闭连接
+            channel.write((ByteBuffer) ((Buffer) ByteBuffer.allocate(4).putInt(0)).flip());
+            ByteBuffer response = ByteBuffer.allocate(8);
+            while (channel.read(response) >= 0) {
+            }
+            Assert.assertEquals(4, response.position());
+            Assert.assertEquals(IdProtocol.ERROR_BAD_REQUEST, response.getInt(0));
+        }
+    }
+}
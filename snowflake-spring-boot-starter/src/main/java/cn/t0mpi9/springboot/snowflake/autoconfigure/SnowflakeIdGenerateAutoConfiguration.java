@@ -1,7 +1,13 @@
 package cn.t0mpi9.springboot.snowflake.autoconfigure;
 
+import cn.t0mpi9.snowflake.AsyncSnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.ReactiveSnowflakeIdGenerate;
 import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.SnowflakeIdRegistry;
 import cn.t0mpi9.snowflake.builder.AbstractConfigBuilder;
+import cn.t0mpi9.snowflake.builder.AbstractGenerateBuilder;
+import cn.t0mpi9.snowflake.builder.DirectConfigBuilder;
+import cn.t0mpi9.snowflake.builder.DirectIpConfigBuilder;
 import cn.t0mpi9.snowflake.builder.RedisConfigBuilder;
 import cn.t0mpi9.snowflake.builder.SnowflakeIdGenerateBuilder;
 import cn.t0mpi9.snowflake.builder.ZookeeperConfigBuilder;
@@ -9,11 +15,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.context.EnvironmentAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -24,6 +33,7 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.Enumeration;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <br/>
@@ -33,13 +43,19 @@ import java.util.Objects;
  */
 @Configuration
 @EnableConfigurationProperties(value = {SnowflakeIdGenerateProperties.class})
-public class SnowflakeIdGenerateAutoConfiguration implements EnvironmentAware, InitializingBean, DisposableBean {
+public class SnowflakeIdGenerateAutoConfiguration implements EnvironmentAware, ApplicationEventPublisherAware,
+        InitializingBean, DisposableBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SnowflakeIdGenerateAutoConfiguration.class);
 
     private Integer serverPort;
     private String springApplicationName;
     private SnowflakeIdGenerateBuilder snowflakeIdGenerateBuilder;
+    /**
+     * zookeeper或redis方式创建容器中SnowflakeIdGenerate的建造对象
+     */
+    private AbstractConfigBuilder<?> registrationBuilder;
+    private ApplicationEventPublisher applicationEventPublisher;
 
     /**
      * direct-ip, redis-config, zk-config都未开启时，用配置的workerId和dataCenterId
@@ -50,10 +66,10 @@ public class SnowflakeIdGenerateAutoConfiguration implements EnvironmentAware, I
     @Primary
     @Bean
     public SnowflakeIdGenerate snowflakeIdGenerateDirect(SnowflakeIdGenerateProperties properties) {
-        return snowflakeIdGenerateBuilder.useDirect()
+        DirectConfigBuilder directConfigBuilder = snowflakeIdGenerateBuilder.useDirect()
                 .workerId(properties.getDirect().getWorkerId())
-                .dataCenterId(properties.getDirect().getDataCenterId())
-                .build();
+                .dataCenterId(properties.getDirect().getDataCenterId());
+        return configGenerate(directConfigBuilder, properties).build();
     }
 
     /**
@@ -67,9 +83,9 @@ public class SnowflakeIdGenerateAutoConfiguration implements EnvironmentAware, I
         if (currentServerIp == null) {
             currentServerIp = getLocalAddress().getHostAddress();
         }
-        return snowflakeIdGenerateBuilder.useDirectIp()
-                .currentServerIp(currentServerIp)
-                .build();
+        DirectIpConfigBuilder directIpConfigBuilder = snowflakeIdGenerateBuilder.useDirectIp()
+                .currentServerIp(currentServerIp);
+        return configGenerate(directIpConfigBuilder, properties).build();
     }
 
     /**
@@ -83,7 +99,7 @@ public class SnowflakeIdGenerateAutoConfiguration implements EnvironmentAware, I
                 .useZookeeper(properties.getZkConfig().getConnection(), null
                         , properties.getZkConfig().getConnectionTimeoutMillis(), properties.getZkConfig().getSessionTimeoutMillis());
 
-        return doConfigBuild(zookeeperConfigBuilder, properties.getZkConfig());
+        return doConfigBuild(zookeeperConfigBuilder, properties, properties.getZkConfig());
     }
 
     /**
@@ -96,9 +112,11 @@ public class SnowflakeIdGenerateAutoConfiguration implements EnvironmentAware, I
     public SnowflakeIdGenerate snowflakeIdGenerateLettuce(SnowflakeIdGenerateProperties properties) {
         RedisConfigBuilder redisConfigBuilder = snowflakeIdGenerateBuilder
                 .useLettuceRedis(properties.getRedisConfig().getHost(), properties.getRedisConfig().getPort(),
-                        properties.getRedisConfig().getPassword(), properties.getRedisConfig().getDatabase());
+                        properties.getRedisConfig().getPassword(), properties.getRedisConfig().getDatabase())
+                .heartbeatTimeoutMillis(properties.getRedisConfig().getHeartbeatTimeoutMillis())
+                .adaptiveHeartbeat(properties.getRedisConfig().isAdaptiveHeartbeat());
 
-        return doConfigBuild(redisConfigBuilder, properties.getRedisConfig());
+        return doConfigBuild(redisConfigBuilder, properties, properties.getRedisConfig());
     }
 
     /**
@@ -112,27 +130,90 @@ public class SnowflakeIdGenerateAutoConfiguration implements EnvironmentAware, I
     public SnowflakeIdGenerate snowflakeIdGenerateJedis(SnowflakeIdGenerateProperties properties) {
         RedisConfigBuilder redisConfigBuilder = snowflakeIdGenerateBuilder
                 .useJedisRedis(properties.getRedisConfig().getHost(), properties.getRedisConfig().getPort(),
-                        properties.getRedisConfig().getPassword(), properties.getRedisConfig().getDatabase());
+                        properties.getRedisConfig().getPassword(), properties.getRedisConfig().getDatabase())
+                .heartbeatTimeoutMillis(properties.getRedisConfig().getHeartbeatTimeoutMillis())
+                .adaptiveHeartbeat(properties.getRedisConfig().isAdaptiveHeartbeat());
 
-        return doConfigBuild(redisConfigBuilder, properties.getRedisConfig());
+        return doConfigBuild(redisConfigBuilder, properties, properties.getRedisConfig());
+    }
+
+    /**
+     * 多个namespace共用容器中SnowflakeIdGenerate的workerId和dataCenterId, 通过{@link SnowflakeIdRegistry#namespace(String)}按名称获取
+     */
+    @ConditionalOnMissingBean(value = {SnowflakeIdRegistry.class})
+    @Bean
+    public SnowflakeIdRegistry snowflakeIdRegistry(SnowflakeIdGenerate snowflakeIdGenerate, SnowflakeIdGenerateProperties properties) {
+        SnowflakeIdRegistry registry = new SnowflakeIdRegistry(snowflakeIdGenerate, properties.getNamespaceCapacity());
+        properties.getNamespaces().forEach(registry::register);
+        return registry;
+    }
+
+    /**
+     * 注册完成后续租的生成器。开启async-bootstrap并且后台注册结果和本地缓存不一致时, 容器中的SnowflakeIdGenerate
+     * 按lease.expiry-policy拒绝生成或改用备用workerId, 通过这里取得按注册结果新建的生成器;
+     * 其他情况完成的值就是容器中的SnowflakeIdGenerate
+     */
+    @ConditionalOnMissingBean(name = {"snowflakeIdRegistration"})
+    @Bean
+    public CompletableFuture<SnowflakeIdGenerate> snowflakeIdRegistration(SnowflakeIdGenerate snowflakeIdGenerate) {
+        if (registrationBuilder == null) {
+            return CompletableFuture.completedFuture(snowflakeIdGenerate);
+        }
+        return registrationBuilder.getRegistration();
     }
 
     /**
      * 创建
      *
      * @param configBuilder 建造对象抽象父类
+     * @param properties    配置
      * @param zkAndRedis    配置抽象父类
      * @return SnowflakeIdGenerate
      */
-    private SnowflakeIdGenerate doConfigBuild(AbstractConfigBuilder configBuilder, SnowflakeIdGenerateProperties.BaseZkAndRedis zkAndRedis) {
+    private <T extends AbstractConfigBuilder<T>> SnowflakeIdGenerate doConfigBuild(T configBuilder, SnowflakeIdGenerateProperties properties,
+                                                                                   SnowflakeIdGenerateProperties.BaseZkAndRedis zkAndRedis) {
+        configGenerate(configBuilder, properties);
+        registrationBuilder = configBuilder;
         return configBuilder.ip(getIpOrDefault(zkAndRedis))
                 .port(getPortOrDefault(zkAndRedis))
                 .applicationName(getApplicationNameOrDefault(zkAndRedis))
                 .localFileCache(zkAndRedis.isLocalFileCache())
                 .fileCachePath(zkAndRedis.getFileCachePath())
+                .reclaimMarginMillis(zkAndRedis.getReclaimMarginMillis())
+                .asyncBootstrap(zkAndRedis.isAsyncBootstrap())
                 .build();
     }
 
+    /**
+     * 设置ID生成方式相关配置
+     *
+     * @param generateBuilder 建造对象
+     * @param properties      配置
+     * @return 传入的建造对象
+     */
+    private <T extends AbstractGenerateBuilder<T>> T configGenerate(T generateBuilder, SnowflakeIdGenerateProperties properties) {
+        SnowflakeIdGenerateProperties.RingBuffer ringBuffer = properties.getRingBuffer();
+        generateBuilder.generateMode(properties.getGenerateMode())
+                .timeSource(properties.getTimeSource())
+                .maxBorrowMillis(properties.getMaxBorrowMillis())
+                .waitStrategy(properties.getWaitStrategy())
+                .ringBufferSize(ringBuffer.getBufferSize())
+                .ringBufferPaddingFactor(ringBuffer.getPaddingFactor())
+                .ringBufferRefillPolicy(ringBuffer.getRefillPolicy())
+                .ringBufferRefillPeriodMillis(ringBuffer.getRefillPeriodMillis())
+                .stripeBits(properties.getStripeBits())
+                .bitLayout(properties.getBitLayout().toBitLayout())
+                .rollbackStrategy(properties.getRollback().getStrategy())
+                .backupWorkerId(properties.getRollback().getBackupWorkerId())
+                .backupDataCenterId(properties.getRollback().getBackupDataCenterId())
+                .leaseExpiryPolicy(properties.getLease().getExpiryPolicy())
+                .fallbackWorkerId(properties.getLease().getFallbackWorkerId())
+                .fallbackDataCenterId(properties.getLease().getFallbackDataCenterId())
+                //ClockRollbackEvent作为spring事件发布, 可以用@EventListener监听
+                .clockRollbackListener(applicationEventPublisher::publishEvent);
+        return generateBuilder;
+    }
+
     /**
      * 获取配置的当前服务ip，没有的话获取本机ip
      *
@@ -210,12 +291,59 @@ public class SnowflakeIdGenerateAutoConfiguration implements EnvironmentAware, I
         return candidateAddress;
     }
 
+    /**
+     * 引入了micrometer时把生成器的指标注册成meter, 有actuator时会自动绑定到MeterRegistry
+     */
+    @Configuration
+    @ConditionalOnClass(name = {"io.micrometer.core.instrument.binder.MeterBinder"})
+    static class SnowflakeIdGenerateMetricsConfiguration {
+
+        @ConditionalOnMissingBean(value = {SnowflakeIdGenerateMeterBinder.class})
+        @Bean
+        public SnowflakeIdGenerateMeterBinder snowflakeIdGenerateMeterBinder(
+                ObjectProvider<SnowflakeIdGenerate> snowflakeIdGenerates) {
+            return new SnowflakeIdGenerateMeterBinder(snowflakeIdGenerates);
+        }
+    }
+
+    /**
+     * 不阻塞调用线程的异步生成器, 基于容器中的SnowflakeIdGenerate
+     */
+    @Configuration
+    static class AsyncSnowflakeIdGenerateConfiguration {
+
+        @ConditionalOnMissingBean(value = {AsyncSnowflakeIdGenerate.class})
+        @Bean(destroyMethod = "close")
+        public AsyncSnowflakeIdGenerate asyncSnowflakeIdGenerate(SnowflakeIdGenerate snowflakeIdGenerate) {
+            return new AsyncSnowflakeIdGenerate(snowflakeIdGenerate);
+        }
+    }
+
+    /**
+     * 引入了reactor时提供Mono/Flux形式的生成器
+     */
+    @Configuration
+    @ConditionalOnClass(name = {"reactor.core.publisher.Flux"})
+    static class ReactiveSnowflakeIdGenerateConfiguration {
+
+        @ConditionalOnMissingBean(value = {ReactiveSnowflakeIdGenerate.class})
+        @Bean
+        public ReactiveSnowflakeIdGenerate reactiveSnowflakeIdGenerate(AsyncSnowflakeIdGenerate asyncSnowflakeIdGenerate) {
+            return new ReactiveSnowflakeIdGenerate(asyncSnowflakeIdGenerate);
+        }
+    }
+
     @Override
     public void setEnvironment(Environment environment) {
         serverPort = environment.getProperty("server.port", Integer.class, 8080);
         springApplicationName = environment.getProperty("spring.application.name", String.class);
     }
 
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         snowflakeIdGenerateBuilder = SnowflakeIdGenerateBuilder.create();
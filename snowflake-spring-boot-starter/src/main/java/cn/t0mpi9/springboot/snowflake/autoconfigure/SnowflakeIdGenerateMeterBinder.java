@@ -0,0 +1,86 @@
+package cn.t0mpi9.springboot.snowflake.autoconfigure;
+
+import cn.t0mpi9.snowflake.GenerateMetrics;
+import cn.t0mpi9.snowflake.SnowflakeIdGenerate;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把{@link GenerateMetrics}注册成micrometer的meter
+ * <br/>
+ * meter直接读取LongAdder的和, 生成ID的路径上没有额外开销。tag带上workerId和dataCenterId, 方便定位实例
+ * <br/>
+ * Created on 2020/7/21 10:40.
+ *
+ * @author zhubenle
+ */
+public class SnowflakeIdGenerateMeterBinder implements MeterBinder {
+
+    private final ObjectProvider<SnowflakeIdGenerate> snowflakeIdGenerates;
+
+    public SnowflakeIdGenerateMeterBinder(ObjectProvider<SnowflakeIdGenerate> snowflakeIdGenerates) {
+        this.snowflakeIdGenerates = snowflakeIdGenerates;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        snowflakeIdGenerates.orderedStream().forEach(snowflakeIdGenerate -> bindTo(registry, snowflakeIdGenerate));
+    }
+
+    private void bindTo(MeterRegistry registry, SnowflakeIdGenerate snowflakeIdGenerate) {
+        GenerateMetrics metrics = snowflakeIdGenerate.getMetrics();
+        Tags tags = Tags.of("workerId", String.valueOf(snowflakeIdGenerate.getWorkerId()),
+                "dataCenterId", String.valueOf(snowflakeIdGenerate.getDataCenterId()));
+
+        FunctionCounter.builder("snowflake.ids.issued", metrics, GenerateMetrics::getIssuedCount)
+                .tags(tags)
+                .description("已生成的ID数")
+                .register(registry);
+        FunctionTimer.builder("snowflake.sequence.overflow", metrics, GenerateMetrics::getSequenceOverflowCount,
+                GenerateMetrics::getTilNextMillisNanos, TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("sequence用完的次数和等待下一毫秒的时间")
+                .register(registry);
+        FunctionCounter.builder("snowflake.borrow", metrics, GenerateMetrics::getBorrowCount)
+                .tags(tags)
+                .description("借用下一毫秒的次数")
+                .register(registry);
+        Gauge.builder("snowflake.lead.max", metrics, GenerateMetrics::getMaxLeadMillis)
+                .tags(tags)
+                .baseUnit("milliseconds")
+                .description("逻辑时间戳超前系统时间的最大毫秒数")
+                .register(registry);
+        FunctionTimer.builder("snowflake.clock.rollback", metrics, GenerateMetrics::getRollbackCount,
+                GenerateMetrics::getRollbackWaitNanos, TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("时钟后移的次数和退回等待的时间")
+                .register(registry);
+        FunctionCounter.builder("snowflake.timeout", metrics, GenerateMetrics::getTimeoutCount)
+                .tags(tags)
+                .description("tryNextId超时的次数")
+                .register(registry);
+        FunctionCounter.builder("snowflake.ring.buffer.starvation", metrics, GenerateMetrics::getStarvationCount)
+                .tags(tags)
+                .description("RingBuffer被取空的次数")
+                .register(registry);
+        FunctionCounter.builder("snowflake.heartbeat", metrics, GenerateMetrics::getHeartbeatSuccessCount)
+                .tags(tags.and("result", "success"))
+                .description("zookeeper或redis定时上报的次数")
+                .register(registry);
+        FunctionCounter.builder("snowflake.heartbeat", metrics, GenerateMetrics::getHeartbeatFailureCount)
+                .tags(tags.and("result", "failure"))
+                .description("zookeeper或redis定时上报的次数")
+                .register(registry);
+        FunctionCounter.builder("snowflake.lease.expired", metrics, GenerateMetrics::getLeaseExpiredCount)
+                .tags(tags)
+                .description("租约过期后生成或拒绝的ID数")
+                .register(registry);
+    }
+}
@@ -1,7 +1,22 @@
 package cn.t0mpi9.springboot.snowflake.autoconfigure;
 
+import cn.t0mpi9.snowflake.BitLayout;
+import cn.t0mpi9.snowflake.GenerateMode;
+import cn.t0mpi9.snowflake.LeaseExpiryPolicy;
+import cn.t0mpi9.snowflake.RefillPolicy;
+import cn.t0mpi9.snowflake.RingBufferSnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.RollbackStrategy;
+import cn.t0mpi9.snowflake.SnowflakeIdRegistry;
+import cn.t0mpi9.snowflake.StripedSnowflakeIdGenerate;
+import cn.t0mpi9.snowflake.WaitStrategy;
+import cn.t0mpi9.snowflake.builder.AbstractConfigBuilder;
+import cn.t0mpi9.snowflake.builder.RedisConfigBuilder;
+import cn.t0mpi9.snowflake.time.TimeSourceType;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * <br/>
  * Created on 2020/6/19 14:18.
@@ -11,6 +26,61 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 @ConfigurationProperties(prefix = "snowflake")
 public class SnowflakeIdGenerateProperties {
 
+    /**
+     * ID生成方式, 默认SYNCHRONIZED
+     */
+    private GenerateMode generateMode = GenerateMode.SYNCHRONIZED;
+
+    /**
+     * 时钟类型, SYSTEM直接读System.currentTimeMillis(), CACHED读ticker线程缓存的时间, 默认SYSTEM
+     */
+    private TimeSourceType timeSource = TimeSourceType.SYSTEM;
+
+    /**
+     * 同一毫秒sequence用完时最多允许借用超前系统时间的毫秒数, 默认0不借用
+     */
+    private long maxBorrowMillis;
+
+    /**
+     * sequence用完时等待下一毫秒的方式, 虚拟线程中建议PARK, 默认BUSY_SPIN
+     */
+    private WaitStrategy waitStrategy = WaitStrategy.BUSY_SPIN;
+
+    /**
+     * generateMode为RING_BUFFER时的配置
+     */
+    private RingBuffer ringBuffer = new RingBuffer();
+
+    /**
+     * generateMode为STRIPED时sequence中用作段号的高位数, 段数为2^stripeBits, 默认3
+     */
+    private int stripeBits = StripedSnowflakeIdGenerate.DEFAULT_STRIPE_BITS;
+
+    /**
+     * ID的位布局, 默认和twitter snowflake一致
+     */
+    private Layout bitLayout = new Layout();
+
+    /**
+     * 时钟后移处理配置
+     */
+    private Rollback rollback = new Rollback();
+
+    /**
+     * zookeeper或redis分配的workerId租约过期处理配置
+     */
+    private Lease lease = new Lease();
+
+    /**
+     * 启动时注册到SnowflakeIdRegistry的namespace, 共用同一个workerId和dataCenterId, 各自独立的sequence
+     */
+    private List<String> namespaces = new ArrayList<>();
+
+    /**
+     * SnowflakeIdRegistry最多的namespace数, 默认64
+     */
+    private int namespaceCapacity = SnowflakeIdRegistry.DEFAULT_CAPACITY;
+
     /**
      * 自定义配置dataCenterId和workerId
      */
@@ -31,6 +101,94 @@ public class SnowflakeIdGenerateProperties {
      */
     private Zk zkConfig = new Zk();
 
+    public GenerateMode getGenerateMode() {
+        return generateMode;
+    }
+
+    public void setGenerateMode(GenerateMode generateMode) {
+        this.generateMode = generateMode;
+    }
+
+    public TimeSourceType getTimeSource() {
+        return timeSource;
+    }
+
+    public void setTimeSource(TimeSourceType timeSource) {
+        this.timeSource = timeSource;
+    }
+
+    public long getMaxBorrowMillis() {
+        return maxBorrowMillis;
+    }
+
+    public void setMaxBorrowMillis(long maxBorrowMillis) {
+        this.maxBorrowMillis = maxBorrowMillis;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public List<String> getNamespaces() {
+        return namespaces;
+    }
+
+    public void setNamespaces(List<String> namespaces) {
+        this.namespaces = namespaces;
+    }
+
+    public int getNamespaceCapacity() {
+        return namespaceCapacity;
+    }
+
+    public void setNamespaceCapacity(int namespaceCapacity) {
+        this.namespaceCapacity = namespaceCapacity;
+    }
+
+    public RingBuffer getRingBuffer() {
+        return ringBuffer;
+    }
+
+    public void setRingBuffer(RingBuffer ringBuffer) {
+        this.ringBuffer = ringBuffer;
+    }
+
+    public int getStripeBits() {
+        return stripeBits;
+    }
+
+    public void setStripeBits(int stripeBits) {
+        this.stripeBits = stripeBits;
+    }
+
+    public Layout getBitLayout() {
+        return bitLayout;
+    }
+
+    public void setBitLayout(Layout bitLayout) {
+        this.bitLayout = bitLayout;
+    }
+
+    public Rollback getRollback() {
+        return rollback;
+    }
+
+    public void setRollback(Rollback rollback) {
+        this.rollback = rollback;
+    }
+
+    public Lease getLease() {
+        return lease;
+    }
+
+    public void setLease(Lease lease) {
+        this.lease = lease;
+    }
+
     public Direct getDirect() {
         return direct;
     }
@@ -63,6 +221,221 @@ public class SnowflakeIdGenerateProperties {
         this.zkConfig = zkConfig;
     }
 
+    public static class RingBuffer {
+        /**
+         * RingBuffer大小, 必须是2的幂, 默认32768
+         */
+        private int bufferSize = RingBufferSnowflakeIdGenerate.DEFAULT_BUFFER_SIZE;
+        /**
+         * 剩余ID数低于bufferSize的该百分比时补充, 默认50
+         */
+        private int paddingFactor = RingBufferSnowflakeIdGenerate.DEFAULT_PADDING_FACTOR;
+        /**
+         * 补充策略, 默认THRESHOLD
+         */
+        private RefillPolicy refillPolicy = RefillPolicy.THRESHOLD;
+        /**
+         * 补充策略为SCHEDULED时的补充周期, 默认1000毫秒
+         */
+        private long refillPeriodMillis = RingBufferSnowflakeIdGenerate.DEFAULT_REFILL_PERIOD_MILLIS;
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        public int getPaddingFactor() {
+            return paddingFactor;
+        }
+
+        public void setPaddingFactor(int paddingFactor) {
+            this.paddingFactor = paddingFactor;
+        }
+
+        public RefillPolicy getRefillPolicy() {
+            return refillPolicy;
+        }
+
+        public void setRefillPolicy(RefillPolicy refillPolicy) {
+            this.refillPolicy = refillPolicy;
+        }
+
+        public long getRefillPeriodMillis() {
+            return refillPeriodMillis;
+        }
+
+        public void setRefillPeriodMillis(long refillPeriodMillis) {
+            this.refillPeriodMillis = refillPeriodMillis;
+        }
+    }
+
+    public static class Layout {
+        /**
+         * 时间戳起点, 毫秒, 默认1288834974657
+         */
+        private long epoch = BitLayout.DEFAULT_EPOCH;
+        /**
+         * 时间戳单位, 毫秒, 默认1
+         */
+        private long timeUnitMillis = 1L;
+        /**
+         * clockEpoch位数, rollback.strategy为CLOCK_EPOCH时需要大于0, 默认0
+         */
+        private int clockEpochBits;
+        /**
+         * dataCenterId位数, 默认5
+         */
+        private int dataCenterIdBits = BitLayout.DEFAULT_DATA_CENTER_ID_BITS;
+        /**
+         * workerId位数, 默认5
+         */
+        private int workerIdBits = BitLayout.DEFAULT_WORKER_ID_BITS;
+        /**
+         * sequence位数, 默认12
+         */
+        private int sequenceBits = BitLayout.DEFAULT_SEQUENCE_BITS;
+
+        public BitLayout toBitLayout() {
+            return BitLayout.builder()
+                    .epoch(epoch)
+                    .timeUnitMillis(timeUnitMillis)
+                    .clockEpochBits(clockEpochBits)
+                    .dataCenterIdBits(dataCenterIdBits)
+                    .workerIdBits(workerIdBits)
+                    .sequenceBits(sequenceBits)
+                    .build();
+        }
+
+        public long getEpoch() {
+            return epoch;
+        }
+
+        public void setEpoch(long epoch) {
+            this.epoch = epoch;
+        }
+
+        public long getTimeUnitMillis() {
+            return timeUnitMillis;
+        }
+
+        public void setTimeUnitMillis(long timeUnitMillis) {
+            this.timeUnitMillis = timeUnitMillis;
+        }
+
+        public int getClockEpochBits() {
+            return clockEpochBits;
+        }
+
+        public void setClockEpochBits(int clockEpochBits) {
+            this.clockEpochBits = clockEpochBits;
+        }
+
+        public int getDataCenterIdBits() {
+            return dataCenterIdBits;
+        }
+
+        public void setDataCenterIdBits(int dataCenterIdBits) {
+            this.dataCenterIdBits = dataCenterIdBits;
+        }
+
+        public int getWorkerIdBits() {
+            return workerIdBits;
+        }
+
+        public void setWorkerIdBits(int workerIdBits) {
+            this.workerIdBits = workerIdBits;
+        }
+
+        public int getSequenceBits() {
+            return sequenceBits;
+        }
+
+        public void setSequenceBits(int sequenceBits) {
+            this.sequenceBits = sequenceBits;
+        }
+    }
+
+    public static class Rollback {
+        /**
+         * 时钟后移超过max-borrow-millis时的处理策略, WAIT等待, CLOCK_EPOCH切换clockEpoch, BACKUP_WORKER切换备用workerId, 默认WAIT
+         */
+        private RollbackStrategy strategy = RollbackStrategy.WAIT;
+        /**
+         * BACKUP_WORKER策略的备用workerId, 默认-1, zookeeper和redis方式自动分配
+         */
+        private long backupWorkerId = -1L;
+        /**
+         * BACKUP_WORKER策略的备用dataCenterId, 默认-1和主dataCenterId相同
+         */
+        private long backupDataCenterId = -1L;
+
+        public RollbackStrategy getStrategy() {
+            return strategy;
+        }
+
+        public void setStrategy(RollbackStrategy strategy) {
+            this.strategy = strategy;
+        }
+
+        public long getBackupWorkerId() {
+            return backupWorkerId;
+        }
+
+        public void setBackupWorkerId(long backupWorkerId) {
+            this.backupWorkerId = backupWorkerId;
+        }
+
+        public long getBackupDataCenterId() {
+            return backupDataCenterId;
+        }
+
+        public void setBackupDataCenterId(long backupDataCenterId) {
+            this.backupDataCenterId = backupDataCenterId;
+        }
+    }
+
+    public static class Lease {
+        /**
+         * 定时上报持续失败、租约过期后的处理策略, REJECT拒绝生成, DEGRADED告警后继续, FALLBACK_WORKER切换预留的备用workerId, 默认DEGRADED
+         */
+        private LeaseExpiryPolicy expiryPolicy = LeaseExpiryPolicy.DEGRADED;
+        /**
+         * FALLBACK_WORKER策略的备用workerId, 每个实例单独预留, 不能是zookeeper或redis会分配的workerId
+         */
+        private long fallbackWorkerId = -1L;
+        /**
+         * FALLBACK_WORKER策略的备用dataCenterId, 默认-1和主dataCenterId相同
+         */
+        private long fallbackDataCenterId = -1L;
+
+        public LeaseExpiryPolicy getExpiryPolicy() {
+            return expiryPolicy;
+        }
+
+        public void setExpiryPolicy(LeaseExpiryPolicy expiryPolicy) {
+            this.expiryPolicy = expiryPolicy;
+        }
+
+        public long getFallbackWorkerId() {
+            return fallbackWorkerId;
+        }
+
+        public void setFallbackWorkerId(long fallbackWorkerId) {
+            this.fallbackWorkerId = fallbackWorkerId;
+        }
+
+        public long getFallbackDataCenterId() {
+            return fallbackDataCenterId;
+        }
+
+        public void setFallbackDataCenterId(long fallbackDataCenterId) {
+            this.fallbackDataCenterId = fallbackDataCenterId;
+        }
+    }
+
     public static class Direct {
         private static final long DEFAULT_ID = 0;
         /**
@@ -193,6 +566,14 @@ public class SnowflakeIdGenerateProperties {
          * redis的database, 默认0
          */
         private int database = 0;
+        /**
+         * 单次续租的超时毫秒数, 默认3000
+         */
+        private long heartbeatTimeoutMillis = RedisConfigBuilder.DEFAULT_HEARTBEAT_TIMEOUT_MILLIS;
+        /**
+         * 续租慢到租约可能在下一个周期前到期时是否提前续租, 默认false
+         */
+        private boolean adaptiveHeartbeat;
 
         public boolean isEnable() {
             return enable;
@@ -233,6 +614,22 @@ public class SnowflakeIdGenerateProperties {
         public void setDatabase(int database) {
             this.database = database;
         }
+
+        public long getHeartbeatTimeoutMillis() {
+            return heartbeatTimeoutMillis;
+        }
+
+        public void setHeartbeatTimeoutMillis(long heartbeatTimeoutMillis) {
+            this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        }
+
+        public boolean isAdaptiveHeartbeat() {
+            return adaptiveHeartbeat;
+        }
+
+        public void setAdaptiveHeartbeat(boolean adaptiveHeartbeat) {
+            this.adaptiveHeartbeat = adaptiveHeartbeat;
+        }
     }
 
     public static class BaseZkAndRedis {
@@ -256,6 +653,15 @@ public class SnowflakeIdGenerateProperties {
          * 指定的本地缓存dataCenterId和workerId的文件目录, 默认System.getProperty("java.io.tmpdir")
          */
         protected String fileCachePath;
+        /**
+         * 已下线实例上报的时间戳早于当前时间超过该毫秒数后, 其顺序号才会被回收给其他实例, 默认60000
+         */
+        protected long reclaimMarginMillis = AbstractConfigBuilder.DEFAULT_RECLAIM_MARGIN_MILLIS;
+        /**
+         * 是否异步启动, 本地缓存的workerId租约未到期时不等待zk或redis注册完成, 需要开启localFileCache,
+         * lease.expiry-policy不能是DEGRADED, 默认false
+         */
+        protected boolean asyncBootstrap;
 
         public String getCurrentServerIp() {
             return currentServerIp;
@@ -296,5 +702,21 @@ public class SnowflakeIdGenerateProperties {
         public void setFileCachePath(String fileCachePath) {
             this.fileCachePath = fileCachePath;
         }
+
+        public long getReclaimMarginMillis() {
+            return reclaimMarginMillis;
+        }
+
+        public void setReclaimMarginMillis(long reclaimMarginMillis) {
+            this.reclaimMarginMillis = reclaimMarginMillis;
+        }
+
+        public boolean isAsyncBootstrap() {
+            return asyncBootstrap;
+        }
+
+        public void setAsyncBootstrap(boolean asyncBootstrap) {
+            this.asyncBootstrap = asyncBootstrap;
+        }
     }
 }